@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.flow.dom.Element;
+
+import elemental.json.Json;
+import elemental.json.JsonValue;
+
+/**
+ * Compares the cost of creating a fully configured {@link IdleNotification}
+ * through its setters and through a shared {@link IdleNotificationConfig}.
+ * <p>
+ * Besides the time, the {@code stateTreeBytes} and {@code properties} counters
+ * report, per created component, the size of the element properties sent to
+ * the client on attach and their number. They measure the server side and the
+ * attach payload only: how many observers the client runs to apply the
+ * properties isn't measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdleNotificationAttachBenchmark {
+
+    private static final int SECONDS_BEFORE_NOTIFICATION = 90;
+    private static final int MAX_INACTIVE_INTERVAL = 1800;
+
+    private IdleNotificationConfig config;
+
+    /**
+     * Per-component averages of the attach payload
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Payload {
+
+        public long stateTreeBytes;
+        public long properties;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            stateTreeBytes = 0;
+            properties = 0;
+        }
+
+        void add(Element element) {
+            for (String name : (Iterable<String>) element.getPropertyNames()::iterator) {
+                Serializable value = element.getPropertyRaw(name);
+                JsonValue json = value instanceof JsonValue ? (JsonValue) value : toJson(value);
+                stateTreeBytes += name.length() + json.toJson().length();
+                properties++;
+            }
+        }
+
+        private static JsonValue toJson(Serializable value) {
+            if (value instanceof String) {
+                return Json.create((String) value);
+            }
+            if (value instanceof Boolean) {
+                return Json.create((Boolean) value);
+            }
+            if (value instanceof Number) {
+                return Json.create(((Number) value).doubleValue());
+            }
+            return Json.createNull();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = IdleNotificationConfig.builder().secondsBeforeNotification(SECONDS_BEFORE_NOTIFICATION)
+                .maxInactiveInterval(MAX_INACTIVE_INTERVAL).closeButton().extendSessionButton("Extend session")
+                .redirectButton("Log out", "logout").redirectAtTimeoutUrl("logout").build();
+    }
+
+    @Benchmark
+    public IdleNotification setters(Payload payload) {
+        IdleNotification idleNotification = new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE,
+                SECONDS_BEFORE_NOTIFICATION, MAX_INACTIVE_INTERVAL, "logout");
+        idleNotification.addCloseButton();
+        idleNotification.addExtendSessionButton("Extend session");
+        idleNotification.addRedirectButton("Log out", "logout");
+        payload.add(idleNotification.getElement());
+        return idleNotification;
+    }
+
+    @Benchmark
+    public IdleNotification sharedConfig(Payload payload) {
+        IdleNotification idleNotification = new IdleNotification(config);
+        payload.add(idleNotification.getElement());
+        return idleNotification;
+    }
+}
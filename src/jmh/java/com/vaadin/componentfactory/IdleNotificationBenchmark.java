@@ -0,0 +1,249 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * Measures the per-UI cost of {@link IdleNotification}: construction
+ * (including the {@code maxInactiveInterval} lookup through
+ * {@link VaadinSession#getCurrent()}), configuring it through its setters,
+ * registering listeners, dispatching events and registering it with the
+ * {@link SessionIdleTracker}, which is what attaching it does.
+ * <p>
+ * The sessions are minimal in-memory stand-ins, so the figures don't include
+ * servlet container overhead. The benchmarks over many UIs report the time
+ * per UI.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdleNotificationBenchmark {
+
+    private static final int UIS = 1000;
+    private static final int MAX_INACTIVE_INTERVAL = 1800;
+
+    @Param({ "1", "10" })
+    public int listenersPerEvent;
+
+    private VaadinSession currentSession;
+    private IdleNotificationConfig config;
+    private IdleNotification[] components;
+    private VaadinSession[] sessions;
+    private SessionIdleTracker tracker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        currentSession = new BenchmarkSession("current");
+        VaadinSession.setCurrent(currentSession);
+        config = IdleNotificationConfig.builder().extendSessionButton("Extend session")
+                .redirectButton("Log out", "logout").redirectAtTimeoutUrl("logout").build();
+        tracker = new SessionIdleTracker();
+        components = new IdleNotification[UIS];
+        sessions = new VaadinSession[UIS];
+        for (int i = 0; i < UIS; i++) {
+            components[i] = new IdleNotification();
+            sessions[i] = new BenchmarkSession("session-" + i);
+            for (int j = 0; j < listenersPerEvent; j++) {
+                components[i].addOpenListener(event -> {
+                });
+                components[i].addCloseListener(event -> {
+                });
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tracker.shutdown();
+        VaadinSession.setCurrent(null);
+    }
+
+    @Benchmark
+    public IdleNotification constructDefault() {
+        return new IdleNotification();
+    }
+
+    @Benchmark
+    public IdleNotification constructWithMaxInactiveInterval() {
+        return new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE,
+                IdleNotification.DEFAULT_SECONDS_BEFORE_NOTIFICATION, MAX_INACTIVE_INTERVAL);
+    }
+
+    @Benchmark
+    public IdleNotification constructFromConfig() {
+        return new IdleNotification(config);
+    }
+
+    @Benchmark
+    public IdleNotification configureWithSetters() {
+        IdleNotification idleNotification = new IdleNotification();
+        idleNotification.setAfterExpiredMessage(
+                "Logged out after " + IdleNotification.MessageFormatting.SECS_MAX_IDLE_TIMEOUT + " seconds");
+        idleNotification.addExtendSessionButton("Extend session");
+        idleNotification.addRedirectButton("Log out", "logout");
+        idleNotification.setRedirectAtTimeoutUrl("logout");
+        idleNotification.setExtendSessionOnOutsideClick(false);
+        idleNotification.setCloseNotificationOnOutsideClick(true);
+        idleNotification.setMaxInactiveInterval(MAX_INACTIVE_INTERVAL);
+        idleNotification.setSecondsBeforeNotification(90);
+        return idleNotification;
+    }
+
+    @Benchmark
+    public void registerListeners(Blackhole blackhole) {
+        IdleNotification idleNotification = components[0];
+        Registration open = idleNotification.addOpenListener(blackhole::consume);
+        Registration close = idleNotification.addCloseListener(blackhole::consume);
+        Registration extend = idleNotification.addExtendSessionListener(blackhole::consume);
+        Registration redirect = idleNotification.addRedirectListener(blackhole::consume);
+        Registration timeout = idleNotification.addTimeoutListener(blackhole::consume);
+        open.remove();
+        close.remove();
+        extend.remove();
+        redirect.remove();
+        timeout.remove();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UIS)
+    public void dispatchEvents() {
+        for (IdleNotification idleNotification : components) {
+            ComponentUtil.fireEvent(idleNotification, new IdleNotification.OpenEvent(idleNotification, true));
+            ComponentUtil.fireEvent(idleNotification, new IdleNotification.CloseEvent(idleNotification, true));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UIS)
+    public void registerWithTracker() {
+        for (int i = 0; i < UIS; i++) {
+            tracker.register(components[i], sessions[i]);
+        }
+    }
+
+    /**
+     * A {@link VaadinSession} backed by an in-memory HttpSession stand-in
+     */
+    private static class BenchmarkSession extends VaadinSession {
+
+        private final WrappedSession wrappedSession;
+
+        BenchmarkSession(String id) {
+            super(null);
+            wrappedSession = new MapWrappedSession(id);
+        }
+
+        @Override
+        public WrappedSession getSession() {
+            return wrappedSession;
+        }
+    }
+
+    private static class MapWrappedSession implements WrappedSession {
+
+        private final String id;
+        private final long creationTime = System.currentTimeMillis();
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        MapWrappedSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public int getMaxInactiveInterval() {
+            return MAX_INACTIVE_INTERVAL;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            return Collections.unmodifiableSet(attributes.keySet());
+        }
+
+        @Override
+        public void invalidate() {
+            attributes.clear();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return creationTime;
+        }
+
+        @Override
+        public boolean isNew() {
+            return false;
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+
+        @Override
+        public void setMaxInactiveInterval(int interval) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import elemental.json.JsonArray;
+
+/**
+ * Measures {@link MessageTemplate#compile(String)}, which is the one-time
+ * server cost of a message that the client then renders on every count-down
+ * tick without parsing it.
+ * <p>
+ * The per-tick cost on the client, compared to the former
+ * {@code eval()} of the message as a template literal, is measured by
+ * {@code src/test/js/message-template.bench.mjs}, which runs in the same
+ * profile: {@code eval()} only exists in the browser's JavaScript engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageTemplateBenchmark {
+
+    @Param({ "default", "countdown", "literal" })
+    public String message;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        switch (message) {
+        case "default":
+            text = IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE;
+            break;
+        case "countdown":
+            text = "Your session of " + IdleNotification.MessageFormatting.SECS_MAX_IDLE_TIMEOUT
+                    + " seconds expires in " + IdleNotification.MessageFormatting.SECS_AND_MINUTES_TO_TIMEOUT
+                    + ". Unsaved changes will be lost.";
+            break;
+        default:
+            text = IdleNotification.DEFAULT_AFTER_EXPIRE_MESSAGE;
+        }
+    }
+
+    @Benchmark
+    public JsonArray compile() {
+        return MessageTemplate.compile(text);
+    }
+}
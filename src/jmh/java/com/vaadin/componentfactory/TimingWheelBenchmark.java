@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares rescheduling one of n pending session deadlines, which is what
+ * {@link SessionIdleTracker} does on every request, in a {@link TimingWheel}
+ * and in a {@link ScheduledThreadPoolExecutor} with one task per deadline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimingWheelBenchmark {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({ "10000", "100000", "1000000" })
+    public int deadlines;
+
+    private TimingWheel wheel;
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledFuture<?>[] futures;
+    private SplittableRandom random;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        random = new SplittableRandom(42);
+        now = System.currentTimeMillis();
+        wheel = new TimingWheel(500, 8192, deadlines, now);
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        futures = new ScheduledFuture<?>[deadlines];
+        for (int i = 0; i < deadlines; i++) {
+            long delay = random.nextLong(TIMEOUT_MILLIS);
+            wheel.schedule(i, now + delay);
+            futures[i] = executor.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void timingWheelReschedule() {
+        wheel.schedule(random.nextInt(deadlines), now + TIMEOUT_MILLIS);
+    }
+
+    @Benchmark
+    public ScheduledFuture<?> scheduledThreadPoolExecutorReschedule() {
+        int id = random.nextInt(deadlines);
+        futures[id].cancel(false);
+        futures[id] = executor.schedule(NOOP, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        return futures[id];
+    }
+}
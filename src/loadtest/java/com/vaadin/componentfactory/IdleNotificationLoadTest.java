@@ -0,0 +1,391 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * Drives simulated idle and active sessions against the demo application
+ * started by the {@code loadtest} profile, and writes a JSON report.
+ * <p>
+ * Each session opens {@link LoadTestView}. For the configured duration, the
+ * active ones then extend their session at a fixed interval. They do this
+ * either through the {@code pokeServer} server call, which waits for the
+ * session lock, or through the {@link SessionTouchRequestHandler} endpoint.
+ * Afterwards every session is left idle until the {@link SessionIdleTracker}
+ * has timed it out. The report holds:
+ * <ul>
+ * <li>the extend throughput and client-side latency</li>
+ * <li>the server-side extend latency, including the UI lock wait</li>
+ * <li>the heap used per session</li>
+ * <li>how far each timeout fired from its expected time</li>
+ * </ul>
+ * Settings are system properties, see {@link #main(String[])}. No browser is
+ * involved, so thousands of sessions fit on one machine.
+ */
+public class IdleNotificationLoadTest {
+
+    private static final Pattern CSRF_TOKEN = Pattern.compile("\"Vaadin-Security-Key\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern UI_ID = Pattern.compile("\"v-uiId\"\\s*:\\s*(\\d+)");
+    private static final Pattern SYNC_ID = Pattern.compile("\"syncId\"\\s*:\\s*(\\d+)");
+    private static final Pattern IDLE_NOTIFICATION_NODE = Pattern
+            .compile("\"node\"\\s*:\\s*(\\d+)\\s*,\\s*\"type\"\\s*:\\s*\"put\"\\s*,\\s*\"key\"\\s*:\\s*\"tag\""
+                    + "\\s*,\\s*\"feat\"\\s*:\\s*\\d+\\s*,\\s*\"value\"\\s*:\\s*\"idle-notification\"");
+
+    private final String baseUrl;
+    private final int sessionCount;
+    private final double activeRatio;
+    private final int timeoutSeconds;
+    private final int durationSeconds;
+    private final int extendIntervalMillis;
+    private final boolean uidlExtends;
+    private final ExecutorService executor;
+
+    private final LatencyHistogram openLatency = new LatencyHistogram();
+    private final LatencyHistogram extendLatency = new LatencyHistogram();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder touchFallbacks = new LongAdder();
+    // reused, so that polling the stats doesn't create sessions
+    private volatile String statsCookie;
+
+    /**
+     * A simulated browser tab
+     */
+    private static class SimulatedSession {
+        String cookie;
+        String sessionId;
+        String csrfToken;
+        int uiId;
+        int node = -1;
+        int syncId;
+        int clientId;
+        boolean active;
+        volatile long lastActivityMillis;
+    }
+
+    IdleNotificationLoadTest(String baseUrl, int sessionCount, double activeRatio, int timeoutSeconds,
+            int durationSeconds, int extendIntervalMillis, boolean uidlExtends, int threads) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.sessionCount = sessionCount;
+        this.activeRatio = activeRatio;
+        this.timeoutSeconds = timeoutSeconds;
+        this.durationSeconds = durationSeconds;
+        this.extendIntervalMillis = extendIntervalMillis;
+        this.uidlExtends = uidlExtends;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Runs the load test. System properties:
+     * <ul>
+     * <li>{@code loadtest.url}, default {@code http://localhost:8080/}</li>
+     * <li>{@code loadtest.sessions}, default 2000</li>
+     * <li>{@code loadtest.activeRatio}, the share of active sessions, default
+     * 0.5</li>
+     * <li>{@code loadtest.timeout}, the idle timeout in seconds, default 60</li>
+     * <li>{@code loadtest.duration}, how long the active sessions extend, in
+     * seconds, default 30</li>
+     * <li>{@code loadtest.extendInterval}, in milliseconds, default 1000</li>
+     * <li>{@code loadtest.extendMode}, {@code uidl} or {@code touch}, default
+     * {@code uidl}</li>
+     * <li>{@code loadtest.threads}, default 64</li>
+     * <li>{@code loadtest.report}, default
+     * {@code target/loadtest-report.json}</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws Exception {
+        String extendMode = System.getProperty("loadtest.extendMode", "uidl");
+        IdleNotificationLoadTest loadTest = new IdleNotificationLoadTest(
+                System.getProperty("loadtest.url", "http://localhost:8080/"),
+                Integer.getInteger("loadtest.sessions", 2000),
+                Double.parseDouble(System.getProperty("loadtest.activeRatio", "0.5")),
+                Integer.getInteger("loadtest.timeout", 60), Integer.getInteger("loadtest.duration", 30),
+                Integer.getInteger("loadtest.extendInterval", 1000), "uidl".equals(extendMode),
+                Integer.getInteger("loadtest.threads", 64));
+        Path report = Paths.get(System.getProperty("loadtest.report", "target/loadtest-report.json"));
+        JsonObject result;
+        try {
+            result = loadTest.run();
+        } finally {
+            loadTest.executor.shutdownNow();
+        }
+        result.put("extendMode", extendMode);
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+        Files.write(report, result.toJson().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Load test report written to " + report.toAbsolutePath());
+    }
+
+    JsonObject run() throws Exception {
+        JsonObject before = fetchStats(true);
+
+        List<SimulatedSession> sessions = openSessions();
+        JsonObject afterOpen = fetchStats(true);
+
+        long extendStart = System.nanoTime();
+        long extendCount = extendActiveSessions(sessions);
+        double extendSeconds = (System.nanoTime() - extendStart) / 1e9;
+
+        JsonObject timeoutAccuracy = awaitTimeouts(sessions);
+        JsonObject after = fetchStats(false);
+
+        JsonObject result = Json.createObject();
+        result.put("sessions", sessions.size());
+        result.put("activeSessions", sessions.stream().filter(s -> s.active).count());
+        result.put("timeoutSeconds", timeoutSeconds);
+        result.put("failedRequests", failedRequests.sum());
+        result.put("touchFallbacks", touchFallbacks.sum());
+        result.put("openLatencyMillis", openLatency.toJson(1_000_000d));
+        result.put("extendsPerSecond", extendCount / extendSeconds);
+        result.put("extendLatencyMillis", extendLatency.toJson(1_000_000d));
+        JsonObject serverExtendLatency = after.getObject("serverExtendLatencyMillis");
+        result.put("serverExtendLatencyMillis", serverExtendLatency);
+        double heapDelta = afterOpen.getNumber("heapUsedBytes") - before.getNumber("heapUsedBytes");
+        result.put("heapBytesPerSession", sessions.isEmpty() ? 0 : heapDelta / sessions.size());
+        result.put("timeoutAccuracyMillis", timeoutAccuracy);
+        return result;
+    }
+
+    private List<SimulatedSession> openSessions() throws Exception {
+        List<Future<SimulatedSession>> futures = new ArrayList<>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            boolean active = i < sessionCount * activeRatio;
+            futures.add(executor.submit(() -> openSession(active)));
+        }
+        List<SimulatedSession> sessions = new ArrayList<>(sessionCount);
+        for (Future<SimulatedSession> future : futures) {
+            SimulatedSession session = future.get();
+            if (session != null) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    private SimulatedSession openSession(boolean active) {
+        SimulatedSession session = new SimulatedSession();
+        session.active = active;
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = open("loadtest?timeout=" + timeoutSeconds, null);
+            String page = read(connection);
+            session.lastActivityMillis = System.currentTimeMillis();
+            openLatency.record(System.nanoTime() - start);
+            String setCookie = connection.getHeaderField("Set-Cookie");
+            if (connection.getResponseCode() != 200 || setCookie == null) {
+                failedRequests.increment();
+                return null;
+            }
+            session.cookie = setCookie.split(";", 2)[0];
+            String cookieValue = session.cookie.substring(session.cookie.indexOf('=') + 1);
+            // Jetty appends the worker name to the session id in the cookie
+            int workerSeparator = cookieValue.indexOf('.');
+            session.sessionId = workerSeparator < 0 ? cookieValue : cookieValue.substring(0, workerSeparator);
+            Matcher csrfToken = CSRF_TOKEN.matcher(page);
+            Matcher uiId = UI_ID.matcher(page);
+            Matcher syncId = SYNC_ID.matcher(page);
+            Matcher node = IDLE_NOTIFICATION_NODE.matcher(page);
+            if (csrfToken.find() && uiId.find() && node.find()) {
+                session.csrfToken = csrfToken.group(1);
+                session.uiId = Integer.parseInt(uiId.group(1));
+                session.node = Integer.parseInt(node.group(1));
+                session.syncId = syncId.find() ? Integer.parseInt(syncId.group(1)) : 0;
+            }
+            return session;
+        } catch (IOException e) {
+            failedRequests.increment();
+            return null;
+        }
+    }
+
+    private long extendActiveSessions(List<SimulatedSession> sessions) throws Exception {
+        LongAdder count = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Future<?>> futures = new ArrayList<>();
+        for (SimulatedSession session : sessions) {
+            if (!session.active) {
+                continue;
+            }
+            futures.add(executor.submit(() -> {
+                while (System.nanoTime() < end && !Thread.currentThread().isInterrupted()) {
+                    long start = System.nanoTime();
+                    if (extend(session)) {
+                        extendLatency.record(System.nanoTime() - start);
+                        count.increment();
+                    } else {
+                        failedRequests.increment();
+                    }
+                    long sleep = extendIntervalMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if (sleep > 0) {
+                        try {
+                            Thread.sleep(sleep);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return count.sum();
+    }
+
+    private boolean extend(SimulatedSession session) {
+        try {
+            session.lastActivityMillis = System.currentTimeMillis();
+            if (uidlExtends && session.node >= 0) {
+                return pokeServer(session);
+            }
+            if (uidlExtends) {
+                touchFallbacks.increment();
+            }
+            HttpURLConnection connection = open("?v-r=" + SessionTouchRequestHandler.REQUEST_TYPE, session.cookie);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.getOutputStream().close();
+            read(connection);
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean pokeServer(SimulatedSession session) throws IOException {
+        String message = "{\"csrfToken\":\"" + session.csrfToken + "\",\"rpc\":[{\"type\":\"publishedEventHandler\","
+                + "\"node\":" + session.node + ",\"templateEventMethodName\":\"pokeServer\","
+                + "\"templateEventMethodArgs\":[0],\"promise\":0}],\"syncId\":" + session.syncId + ",\"clientId\":"
+                + session.clientId + "}";
+        HttpURLConnection connection = open("?v-r=uidl&v-uiId=" + session.uiId, session.cookie);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(message.getBytes(StandardCharsets.UTF_8));
+        }
+        String response = read(connection);
+        Matcher syncId = SYNC_ID.matcher(response);
+        if (syncId.find()) {
+            session.syncId = Integer.parseInt(syncId.group(1));
+        }
+        session.clientId++;
+        return connection.getResponseCode() == 200;
+    }
+
+    /**
+     * Waits until the tracker has timed-out every session, and summarizes how
+     * far each timeout fired from its expected time
+     */
+    private JsonObject awaitTimeouts(List<SimulatedSession> sessions) throws Exception {
+        long lastExpected = sessions.stream().mapToLong(s -> s.lastActivityMillis).max().orElse(0)
+                + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        long giveUp = lastExpected + TimeUnit.SECONDS.toMillis(10);
+        JsonObject timeouts;
+        do {
+            Thread.sleep(1000);
+            timeouts = fetchStats(false).getObject("trackerTimeouts");
+        } while (System.currentTimeMillis() < giveUp && !allTimedOut(sessions, timeouts));
+
+        LatencyHistogram early = new LatencyHistogram();
+        LatencyHistogram late = new LatencyHistogram();
+        long missing = 0;
+        for (SimulatedSession session : sessions) {
+            if (!timeouts.hasKey(session.sessionId)) {
+                missing++;
+                continue;
+            }
+            long error = (long) timeouts.getNumber(session.sessionId) - session.lastActivityMillis
+                    - TimeUnit.SECONDS.toMillis(timeoutSeconds);
+            if (error < 0) {
+                early.record(-error);
+            } else {
+                late.record(error);
+            }
+        }
+        JsonObject result = Json.createObject();
+        result.put("missing", missing);
+        result.put("early", early.toJson(1));
+        result.put("late", late.toJson(1));
+        return result;
+    }
+
+    private static boolean allTimedOut(List<SimulatedSession> sessions, JsonObject timeouts) {
+        return sessions.stream().allMatch(session -> timeouts.hasKey(session.sessionId));
+    }
+
+    private JsonObject fetchStats(boolean gc) throws IOException {
+        HttpURLConnection connection = open(
+                LoadTestServiceInitListener.STATS_PATH.substring(1) + (gc ? "?gc" : ""), statsCookie);
+        String stats = read(connection);
+        String setCookie = connection.getHeaderField("Set-Cookie");
+        if (setCookie != null) {
+            statsCookie = setCookie.split(";", 2)[0];
+        }
+        return Json.parse(stats);
+    }
+
+    private HttpURLConnection open(String path, String cookie) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(10_000);
+        connection.setReadTimeout(60_000);
+        if (cookie != null) {
+            connection.setRequestProperty("Cookie", cookie);
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream()
+                : connection.getInputStream();
+        if (in == null) {
+            return "";
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.PrintWriter;
+
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+
+import elemental.json.JsonObject;
+
+/**
+ * Installs {@link LoadTestStats} and serves them as JSON on
+ * {@code /loadtest-stats[?gc]}.
+ * <p>
+ * If {@code loadtest.remoteStoreLatency} is set to 0 or more milliseconds, a
+ * {@link SimulatedRemoteSessionActivityStore} replaces the in-memory store,
+ * batched every {@code loadtest.remoteStoreFlushInterval} milliseconds unless
+ * that is 0.
+ */
+public class LoadTestServiceInitListener implements VaadinServiceInitListener {
+
+    static final String STATS_PATH = "/loadtest-stats";
+
+    private static SimulatedRemoteSessionActivityStore installRemoteStore(ServiceInitEvent event) {
+        long latency = Long.getLong("loadtest.remoteStoreLatency", -1);
+        if (latency < 0) {
+            return null;
+        }
+        SimulatedRemoteSessionActivityStore remoteStore = new SimulatedRemoteSessionActivityStore(latency);
+        long flushInterval = Long.getLong("loadtest.remoteStoreFlushInterval", 0);
+        SessionActivityStore.install(event.getSource(),
+                flushInterval > 0 ? new BatchingSessionActivityStore(remoteStore, flushInterval) : remoteStore);
+        return remoteStore;
+    }
+
+    @Override
+    public void serviceInit(ServiceInitEvent event) {
+        SessionIdleTracker tracker = SessionIdleTracker.get(event.getSource());
+        IdleNotificationMetrics.install(event.getSource(), LoadTestStats.INSTANCE);
+        tracker.addTimeoutListener(LoadTestStats.INSTANCE::trackerTimedOut);
+        SimulatedRemoteSessionActivityStore remoteStore = installRemoteStore(event);
+        event.addRequestHandler((session, request, response) -> {
+            if (!STATS_PATH.equals(request.getPathInfo())) {
+                return false;
+            }
+            response.setContentType("application/json");
+            response.setHeader("Cache-Control", "no-cache, no-store");
+            PrintWriter writer = response.getWriter();
+            JsonObject stats = LoadTestStats.INSTANCE.toJson(tracker, request.getParameter("gc") != null);
+            if (remoteStore != null) {
+                stats.put("remoteStore", remoteStore.toJson());
+            }
+            writer.print(stats.toJson());
+            writer.flush();
+            return true;
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vaadin.flow.server.VaadinSession;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * Collects the server-side figures of a load test: the
+ * {@link IdleNotificationMetrics} of the service, and the time at which the
+ * {@link SessionIdleTracker} has timed-out each session.
+ */
+class LoadTestStats implements IdleNotificationMetrics {
+
+    static final LoadTestStats INSTANCE = new LoadTestStats();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder extended = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LatencyHistogram serverExtendLatency = new LatencyHistogram();
+    private final LatencyHistogram clientExtendLatency = new LatencyHistogram();
+    private final Map<String, Long> trackerTimeouts = new ConcurrentHashMap<>();
+
+    private LoadTestStats() {
+    }
+
+    @Override
+    public void notificationOpened() {
+        opened.increment();
+    }
+
+    @Override
+    public void sessionExtended() {
+        extended.increment();
+    }
+
+    @Override
+    public void sessionTimedOut() {
+        timedOut.increment();
+    }
+
+    @Override
+    public void recordClientExtendLatency(long millis) {
+        clientExtendLatency.record(millis);
+    }
+
+    @Override
+    public void recordServerExtendLatency(long nanos) {
+        serverExtendLatency.record(nanos);
+    }
+
+    void trackerTimedOut(VaadinSession session) {
+        trackerTimeouts.put(session.getSession().getId(), System.currentTimeMillis());
+    }
+
+    /**
+     * @param gc
+     *            whether to collect garbage before measuring the heap
+     */
+    JsonObject toJson(SessionIdleTracker tracker, boolean gc) {
+        if (gc) {
+            System.gc();
+        }
+        JsonObject json = Json.createObject();
+        json.put("heapUsedBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        json.put("trackedSessions", tracker.getSessionCount());
+        json.put("opened", opened.sum());
+        json.put("extended", extended.sum());
+        json.put("timedOut", timedOut.sum());
+        // includes the wait for the session lock of UIDL requests
+        json.put("serverExtendLatencyMillis", serverExtendLatency.toJson(1_000_000d));
+        json.put("clientExtendLatencyMillis", clientExtendLatency.toJson(1));
+        JsonObject timeouts = Json.createObject();
+        trackerTimeouts.forEach((id, millis) -> timeouts.put(id, millis));
+        json.put("trackerTimeouts", timeouts);
+        return json;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.List;
+
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.router.BeforeEnterEvent;
+import com.vaadin.flow.router.BeforeEnterObserver;
+import com.vaadin.flow.router.Route;
+
+/**
+ * The page opened by each simulated session of {@link IdleNotificationLoadTest}.
+ * The idle timeout is given in seconds by the {@code timeout} query parameter.
+ */
+@Route("loadtest")
+public class LoadTestView extends Div implements BeforeEnterObserver {
+
+    @Override
+    public void beforeEnter(BeforeEnterEvent event) {
+        List<String> timeout = event.getLocation().getQueryParameters().getParameters().get("timeout");
+        int maxInactiveInterval = timeout == null || timeout.isEmpty() ? 60 : Integer.parseInt(timeout.get(0));
+        removeAll();
+        add(new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE,
+                Math.max(1, Math.min(10, maxInactiveInterval / 2)), maxInactiveInterval));
+    }
+}
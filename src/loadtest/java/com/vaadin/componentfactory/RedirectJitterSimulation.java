@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+/**
+ * Simulates the requests that the pages of a burst of sessions send to the
+ * redirect URL when the sessions time-out, with and without
+ * {@link IdleNotification#setRedirectJitter(int) redirect jitter} and
+ * {@link IdleNotification#setPrefetchRedirectAtTimeout(boolean) prefetching},
+ * and writes a JSON report.
+ * <p>
+ * The sessions log in uniformly over a short wave, as after a node restart,
+ * and stay idle until they time-out. The simulation follows the client: the
+ * redirect of a page is delayed by a random share of the jitter, and a
+ * prefetch is issued at a random point of the first half of the count-down,
+ * after which the redirect is served from the browser cache. For each
+ * scenario, the report holds the number of requests per second, their peak
+ * and the number of seconds over which 99% of them arrive.
+ * <p>
+ * Settings are system properties, see {@link #main(String[])}. No server is
+ * involved.
+ * <p>
+ * This only reports what the client does at larger scales, it doesn't verify
+ * it: the formulas here are a model of idle-notification.js, whose timeout path
+ * is tested in src/test/js/redirect-jitter.test.mjs.
+ */
+public class RedirectJitterSimulation {
+
+    private final int sessionCount;
+    private final int waveSeconds;
+    private final int timeoutSeconds;
+    private final int secondsBeforeNotification;
+    private final long seed;
+
+    /**
+     * The requests per second of one scenario
+     */
+    private static class Scenario {
+        final String name;
+        final int[] requestsPerSecond;
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        int total;
+
+        Scenario(String name, int seconds) {
+            this.name = name;
+            requestsPerSecond = new int[seconds];
+        }
+
+        void add(double atSeconds) {
+            int second = (int) atSeconds;
+            requestsPerSecond[second]++;
+            first = Math.min(first, second);
+            last = Math.max(last, second);
+            total++;
+        }
+
+        int peak() {
+            return Arrays.stream(requestsPerSecond).max().orElse(0);
+        }
+
+        /**
+         * The number of seconds of the shortest window holding 99% of the
+         * requests
+         */
+        int spread99() {
+            int needed = (int) Math.ceil(total * 0.99);
+            int best = Integer.MAX_VALUE;
+            int sum = 0;
+            int start = 0;
+            for (int end = 0; end < requestsPerSecond.length; end++) {
+                sum += requestsPerSecond[end];
+                while (sum - requestsPerSecond[start] >= needed) {
+                    sum -= requestsPerSecond[start++];
+                }
+                if (sum >= needed) {
+                    best = Math.min(best, end - start + 1);
+                }
+            }
+            return best == Integer.MAX_VALUE ? 0 : best;
+        }
+
+        JsonObject toJson() {
+            JsonObject result = Json.createObject();
+            result.put("name", name);
+            result.put("requests", total);
+            result.put("peakRequestsPerSecond", peak());
+            result.put("spread99Seconds", spread99());
+            JsonArray histogram = Json.createArray();
+            for (int second = first; second <= last; second++) {
+                histogram.set(histogram.length(), requestsPerSecond[second]);
+            }
+            result.put("firstSecond", first);
+            result.put("requestsPerSecond", histogram);
+            return result;
+        }
+    }
+
+    RedirectJitterSimulation(int sessionCount, int waveSeconds, int timeoutSeconds, int secondsBeforeNotification,
+            long seed) {
+        this.sessionCount = sessionCount;
+        this.waveSeconds = waveSeconds;
+        this.timeoutSeconds = timeoutSeconds;
+        this.secondsBeforeNotification = secondsBeforeNotification;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the simulation. System properties:
+     * <ul>
+     * <li>{@code simulation.sessions}, default 10000</li>
+     * <li>{@code simulation.wave}, the number of seconds over which the
+     * sessions log in, default 5</li>
+     * <li>{@code simulation.timeout}, the idle timeout in seconds, default
+     * 1800</li>
+     * <li>{@code simulation.secondsBeforeNotification}, default 60</li>
+     * <li>{@code simulation.jitter}, the redirect jitter in seconds, default
+     * 30</li>
+     * <li>{@code simulation.seed}, default 42</li>
+     * <li>{@code simulation.report}, default
+     * {@code target/redirect-jitter-simulation.json}</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws IOException {
+        RedirectJitterSimulation simulation = new RedirectJitterSimulation(
+                Integer.getInteger("simulation.sessions", 10000), Integer.getInteger("simulation.wave", 5),
+                Integer.getInteger("simulation.timeout", 1800),
+                Integer.getInteger("simulation.secondsBeforeNotification", 60),
+                Long.getLong("simulation.seed", 42));
+        int jitter = Integer.getInteger("simulation.jitter", 30);
+        Scenario[] scenarios = { simulation.run("noJitter", 0, false), simulation.run("jitter", jitter, false),
+                simulation.run("jitterAndPrefetch", jitter, true) };
+
+        JsonObject report = Json.createObject();
+        report.put("sessions", simulation.sessionCount);
+        report.put("waveSeconds", simulation.waveSeconds);
+        report.put("timeoutSeconds", simulation.timeoutSeconds);
+        report.put("secondsBeforeNotification", simulation.secondsBeforeNotification);
+        report.put("jitterSeconds", jitter);
+        JsonArray results = Json.createArray();
+        for (Scenario scenario : scenarios) {
+            results.set(results.length(), scenario.toJson());
+            System.out.printf("%-18s peak %6d requests/s, 99%% within %4d s%n", scenario.name, scenario.peak(),
+                    scenario.spread99());
+        }
+        report.put("scenarios", results);
+
+        Path path = Paths.get(System.getProperty("simulation.report", "target/redirect-jitter-simulation.json"));
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.write(path, report.toJson().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Redirect jitter simulation report written to " + path.toAbsolutePath());
+    }
+
+    /**
+     * Simulates the requests of all sessions, counting the seconds from the
+     * start of the login wave
+     */
+    Scenario run(String name, int jitterSeconds, boolean prefetch) {
+        // the same sessions in each scenario
+        SplittableRandom random = new SplittableRandom(seed);
+        Scenario scenario = new Scenario(name, waveSeconds + timeoutSeconds + jitterSeconds + 2);
+        for (int i = 0; i < sessionCount; i++) {
+            double deadline = random.nextDouble() * waveSeconds + timeoutSeconds;
+            double jitter = random.nextDouble() * jitterSeconds;
+            double prefetchAt = deadline - secondsBeforeNotification
+                    + random.nextDouble() * secondsBeforeNotification / 2;
+            scenario.add(prefetch ? prefetchAt : deadline + jitter);
+        }
+        return scenario;
+    }
+}
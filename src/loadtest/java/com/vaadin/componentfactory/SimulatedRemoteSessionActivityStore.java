@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * Stands in for a remote {@link SessionActivityStore}, e.g. one shared by the
+ * nodes of a cluster: every call costs a round trip of the configured latency,
+ * and the round trips and written sessions are counted, so that the effect of
+ * a {@link BatchingSessionActivityStore} shows in the load test report.
+ */
+class SimulatedRemoteSessionActivityStore implements SessionActivityStore {
+
+    private final ConcurrentMap<String, Long> expiresAt = new ConcurrentHashMap<>();
+    private final long latencyNanos;
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder writtenSessions = new LongAdder();
+
+    SimulatedRemoteSessionActivityStore(long latencyMillis) {
+        latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    @Override
+    public void recordActivity(String sessionId, long expiresAtMillis) {
+        roundTrip();
+        writtenSessions.increment();
+        expiresAt.merge(sessionId, expiresAtMillis, Math::max);
+    }
+
+    @Override
+    public void recordActivities(Map<String, Long> expiresAtMillis) {
+        roundTrip();
+        writtenSessions.add(expiresAtMillis.size());
+        expiresAtMillis.forEach((sessionId, value) -> expiresAt.merge(sessionId, value, Math::max));
+    }
+
+    @Override
+    public void setDeadline(String sessionId, long expiresAtMillis) {
+        roundTrip();
+        writtenSessions.increment();
+        expiresAt.put(sessionId, expiresAtMillis);
+    }
+
+    @Override
+    public void setDeadlines(Map<String, Long> expiresAtMillis) {
+        roundTrip();
+        writtenSessions.add(expiresAtMillis.size());
+        expiresAt.putAll(expiresAtMillis);
+    }
+
+    @Override
+    public long getExpiresAt(String sessionId) {
+        roundTrip();
+        Long value = expiresAt.get(sessionId);
+        return value == null ? -1 : value;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        roundTrip();
+        expiresAt.remove(sessionId);
+    }
+
+    @Override
+    public void removeAll(Collection<String> sessionIds) {
+        roundTrip();
+        expiresAt.keySet().removeAll(sessionIds);
+    }
+
+    JsonObject toJson() {
+        JsonObject json = Json.createObject();
+        json.put("roundTrips", roundTrips.sum());
+        json.put("writtenSessions", writtenSessions.sum());
+        json.put("storedSessions", expiresAt.size());
+        return json;
+    }
+
+    private void roundTrip() {
+        roundTrips.increment();
+        if (latencyNanos > 0) {
+            long deadline = System.nanoTime() + latencyNanos;
+            // parkNanos may return early
+            for (long remaining = latencyNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+}
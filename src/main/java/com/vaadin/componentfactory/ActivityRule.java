@@ -0,0 +1,328 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import com.vaadin.flow.component.Component;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+/**
+ * Classifies the requests of a page as user activity, which resets the idle
+ * timeout, or not. Rules are set with
+ * {@link IdleNotification#setActivityRules(ActivityRule...)} or
+ * {@link IdleNotificationConfig.Builder#activityRule(ActivityRule)}, and are
+ * compiled once by the client into a matcher that each Vaadin request is run
+ * through.
+ * <p>
+ * A rule matches if all its conditions do. The conditions on the request
+ * itself are its request type (the {@code v-r} parameter) and its URL. The
+ * other ones apply to the server calls the request carries, of which there
+ * may be several: their type, their target component, the name of the called
+ * method and the name of the DOM event. Each server call is classified by the
+ * first matching rule, or as activity if none matches, and a request is
+ * activity if any of its server calls is. A request without server calls is
+ * only matched by rules without server call conditions. Heartbeats never
+ * count as activity.
+ * <p>
+ * Requests that aren't activity are marked with the
+ * {@value #NO_ACTIVITY_HEADER} header, so that the {@link SessionIdleTracker}
+ * ignores them too. The servlet container still refreshes the HttpSession on
+ * them, so to release the memory of idle sessions, combine the rules with
+ * {@link IdleNotification#setInvalidateSessionOnTimeout(boolean)}.
+ *
+ * <pre>
+ * idleNotification.setActivityRules(ActivityRule.POLL,
+ *         ActivityRule.builder().rpcMethod("confirmUpdate").activity(false).build(),
+ *         ActivityRule.builder().rpcTarget(liveChart).activity(false).build());
+ * </pre>
+ */
+public final class ActivityRule implements Serializable {
+
+    /**
+     * Name of the request header marking requests that aren't user activity
+     */
+    public static final String NO_ACTIVITY_HEADER = "X-Idle-Notification-No-Activity";
+
+    /**
+     * Doesn't count the polling requests of {@code UI.setPollInterval(int)} as
+     * activity
+     */
+    public static final ActivityRule POLL = builder().rpcType("event").rpcEvent("ui-poll").activity(false).build();
+
+    // escapes that JavaScript either lacks or reads as the plain letter
+    private static final String JAVA_ONLY_ESCAPES = "aeAGZzQEhHRXpP";
+    private static final Pattern BOUNDS = Pattern.compile("\\{\\d+(,\\d*)?}");
+
+    private final boolean activity;
+    private final String requestType;
+    private final String url;
+    private final String rpcType;
+    private final Component rpcTarget;
+    private final String rpcMethod;
+    private final String rpcEvent;
+
+    private ActivityRule(Builder builder) {
+        activity = builder.activity;
+        requestType = builder.requestType;
+        url = builder.url;
+        rpcType = builder.rpcType;
+        rpcTarget = builder.rpcTarget;
+        rpcMethod = builder.rpcMethod;
+        rpcEvent = builder.rpcEvent;
+    }
+
+    /**
+     * Creates a builder of a rule matching every request, as no activity
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isActivity() {
+        return activity;
+    }
+
+    public Optional<String> getRequestType() {
+        return Optional.ofNullable(requestType);
+    }
+
+    public Optional<String> getUrl() {
+        return Optional.ofNullable(url);
+    }
+
+    public Optional<String> getRpcType() {
+        return Optional.ofNullable(rpcType);
+    }
+
+    public Optional<Component> getRpcTarget() {
+        return Optional.ofNullable(rpcTarget);
+    }
+
+    public Optional<String> getRpcMethod() {
+        return Optional.ofNullable(rpcMethod);
+    }
+
+    public Optional<String> getRpcEvent() {
+        return Optional.ofNullable(rpcEvent);
+    }
+
+    /**
+     * Gets the client-side form of the given rules. A rule targeting a
+     * component that isn't attached can't match any server call, so it is
+     * left out until {@link IdleNotification#setActivityRules(ActivityRule...)}
+     * sends the rules again once the component is attached.
+     */
+    static JsonArray toJson(List<ActivityRule> rules) {
+        JsonArray result = Json.createArray();
+        for (ActivityRule rule : rules) {
+            JsonObject json = Json.createObject();
+            json.put("activity", rule.activity);
+            if (rule.requestType != null) {
+                json.put("requestType", rule.requestType);
+            }
+            if (rule.url != null) {
+                json.put("url", rule.url);
+            }
+            if (rule.rpcType != null) {
+                json.put("rpcType", rule.rpcType);
+            }
+            if (rule.rpcTarget != null) {
+                if (!rule.rpcTarget.getElement().getNode().isAttached()) {
+                    continue;
+                }
+                json.put("node", rule.rpcTarget.getElement().getNode().getId());
+            }
+            if (rule.rpcMethod != null) {
+                json.put("method", rule.rpcMethod);
+            }
+            if (rule.rpcEvent != null) {
+                json.put("event", rule.rpcEvent);
+            }
+            result.set(result.length(), json);
+        }
+        return result;
+    }
+
+    /**
+     * Rejects the constructs of a valid Java regular expression that
+     * JavaScript either rejects, or reads differently
+     *
+     * @throws IllegalArgumentException
+     *             If {@code pattern} uses such a construct
+     */
+    static void checkJavaScriptSyntax(String pattern) throws IllegalArgumentException {
+        boolean inClass = false;
+        // whether the previous token is a quantifier
+        boolean quantified = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            char next = i + 1 < pattern.length() ? pattern.charAt(i + 1) : 0;
+            if (c == '\\') {
+                if (next != 0 && JAVA_ONLY_ESCAPES.indexOf(next) >= 0) {
+                    throw unsupportedSyntax(pattern, "the escape \\" + next);
+                }
+                i++;
+                quantified = false;
+            } else if (inClass) {
+                if (c == '[' || c == '&' && next == '&') {
+                    throw unsupportedSyntax(pattern, "nested or intersected character classes");
+                }
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+                quantified = false;
+                if (next == '^') {
+                    i++;
+                }
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == ']') {
+                    throw unsupportedSyntax(pattern, "a ] at the start of a character class");
+                }
+            } else if (c == '(' && next == '?') {
+                char kind = i + 2 < pattern.length() ? pattern.charAt(i + 2) : 0;
+                // non-capturing groups, lookarounds and named groups
+                if (kind == 0 || ":=!<".indexOf(kind) < 0) {
+                    throw unsupportedSyntax(pattern, "inline flags or atomic groups");
+                }
+                i++;
+                quantified = false;
+            } else if (c == '*' || c == '+' || c == '?') {
+                if (quantified && c == '+') {
+                    throw unsupportedSyntax(pattern, "possessive quantifiers");
+                }
+                // a ? after a quantifier makes it lazy
+                quantified = !quantified;
+            } else if (c == '{' && BOUNDS.matcher(pattern).region(i, pattern.length()).lookingAt()) {
+                i = pattern.indexOf('}', i);
+                quantified = true;
+            } else {
+                quantified = false;
+            }
+        }
+    }
+
+    private static IllegalArgumentException unsupportedSyntax(String pattern, String construct) {
+        return new IllegalArgumentException(
+                "urlPattern uses " + construct + ", which the browser doesn't support: " + pattern);
+    }
+
+    /**
+     * Builds {@link ActivityRule} instances
+     */
+    public static final class Builder implements Serializable {
+
+        private boolean activity = false;
+        private String requestType;
+        private String url;
+        private String rpcType;
+        private Component rpcTarget;
+        private String rpcMethod;
+        private String rpcEvent;
+
+        private Builder() {
+        }
+
+        /**
+         * Whether the matched requests are activity, false by default
+         */
+        public Builder activity(boolean activity) {
+            this.activity = activity;
+            return this;
+        }
+
+        /**
+         * Matches requests with the given {@code v-r} parameter, for example
+         * {@code uidl} or {@code push}
+         */
+        public Builder requestType(String requestType) {
+            this.requestType = Objects.requireNonNull(requestType, "requestType should not be null");
+            return this;
+        }
+
+        /**
+         * Matches requests whose URL contains a match of the given regular
+         * expression, which is evaluated by the browser. It may only use the
+         * syntax common to Java and JavaScript, so inline flags such as
+         * {@code (?i)}, atomic groups, possessive quantifiers, escapes such as
+         * {@code \A}, {@code \Z}, {@code \Q} or {@code \p}, and nested or
+         * intersected character classes are rejected.
+         *
+         * @throws IllegalArgumentException
+         *             If {@code urlPattern} isn't a valid regular expression,
+         *             or uses syntax that JavaScript doesn't support
+         */
+        public Builder url(String urlPattern) throws IllegalArgumentException {
+            Objects.requireNonNull(urlPattern, "urlPattern should not be null");
+            Pattern.compile(urlPattern);
+            checkJavaScriptSyntax(urlPattern);
+            url = urlPattern;
+            return this;
+        }
+
+        /**
+         * Matches server calls of the given type, for example {@code event}
+         * for DOM events, {@code publishedEventHandler} for
+         * {@code @ClientCallable} methods or {@code mSync} for property
+         * synchronizations
+         */
+        public Builder rpcType(String rpcType) {
+            this.rpcType = Objects.requireNonNull(rpcType, "rpcType should not be null");
+            return this;
+        }
+
+        /**
+         * Matches server calls targeting the given component. A rule with this
+         * condition can only be used by the {@link IdleNotification} of the
+         * UI the component is attached to.
+         */
+        public Builder rpcTarget(Component rpcTarget) {
+            this.rpcTarget = Objects.requireNonNull(rpcTarget, "rpcTarget should not be null");
+            return this;
+        }
+
+        /**
+         * Matches server calls of the {@code @ClientCallable} or
+         * {@code @EventHandler} method with the given name
+         */
+        public Builder rpcMethod(String rpcMethod) {
+            this.rpcMethod = Objects.requireNonNull(rpcMethod, "rpcMethod should not be null");
+            return this;
+        }
+
+        /**
+         * Matches server calls for the DOM event of the given type
+         */
+        public Builder rpcEvent(String rpcEvent) {
+            this.rpcEvent = Objects.requireNonNull(rpcEvent, "rpcEvent should not be null");
+            return this;
+        }
+
+        /**
+         * Builds the rule
+         */
+        public ActivityRule build() {
+            return new ActivityRule(this);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the activity recorded in another, typically remote,
+ * {@link SessionActivityStore} and writes it in batches at a fixed cadence.
+ * However often a session is active in between, it is written at most once
+ * per flush, with its latest deadline, and all sessions are written with a
+ * single {@link SessionActivityStore#recordActivities(Map)} call. Deadlines
+ * set with {@link #setDeadline(String, long)} are written with a single
+ * {@link SessionActivityStore#setDeadlines(Map)} call the same way, and
+ * removed sessions with a single
+ * {@link SessionActivityStore#removeAll(Collection)} call, so that destroying
+ * a session doesn't wait for the delegate store either.
+ * <p>
+ * Reads answer from the pending activity first, so the local node sees its own
+ * activity right away, while other nodes see it after the next flush. Pick the
+ * flush interval well below the {@code secondsBeforeNotification} of the
+ * notifications, so that the delay doesn't show.
+ *
+ * <pre>
+ * SessionActivityStore.install(service, new BatchingSessionActivityStore(redisStore, 5000));
+ * </pre>
+ */
+public class BatchingSessionActivityStore implements SessionActivityStore {
+
+    /**
+     * The pending write of a session. A new instance replaces it whenever it
+     * changes, so that a flush only drops the writes it has written.
+     */
+    private static final class PendingWrite {
+
+        private final long expiresAt;
+        // whether the deadline replaces the stored one, see setDeadline
+        private final boolean deadline;
+
+        private PendingWrite(long expiresAt, boolean deadline) {
+            this.expiresAt = expiresAt;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Merges later activity into this write, which keeps it a deadline if
+         * it is one
+         */
+        private PendingWrite withActivity(PendingWrite activity) {
+            if (this == REMOVAL) {
+                return this;
+            }
+            return activity.expiresAt > expiresAt ? new PendingWrite(activity.expiresAt, deadline) : this;
+        }
+    }
+
+    // the pending write of a removed session
+    private static final PendingWrite REMOVAL = new PendingWrite(-1, false);
+
+    private final SessionActivityStore delegate;
+    private final ScheduledExecutorService flusher;
+
+    private final ConcurrentMap<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a store that flushes to the given one every
+     * {@code flushIntervalMillis}
+     *
+     * @param delegate
+     *            the store to write to
+     * @param flushIntervalMillis
+     *            the number of milliseconds between two flushes
+     * @throws IllegalArgumentException
+     *             If {@code flushIntervalMillis} is smaller than 1
+     */
+    public BatchingSessionActivityStore(SessionActivityStore delegate, long flushIntervalMillis)
+            throws IllegalArgumentException {
+        this.delegate = Objects.requireNonNull(delegate, "delegate should not be null");
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("flushIntervalMillis must be >= 1");
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-notification-activity-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void recordActivity(String sessionId, long expiresAtMillis) {
+        pending.merge(sessionId, new PendingWrite(expiresAtMillis, false), PendingWrite::withActivity);
+    }
+
+    @Override
+    public void setDeadline(String sessionId, long expiresAtMillis) {
+        pending.put(sessionId, new PendingWrite(expiresAtMillis, true));
+    }
+
+    @Override
+    public long getExpiresAt(String sessionId) {
+        PendingWrite write = pending.get(sessionId);
+        return write == null ? delegate.getExpiresAt(sessionId) : write.expiresAt;
+    }
+
+    /**
+     * Replaces the pending write of the session with its removal. If a flush
+     * is writing the session at the same time, the removal stays pending for
+     * the next flush.
+     */
+    @Override
+    public void remove(String sessionId) {
+        pending.put(sessionId, REMOVAL);
+    }
+
+    /**
+     * Writes the pending activity and removals to the delegate store.
+     * Activity recorded while writing stays pending for the next flush, as does all of it if the
+     * write fails.
+     */
+    @Override
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, PendingWrite> batch = new HashMap<>(pending);
+        Map<String, Long> activities = new HashMap<>();
+        Map<String, Long> deadlines = new HashMap<>();
+        List<String> removals = new ArrayList<>();
+        batch.forEach((sessionId, write) -> {
+            if (write == REMOVAL) {
+                removals.add(sessionId);
+            } else if (write.deadline) {
+                deadlines.put(sessionId, write.expiresAt);
+            } else {
+                activities.put(sessionId, write.expiresAt);
+            }
+        });
+        if (!activities.isEmpty()) {
+            delegate.recordActivities(activities);
+        }
+        if (!deadlines.isEmpty()) {
+            delegate.setDeadlines(deadlines);
+        }
+        if (!removals.isEmpty()) {
+            delegate.removeAll(removals);
+        }
+        // keeps the sessions whose pending write has changed since the copy
+        batch.forEach(pending::remove);
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        flushSafely();
+        delegate.close();
+    }
+
+    /**
+     * Gets the number of sessions with activity or a removal waiting for the
+     * next flush
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger(BatchingSessionActivityStore.class).warn("Could not flush session activity", e);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * Shortens the timeouts of all sessions tracked by the
+ * {@link SessionIdleTracker} of a service while the heap is under pressure,
+ * so that idle sessions are released before they push the JVM into GC
+ * thrashing, and restores them once the pressure drops.
+ * <p>
+ * The pressure is the usage of the heap memory pools after the last garbage
+ * collection, relative to their maximum size. Each step maps a pressure to a
+ * scale of the timeouts; the highest step reached applies. A step is left once
+ * the pressure has dropped by the hysteresis below it. The JVM notifies the
+ * policy as soon as the lowest step is reached, so nothing is polled while
+ * there is no pressure.
+ * <p>
+ * The {@code maxInactiveInterval} of the HttpSessions, and the
+ * {@code maxInactiveInterval} and {@code secondsBeforeNotification} of the
+ * attached {@link IdleNotification}s, are scaled down, but never below the
+ * configured minimum. The clients are updated with the next response, or right
+ * away if push is enabled. Every change is logged and reported to the
+ * {@link IdleNotificationMetrics} of the service.
+ * <p>
+ * The timeouts of all sessions are shortened, not only those of the sessions
+ * that are idle at the time: a timeout counts from the last activity of the
+ * session, so the shortened one only ends sessions that have been idle for
+ * it, and never for less than the minimum. Sessions in use keep postponing
+ * it, as before. Shortening the timeouts as the sessions become idle instead
+ * would re-evaluate every session while under pressure, and leave the
+ * HttpSessions that are in use with their full timeouts at the servlet
+ * container.
+ * <p>
+ * NOTE: Sessions that have been idle for longer than their shortened timeout
+ * time-out right away. While the policy runs, it owns the collection usage
+ * thresholds of the heap pools, which it restores once stopped.
+ *
+ * <pre>
+ * HeapPressureTimeoutPolicy.builder().step(0.8, 0.5).step(0.9, 0.25).build().install(service);
+ * </pre>
+ */
+public final class HeapPressureTimeoutPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeapPressureTimeoutPolicy.class);
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final double[] thresholds;
+    private final double[] scales;
+    private final double hysteresis;
+    private final int minimumMaxInactiveInterval;
+    private final long pollIntervalMillis;
+
+    private HeapPressureTimeoutPolicy(Builder builder) {
+        Map<Double, Double> steps = builder.steps;
+        if (steps.isEmpty()) {
+            steps = new TreeMap<>();
+            steps.put(0.8, 0.5);
+            steps.put(0.9, 0.25);
+        }
+        thresholds = new double[steps.size()];
+        scales = new double[thresholds.length];
+        int i = 0;
+        for (Map.Entry<Double, Double> step : steps.entrySet()) {
+            thresholds[i] = step.getKey();
+            scales[i] = step.getValue();
+            i++;
+        }
+        hysteresis = builder.hysteresis;
+        minimumMaxInactiveInterval = builder.minimumMaxInactiveInterval;
+        pollIntervalMillis = builder.pollIntervalMillis;
+    }
+
+    /**
+     * Creates a builder. Without any step, the timeouts are halved at 80% and
+     * quartered at 90% heap usage.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts applying this policy to the sessions of the given service
+     *
+     * @param service
+     *            the Vaadin service
+     * @return a registration that stops the policy and restores the timeouts
+     */
+    public Registration install(VaadinService service) {
+        Monitor monitor = new Monitor(SessionIdleTracker.get(service));
+        monitor.start();
+        service.addServiceDestroyListener(event -> monitor.stop());
+        return monitor::stop;
+    }
+
+    /**
+     * Gets the step that applies at the given heap usage, coming from the
+     * given step: a higher step is entered as soon as its threshold is
+     * reached, while a step is only left once the usage has dropped by the
+     * hysteresis below its threshold
+     *
+     * @return the index of the step, or -1 if there is no pressure
+     */
+    int getStep(int step, double usage) {
+        int newStep = step;
+        while (newStep + 1 < thresholds.length && usage >= thresholds[newStep + 1]) {
+            newStep++;
+        }
+        while (newStep >= 0 && usage < thresholds[newStep] - hysteresis) {
+            newStep--;
+        }
+        return newStep;
+    }
+
+    /**
+     * Gets the scale of the timeouts at the given step, 1 at step -1
+     */
+    double getScale(int step) {
+        return step < 0 ? 1 : scales[step];
+    }
+
+    /**
+     * Scales the given timeout in seconds, keeping it at least
+     * {@code minimum}, unless it is shorter already
+     */
+    static int scaleTimeout(int seconds, double scale, int minimum) {
+        if (scale >= 1 || seconds <= minimum) {
+            return seconds;
+        }
+        return Math.max(minimum, (int) Math.round(seconds * scale));
+    }
+
+    /**
+     * Watches the heap pools and applies the current step to the tracker
+     */
+    final class Monitor {
+
+        private final SessionIdleTracker tracker;
+        // the watched pools, with the thresholds they had before
+        private final Map<MemoryPoolMXBean, Long> pools = new LinkedHashMap<>();
+        private final ScheduledExecutorService executor;
+        private final NotificationListener listener;
+        private ScheduledFuture<?> poll;
+        // -1 while there is no pressure
+        private volatile int step = -1;
+
+        Monitor(SessionIdleTracker tracker) {
+            this.tracker = tracker;
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "idle-notification-heap-pressure");
+                thread.setDaemon(true);
+                return thread;
+            });
+            listener = (notification, handback) -> {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    executor.execute(this::evaluate);
+                }
+            };
+        }
+
+        void start() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                        && pool.getUsage().getMax() > 0) {
+                    pools.put(pool, pool.getCollectionUsageThreshold());
+                    pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * thresholds[0]));
+                }
+            }
+            if (pools.isEmpty()) {
+                LOGGER.warn("No heap memory pool supports collection usage thresholds, timeouts won't adapt");
+                return;
+            }
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null,
+                    null);
+            // the pressure may be high already
+            executor.execute(this::evaluate);
+        }
+
+        void stop() {
+            try {
+                ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // not started, or stopped already
+            }
+            executor.shutdownNow();
+            try {
+                // an evaluation that is running could otherwise apply its scale after the restore
+                if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Heap pressure evaluation didn't stop within {} seconds", STOP_TIMEOUT_SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pools.forEach(MemoryPoolMXBean::setCollectionUsageThreshold);
+            pools.clear();
+            if (step >= 0) {
+                step = -1;
+                tracker.setTimeoutScale(1, minimumMaxInactiveInterval);
+                LOGGER.info("Heap pressure policy stopped, session timeouts restored");
+            }
+        }
+
+        private void evaluate() {
+            double usage = 0;
+            for (MemoryPoolMXBean pool : pools.keySet()) {
+                MemoryUsage collectionUsage = pool.getCollectionUsage();
+                if (collectionUsage != null && collectionUsage.getMax() > 0) {
+                    usage = Math.max(usage, (double) collectionUsage.getUsed() / collectionUsage.getMax());
+                }
+            }
+            int newStep = getStep(step, usage);
+            if (newStep != step) {
+                step = newStep;
+                double scale = getScale(step);
+                LOGGER.info("Heap usage after GC at {}%, scaling session timeouts by {}", Math.round(usage * 100),
+                        scale);
+                tracker.setTimeoutScale(scale, minimumMaxInactiveInterval);
+                tracker.getMetrics().timeoutScaleChanged(scale, usage);
+            }
+            // the JVM only notifies when the usage exceeds the threshold, so the way back is polled
+            if (step >= 0 && poll == null) {
+                poll = executor.scheduleWithFixedDelay(this::evaluate, pollIntervalMillis, pollIntervalMillis,
+                        TimeUnit.MILLISECONDS);
+            } else if (step < 0 && poll != null) {
+                poll.cancel(false);
+                poll = null;
+            }
+        }
+    }
+
+    /**
+     * Builds {@link HeapPressureTimeoutPolicy} instances
+     */
+    public static final class Builder {
+
+        private final TreeMap<Double, Double> steps = new TreeMap<>();
+        private double hysteresis = 0.05;
+        private int minimumMaxInactiveInterval = 120;
+        private long pollIntervalMillis = 5000;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a step. The higher the heap usage of a step, the smaller its
+         * timeout scale must be, see {@link #build()}.
+         *
+         * @param heapUsage
+         *            the usage of the heap after garbage collection, between 0
+         *            and 1, at which the step applies
+         * @param timeoutScale
+         *            the factor applied to the timeouts, between 0 and 1
+         * @throws IllegalArgumentException
+         *             If either value is out of range
+         */
+        public Builder step(double heapUsage, double timeoutScale) throws IllegalArgumentException {
+            if (!(heapUsage > 0 && heapUsage < 1)) {
+                throw new IllegalArgumentException("heapUsage must be > 0 and < 1");
+            }
+            if (!(timeoutScale > 0 && timeoutScale <= 1)) {
+                throw new IllegalArgumentException("timeoutScale must be > 0 and <= 1");
+            }
+            steps.put(heapUsage, timeoutScale);
+            return this;
+        }
+
+        /**
+         * Sets how far the heap usage has to drop below a step before the step
+         * is left, 0.05 by default
+         */
+        public Builder hysteresis(double hysteresis) {
+            if (!(hysteresis >= 0 && hysteresis < 1)) {
+                throw new IllegalArgumentException("hysteresis must be >= 0 and < 1");
+            }
+            this.hysteresis = hysteresis;
+            return this;
+        }
+
+        /**
+         * Sets the number of seconds below which no timeout is shortened, 120
+         * by default
+         */
+        public Builder minimumMaxInactiveInterval(int seconds) {
+            if (seconds < 1) {
+                throw new IllegalArgumentException("seconds must be >= 1");
+            }
+            minimumMaxInactiveInterval = seconds;
+            return this;
+        }
+
+        /**
+         * Sets the number of milliseconds between two checks of the heap usage
+         * while under pressure, 5000 by default
+         */
+        public Builder pollInterval(long pollIntervalMillis) {
+            if (pollIntervalMillis < 1) {
+                throw new IllegalArgumentException("pollIntervalMillis must be >= 1");
+            }
+            this.pollIntervalMillis = pollIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Builds the policy
+         *
+         * @throws IllegalArgumentException
+         *             If a step has a larger timeout scale than a step with a
+         *             lower heap usage, which would lengthen the timeouts as
+         *             the pressure rises
+         */
+        public HeapPressureTimeoutPolicy build() throws IllegalArgumentException {
+            double previousScale = 1;
+            for (Map.Entry<Double, Double> step : steps.entrySet()) {
+                if (step.getValue() > previousScale) {
+                    throw new IllegalArgumentException("the timeoutScale of the step at heapUsage " + step.getKey()
+                            + " must not be larger than the one of a lower step");
+                }
+                previousScale = step.getValue();
+            }
+            return new HeapPressureTimeoutPolicy(this);
+        }
+    }
+}
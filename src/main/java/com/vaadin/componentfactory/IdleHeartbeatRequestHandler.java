@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+/**
+ * Handles the requests of the heartbeat-aware idle mode (see
+ * {@link IdleNotification#setIdleHeartbeatInterval(int)}):
+ * <ul>
+ * <li>heartbeats carrying {@value #DEFER_PARAMETER}, which the client sends
+ * at most every that many seconds while the user is idle. The heartbeat
+ * timestamp of the UI is forward-dated accordingly, so that the UI isn't
+ * closed for missing the heartbeats in between. Other heartbeats are left to
+ * the built-in handler.</li>
+ * <li>{@value #UI_CLOSED_REQUEST_TYPE} beacons, which the client sends when
+ * the page is unloaded, so that the UI is removed right away rather than
+ * after missing several heartbeats</li>
+ * </ul>
+ */
+class IdleHeartbeatRequestHandler implements RequestHandler {
+
+    static final String DEFER_PARAMETER = "idle-notification-defer";
+    static final String UI_CLOSED_REQUEST_TYPE = "idle-notification-ui-closed";
+    static final String CSRF_TOKEN_PARAMETER = "csrfToken";
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response)
+            throws IOException {
+        if (session == null) {
+            return false;
+        }
+        String requestType = request.getParameter(ApplicationConstants.REQUEST_TYPE_PARAMETER);
+        if (ApplicationConstants.REQUEST_TYPE_HEARTBEAT.equals(requestType)) {
+            int deferSeconds = parseDeferSeconds(request.getParameter(DEFER_PARAMETER));
+            if (deferSeconds <= 0) {
+                return false;
+            }
+            handleDeferredHeartbeat(session, request, response, deferSeconds);
+            return true;
+        }
+        if (UI_CLOSED_REQUEST_TYPE.equals(requestType)) {
+            handleUiClosed(session, request, response);
+            return true;
+        }
+        return false;
+    }
+
+    private static int parseDeferSeconds(String defer) {
+        if (defer == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(defer);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void handleDeferredHeartbeat(VaadinSession session, VaadinRequest request,
+            VaadinResponse response, int deferSeconds) throws IOException {
+        session.lock();
+        try {
+            UI ui = session.getService().findUI(request);
+            if (ui == null) {
+                response.sendError(HttpServletResponse.SC_GONE, "UI not found");
+                return;
+            }
+            // the UI can't outlive its session, so neither can the next heartbeat
+            int maxInactiveInterval = session.getSession().getMaxInactiveInterval();
+            if (maxInactiveInterval > 0) {
+                deferSeconds = Math.min(deferSeconds, maxInactiveInterval);
+            }
+            ui.getInternals().setLastHeartbeatTimestamp(System.currentTimeMillis() + deferSeconds * 1000L);
+            response.setHeader("Cache-Control", "no-cache");
+            response.setHeader("Content-Type", "text/plain");
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private static void handleUiClosed(VaadinSession session, VaadinRequest request, VaadinResponse response) {
+        session.lock();
+        try {
+            UI ui = session.getService().findUI(request);
+            // the token keeps other sites from closing UIs
+            if (ui != null && ui.getCsrfToken().equals(request.getParameter(CSRF_TOKEN_PARAMETER))) {
+                ui.close();
+                session.removeUI(ui);
+            }
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } finally {
+            session.unlock();
+        }
+    }
+}
@@ -16,18 +16,32 @@
 
 package com.vaadin.componentfactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
+import com.vaadin.flow.component.AttachEvent;
 import com.vaadin.flow.component.ClientCallable;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.ComponentEvent;
 import com.vaadin.flow.component.ComponentEventListener;
+import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.DomEvent;
 import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.dependency.JsModule;
 import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.shared.communication.PushMode;
 import com.vaadin.flow.shared.Registration;
 
+import elemental.json.Json;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
 @Tag("idle-notification")
 @JsModule("./idle-notification.js")
 public class IdleNotification extends Component {
@@ -62,11 +76,32 @@ public class IdleNotification extends Component {
     private String redirectButtonUrl;
     private String redirectAtTimeoutUrl;
     private boolean redirectAtTimeoutEnabled = true;
+    private int redirectJitter = 0;
+    private boolean prefetchRedirectAtTimeout = false;
+    private boolean lazyDialog = false;
     private String afterExpiredMessage;
     private Integer maxInactiveInterval;
     private Integer secondsBeforeNotification;
     private boolean extendSessionOnOutsideClick = true;
     private boolean closeNotificationOnOutsideClick = false;
+    private boolean multiTabCoordinationEnabled = false;
+    private boolean lightweightSessionTouchEnabled = false;
+    private boolean extendSessionOnPageHide = false;
+    private boolean piggybackSecondsRemaining = false;
+    private boolean secondsRemainingSyncPending;
+    private List<ActivityRule> activityRules = Collections.emptyList();
+    private final List<Registration> activityRuleTargetRegistrations = new ArrayList<>();
+    private boolean activityRulesUpdatePending;
+    private int autoExtendInterval = 0;
+    private int idleHeartbeatInterval = 0;
+    // read by the tracker thread
+    private volatile boolean invalidateSessionOnTimeout = false;
+    // see HeapPressureTimeoutPolicy
+    private double timeoutScale = 1;
+    private int minimumMaxInactiveInterval;
+    private boolean metricsListenersAdded;
+    // what is left of the shared configuration once settings are overridden
+    private JsonObject config;
 
     /**
      * Default constructor. Creates an idle notification with defaults.
@@ -104,7 +139,7 @@ public class IdleNotification extends Component {
      */
     public IdleNotification(int secondsBeforeNotification) throws IllegalArgumentException {
         this(DEFAULT_BEFORE_EXPIRE_MESSAGE, secondsBeforeNotification,
-                VaadinSession.getCurrent().getSession().getMaxInactiveInterval());
+                getSessionMaxInactiveInterval());
     }
 
     /**
@@ -127,7 +162,7 @@ public class IdleNotification extends Component {
      *             or equal to, {@code maxInactiveInterval}.
      */
     public IdleNotification(String message, int secondsBeforeNotification) throws IllegalArgumentException {
-        this(message, secondsBeforeNotification, VaadinSession.getCurrent().getSession().getMaxInactiveInterval());
+        this(message, secondsBeforeNotification, getSessionMaxInactiveInterval());
     }
 
     /**
@@ -153,7 +188,7 @@ public class IdleNotification extends Component {
      */
     public IdleNotification(String message, int secondsBeforeNotification, String redirectAtTimeoutUrl)
             throws IllegalArgumentException {
-        this(message, secondsBeforeNotification, VaadinSession.getCurrent().getSession().getMaxInactiveInterval(),
+        this(message, secondsBeforeNotification, getSessionMaxInactiveInterval(),
                 redirectAtTimeoutUrl);
     }
 
@@ -221,6 +256,63 @@ public class IdleNotification extends Component {
         }
     }
 
+    /**
+     * Creates an idle notification from the given configuration, which is sent
+     * to the client as a single property. If the configuration does not define
+     * a {@code maxInactiveInterval}, the one of the underlying HttpSession is
+     * used.
+     * <p>
+     * NOTE: The setters of this class can still be used afterwards, each one of
+     * them overriding a single setting.
+     *
+     * @param config
+     *            the configuration, which can be shared by all instances
+     * @throws IllegalArgumentException
+     *             If {@code secondsBeforeNotification} value is larger than,
+     *             or equal to, the {@code maxInactiveInterval} of the
+     *             HttpSession.
+     */
+    public IdleNotification(IdleNotificationConfig config) throws IllegalArgumentException {
+        Objects.requireNonNull(config, "config should not be null");
+        Integer configuredMaxInactiveInterval = config.getMaxInactiveInterval();
+        int maxInactiveInterval = configuredMaxInactiveInterval != null ? configuredMaxInactiveInterval
+                : getSessionMaxInactiveInterval();
+        if (config.getSecondsBeforeNotification() >= maxInactiveInterval) {
+            throw new IllegalArgumentException("secondsBeforeNotification must be less than maxInactiveInterval");
+        }
+        message = config.getMessage();
+        afterExpiredMessage = config.getAfterExpiredMessage();
+        secondsBeforeNotification = config.getSecondsBeforeNotification();
+        this.maxInactiveInterval = maxInactiveInterval;
+        closeButtonEnabled = config.isCloseButtonEnabled();
+        extendSessionButtonCaption = config.getExtendSessionButtonCaption();
+        extendSessionButtonEnabled = extendSessionButtonCaption != null;
+        redirectButtonCaption = config.getRedirectButtonCaption();
+        redirectButtonUrl = config.getRedirectButtonUrl();
+        redirectButtonEnabled = redirectButtonCaption != null;
+        redirectAtTimeoutUrl = config.getRedirectAtTimeoutUrl();
+        redirectAtTimeoutEnabled = redirectAtTimeoutUrl != null;
+        redirectJitter = config.getRedirectJitter();
+        prefetchRedirectAtTimeout = config.isPrefetchRedirectAtTimeout();
+        lazyDialog = config.isLazyDialog();
+        extendSessionOnOutsideClick = config.isExtendSessionOnOutsideClick();
+        closeNotificationOnOutsideClick = config.isCloseNotificationOnOutsideClick();
+        multiTabCoordinationEnabled = config.isMultiTabCoordinationEnabled();
+        lightweightSessionTouchEnabled = config.isLightweightSessionTouchEnabled();
+        extendSessionOnPageHide = config.isExtendSessionOnPageHide();
+        piggybackSecondsRemaining = config.isPiggybackSecondsRemaining();
+        activityRules = config.getActivityRules();
+        autoExtendInterval = config.getAutoExtendInterval();
+        idleHeartbeatInterval = config.getIdleHeartbeatInterval();
+        setInvalidateSessionOnTimeout(config.isInvalidateSessionOnTimeout());
+
+        this.config = config.toJson();
+        getElement().setPropertyJson("config", this.config);
+        if (configuredMaxInactiveInterval == null) {
+            setClientProperty("maxInactiveInterval", maxInactiveInterval);
+        }
+    }
+
     /**
      * Adds a button to close the notification without poking the server
      */
@@ -255,7 +347,7 @@ public class IdleNotification extends Component {
     public void setMessage(String message) {
         Objects.requireNonNull(message, "message should not be null");
         this.message = message;
-        getElement().setProperty("beforeExpiredMessage", message);
+        setClientPropertyJson("beforeExpiredMessage", MessageTemplate.compile(message));
     }
 
     /**
@@ -307,10 +399,108 @@ public class IdleNotification extends Component {
      */
     public void setRedirectAtTimeoutUrl(String redirectAtTimeoutUrl) {
         this.redirectAtTimeoutUrl = redirectAtTimeoutUrl;
-        getElement().setProperty("redirectAtTimeoutUrl", redirectAtTimeoutUrl);
+        setClientProperty("redirectAtTimeoutUrl", redirectAtTimeoutUrl);
         setRedirectAtTimeoutEnabled(redirectAtTimeoutUrl != null);
     }
 
+    /**
+     * Gets the maximum number of seconds by which the redirect upon session
+     * timeout is delayed, or 0 if it isn't delayed
+     */
+    public int getRedirectJitter() {
+        return redirectJitter;
+    }
+
+    /**
+     * Delays the redirect upon session timeout, and the client-side timeout
+     * event, by a random number of seconds up to {@code redirectJitterSeconds}.
+     * <p>
+     * Sessions created in a burst, for example by a login wave or by the users
+     * of a restarted node logging in again, time-out in a burst too. Each page
+     * picks its own delay, so that their requests to the
+     * {@link #setRedirectAtTimeoutUrl(String) redirect URL} are spread evenly
+     * over the given number of seconds. The notification shows the
+     * {@link #setAfterExpiredMessage(String) after-expired message} in the
+     * meantime.
+     * <p>
+     * NOTE: The server-side {@link TimeoutEvent} isn't delayed, as it doesn't
+     * cost any request.
+     *
+     * @param redirectJitterSeconds
+     *            the maximum number of seconds to delay the redirect by, or 0
+     *            to redirect right away
+     * @throws IllegalArgumentException
+     *             If {@code redirectJitterSeconds} is negative
+     */
+    public void setRedirectJitter(int redirectJitterSeconds) throws IllegalArgumentException {
+        if (redirectJitterSeconds < 0) {
+            throw new IllegalArgumentException("redirectJitterSeconds must be >= 0");
+        }
+        this.redirectJitter = redirectJitterSeconds;
+        setClientProperty("redirectJitter", redirectJitterSeconds);
+    }
+
+    /**
+     * Whether the redirect URL is prefetched while the notification counts
+     * down
+     */
+    public boolean isPrefetchRedirectAtTimeout() {
+        return prefetchRedirectAtTimeout;
+    }
+
+    /**
+     * Prefetches the {@link #setRedirectAtTimeoutUrl(String) redirect URL}
+     * with a {@code <link rel="prefetch">} while the notification counts down,
+     * so that the redirect upon session timeout is served from the browser
+     * cache instead of by the server. Each page prefetches at a random point
+     * of the first half of the count-down.
+     * <p>
+     * NOTE: The prefetch is an ordinary {@code GET} request, sent with the
+     * cookies of the page while the session is still alive. The redirect URL
+     * must therefore be a static resource without side effects, served
+     * outside of the Vaadin servlet: a logout URL would log the user out in
+     * the middle of the count-down, a Flow route would create a new UI, and
+     * any request to the servlet refreshes the last-access time of the
+     * HttpSession. To log the user out upon timeout, redirect to a static page
+     * instead, since the session is gone by then anyway. The response mustn't
+     * be marked as {@code no-store} either, or it isn't kept for the redirect.
+     *
+     * @param prefetchRedirectAtTimeout
+     *            whether to prefetch the redirect URL
+     */
+    public void setPrefetchRedirectAtTimeout(boolean prefetchRedirectAtTimeout) {
+        this.prefetchRedirectAtTimeout = prefetchRedirectAtTimeout;
+        setClientProperty("prefetchRedirectAtTimeout", prefetchRedirectAtTimeout);
+    }
+
+    /**
+     * Determines whether the dialog components are only loaded shortly before
+     * the notification is displayed
+     */
+    public boolean isLazyDialog() {
+        return lazyDialog;
+    }
+
+    /**
+     * Loads the dialog and button components of the notification only 30
+     * seconds before it is displayed, instead of as soon as the page is
+     * loaded, so that pages that never display the notification don't fetch
+     * them. Disabled by default.
+     * <p>
+     * NOTE: The components are then fetched when the user has typically been
+     * idle for a while, e.g. right after the device has woken up from sleep.
+     * If the fetch fails, it is retried while the notification is due, but
+     * the notification isn't displayed until it succeeds.
+     *
+     * @param lazyDialog
+     *            whether to load the dialog components shortly before the
+     *            notification is displayed
+     */
+    public void setLazyDialog(boolean lazyDialog) {
+        this.lazyDialog = lazyDialog;
+        setClientProperty("lazyDialog", lazyDialog);
+    }
+
     /**
      * Get the message displayed to the user after the session expires
      */
@@ -328,7 +518,7 @@ public class IdleNotification extends Component {
     public void setAfterExpiredMessage(String afterExpiredMessage) {
         Objects.requireNonNull(afterExpiredMessage, "afterExpiredMessage should not be null");
         this.afterExpiredMessage = afterExpiredMessage;
-        getElement().setProperty("afterExpiredMessage", afterExpiredMessage);
+        setClientPropertyJson("afterExpiredMessage", MessageTemplate.compile(afterExpiredMessage));
     }
 
     /**
@@ -361,7 +551,8 @@ public class IdleNotification extends Component {
             throw new IllegalArgumentException("secondsBeforeNotification must be less than maxInactiveInterval");
         }
         this.maxInactiveInterval = maxInactiveInterval;
-        getElement().setProperty("maxInactiveInterval", maxInactiveInterval);
+        setClientProperty("maxInactiveInterval", getEffectiveMaxInactiveInterval());
+        updateTrackerRegistration();
     }
 
     /**
@@ -389,7 +580,59 @@ public class IdleNotification extends Component {
             throw new IllegalArgumentException("secondsBeforeNotification must be less than maxInactiveInterval");
         }
         this.secondsBeforeNotification = secondsBeforeNotification;
-        getElement().setProperty("secondsBeforeNotification", secondsBeforeNotification);
+        setClientProperty("secondsBeforeNotification", getEffectiveSecondsBeforeNotification());
+        updateTrackerRegistration();
+    }
+
+    /**
+     * Gets the number of seconds until the session times-out, shortened while
+     * the heap is under pressure
+     *
+     * @see HeapPressureTimeoutPolicy
+     */
+    int getEffectiveMaxInactiveInterval() {
+        return HeapPressureTimeoutPolicy.scaleTimeout(maxInactiveInterval, timeoutScale, minimumMaxInactiveInterval);
+    }
+
+    /**
+     * Gets the number of seconds before the session times-out at which the
+     * notification is displayed, shortened in proportion to
+     * {@link #getEffectiveMaxInactiveInterval()}
+     */
+    int getEffectiveSecondsBeforeNotification() {
+        if (timeoutScale >= 1) {
+            return secondsBeforeNotification;
+        }
+        int seconds = Math.max(1, (int) Math.round(secondsBeforeNotification * timeoutScale));
+        return Math.min(seconds, getEffectiveMaxInactiveInterval() - 1);
+    }
+
+    /**
+     * Applies the timeout scale of the {@link HeapPressureTimeoutPolicy} to
+     * this notification and its client. Called while holding the session
+     * lock.
+     */
+    void applyTimeoutScale(SessionIdleTracker tracker, VaadinSession session, double scale,
+            int minimumMaxInactiveInterval) {
+        timeoutScale = scale;
+        this.minimumMaxInactiveInterval = minimumMaxInactiveInterval;
+        setClientProperty("maxInactiveInterval", getEffectiveMaxInactiveInterval());
+        setClientProperty("secondsBeforeNotification", getEffectiveSecondsBeforeNotification());
+        tracker.register(this, session);
+        int secondsRemaining = tracker.getSecondsRemaining(session);
+        if (secondsRemaining >= 0) {
+            syncSecondsRemaining(secondsRemaining);
+        }
+    }
+
+    /**
+     * Gets the maxInactiveInterval of the HttpSession of the current session,
+     * as it was before any {@link HeapPressureTimeoutPolicy} shortened it
+     */
+    private static int getSessionMaxInactiveInterval() {
+        WrappedSession wrappedSession = VaadinSession.getCurrent().getSession();
+        Object unscaled = wrappedSession.getAttribute(SessionIdleTracker.UNSCALED_MAX_INACTIVE_INTERVAL_ATTRIBUTE);
+        return unscaled instanceof Integer ? (Integer) unscaled : wrappedSession.getMaxInactiveInterval();
     }
 
     public boolean isExtendSessionOnOutsideClick() {
@@ -402,7 +645,7 @@ public class IdleNotification extends Component {
      */
     public void setExtendSessionOnOutsideClick(boolean extendSessionOnOutsideClick) {
         this.extendSessionOnOutsideClick = extendSessionOnOutsideClick;
-        getElement().setProperty("extendSessionOnOutsideClick", extendSessionOnOutsideClick);
+        setClientProperty("extendSessionOnOutsideClick", extendSessionOnOutsideClick);
     }
 
     public boolean isCloseNotificationOnOutsideClick() {
@@ -419,7 +662,266 @@ public class IdleNotification extends Component {
      */
     public void setCloseNotificationOnOutsideClick(boolean closeNotificationOnOutsideClick) {
         this.closeNotificationOnOutsideClick = closeNotificationOnOutsideClick;
-        getElement().setProperty("closeNotificationOnOutsideClick", closeNotificationOnOutsideClick);
+        setClientProperty("closeNotificationOnOutsideClick", closeNotificationOnOutsideClick);
+    }
+
+    public boolean isMultiTabCoordinationEnabled() {
+        return multiTabCoordinationEnabled;
+    }
+
+    /**
+     * Determines whether all browser tabs of the same origin coordinate with
+     * each other, so that only one of them (the elected leader) tracks
+     * idleness and extends the session. The other tabs share their activity
+     * with the leader and mirror the notification it displays.
+     * <p>
+     * NOTE: this should only be enabled if all tabs of the origin share the
+     * same session
+     */
+    public void setMultiTabCoordinationEnabled(boolean multiTabCoordinationEnabled) {
+        this.multiTabCoordinationEnabled = multiTabCoordinationEnabled;
+        setClientProperty("multiTabCoordination", multiTabCoordinationEnabled);
+    }
+
+    public boolean isLightweightSessionTouchEnabled() {
+        return lightweightSessionTouchEnabled;
+    }
+
+    /**
+     * Determines whether the session is extended through a lightweight
+     * session-touch request (see {@link SessionTouchRequestHandler}) instead
+     * of a server round trip. This applies to the extend-session button and
+     * to outside clicks.
+     * <p>
+     * A touch request doesn't access the UI and doesn't run the UIDL pipeline,
+     * so it doesn't send back any UI changes. It still waits for the session
+     * lock while Flow looks up the session, so it is delayed by other work
+     * holding that lock, but only until the lookup is done rather than for the
+     * whole round trip.
+     */
+    public void setLightweightSessionTouchEnabled(boolean lightweightSessionTouchEnabled) {
+        this.lightweightSessionTouchEnabled = lightweightSessionTouchEnabled;
+        setClientProperty("sessionTouchEnabled", lightweightSessionTouchEnabled);
+    }
+
+    public boolean isExtendSessionOnPageHide() {
+        return extendSessionOnPageHide;
+    }
+
+    /**
+     * Determines whether the session is extended when the page is hidden or
+     * unloaded while the notification is displayed, or while a session
+     * extension is still pending. A server call, or a session-touch request,
+     * is often dropped when the user switches away or closes the tab, so the
+     * extension is sent as a beacon to the {@link SessionTouchRequestHandler}
+     * instead, which the browser delivers in the background. The handler
+     * doesn't take the UI lock.
+     * <p>
+     * NOTE: Closing the tab while the notification is displayed extends the
+     * session too
+     */
+    public void setExtendSessionOnPageHide(boolean extendSessionOnPageHide) {
+        this.extendSessionOnPageHide = extendSessionOnPageHide;
+        setClientProperty("extendSessionOnPageHide", extendSessionOnPageHide);
+    }
+
+    /**
+     * Gets the minimum number of seconds between two session extensions
+     * triggered by user activity, or 0 if the auto-extend mode is disabled
+     */
+    public int getAutoExtendInterval() {
+        return autoExtendInterval;
+    }
+
+    /**
+     * Extends the session when the user is active in the browser, even if the
+     * activity doesn't send any request to the server, e.g. when reading a long
+     * page or typing into a field without value change listeners.
+     * <p>
+     * Pointer, keyboard and scroll events are coalesced into at most one
+     * extension per {@code minExtendIntervalSeconds}. No extension is made if a
+     * request to the server has refreshed the session since the last activity,
+     * and none is made once the notification is displayed.
+     * <p>
+     * NOTE: {@code minExtendIntervalSeconds} should be well below
+     * {@code maxInactiveInterval - secondsBeforeNotification}, otherwise the
+     * notification may be displayed before an activity extends the session.
+     *
+     * @param minExtendIntervalSeconds
+     *            the minimum number of seconds between two extensions, or 0 to
+     *            disable the auto-extend mode
+     * @throws IllegalArgumentException
+     *             If {@code minExtendIntervalSeconds} is negative
+     */
+    public void setAutoExtendOnActivity(int minExtendIntervalSeconds) throws IllegalArgumentException {
+        if (minExtendIntervalSeconds < 0) {
+            throw new IllegalArgumentException("minExtendIntervalSeconds must be >= 0");
+        }
+        this.autoExtendInterval = minExtendIntervalSeconds;
+        setClientProperty("autoExtendInterval", minExtendIntervalSeconds);
+    }
+
+    /**
+     * Gets the maximum number of seconds between two Vaadin heartbeats while
+     * the user is idle, or 0 if heartbeats aren't throttled
+     */
+    public int getIdleHeartbeatInterval() {
+        return idleHeartbeatInterval;
+    }
+
+    /**
+     * Throttles the Vaadin heartbeats of the UI while the user is idle, to
+     * reduce the heartbeat traffic of idle tabs.
+     * <p>
+     * While the notification counts down, the client holds back heartbeats
+     * until {@code idleHeartbeatIntervalSeconds} have passed since the
+     * previous one, and the server forward-dates the heartbeat timestamp of the
+     * UI by as much, so that the UI isn't closed for missing heartbeats. After
+     * a request to the server, which resets the heartbeat timestamp, the next
+     * heartbeat is sent within 3 heartbeat intervals as usual. When the page is
+     * unloaded, the client tells the server to close the UI right away.
+     * <p>
+     * NOTE: A value of at least {@code maxInactiveInterval} suspends the
+     * heartbeats of an idle tab until its session times-out.
+     *
+     * @param idleHeartbeatIntervalSeconds
+     *            the maximum number of seconds between two heartbeats while
+     *            the user is idle, or 0 to disable throttling
+     * @throws IllegalArgumentException
+     *             If {@code idleHeartbeatIntervalSeconds} is negative
+     */
+    public void setIdleHeartbeatInterval(int idleHeartbeatIntervalSeconds) throws IllegalArgumentException {
+        if (idleHeartbeatIntervalSeconds < 0) {
+            throw new IllegalArgumentException("idleHeartbeatIntervalSeconds must be >= 0");
+        }
+        this.idleHeartbeatInterval = idleHeartbeatIntervalSeconds;
+        setClientProperty("idleHeartbeatInterval", idleHeartbeatIntervalSeconds);
+        if (idleHeartbeatIntervalSeconds > 0) {
+            getUI().ifPresent(this::sendHeartbeatSettings);
+        }
+    }
+
+    /**
+     * Whether the session is invalidated as soon as it has timed-out
+     */
+    public boolean isInvalidateSessionOnTimeout() {
+        return invalidateSessionOnTimeout;
+    }
+
+    /**
+     * Invalidates the session as soon as it has timed-out, to reclaim the heap
+     * held by the session and its UIs without waiting for the servlet
+     * container to expire it.
+     * <p>
+     * Once the server-side deadline of the session has passed, and the timeout
+     * listeners of the {@link SessionIdleTracker} have been called, all UIs of
+     * the session are closed and the HttpSession is invalidated. The time by
+     * which the session has been invalidated early, and the number of UIs and
+     * state nodes closed, are reported to the {@link IdleNotificationMetrics}.
+     * <p>
+     * NOTE: The HttpSession is invalidated as a whole, including the sessions
+     * of any other servlet sharing it.
+     *
+     * @param invalidateSessionOnTimeout
+     *            whether to invalidate the session as soon as it has timed-out
+     */
+    public void setInvalidateSessionOnTimeout(boolean invalidateSessionOnTimeout) {
+        this.invalidateSessionOnTimeout = invalidateSessionOnTimeout;
+    }
+
+    /**
+     * Whether the server-side updates of the number of seconds remaining are
+     * sent along with the next message to the client instead of being pushed
+     */
+    public boolean isPiggybackSecondsRemaining() {
+        return piggybackSecondsRemaining;
+    }
+
+    /**
+     * Sends the server-side updates of the number of seconds remaining until
+     * the session times-out, such as those of an
+     * {@link IdleNotificationBroadcast} or of a
+     * {@link HeapPressureTimeoutPolicy}, along with the next message to the
+     * client instead of pushing them right away. This saves a push message,
+     * and with long-polling a request, per update of a UI that pushes
+     * regularly anyway.
+     * <p>
+     * The number is read when the message is written, so it is up to date
+     * however long the update has waited. Until then, the client counts down
+     * from its previous deadline, while the {@link SessionIdleTracker} times
+     * the session out on its own deadline.
+     * <p>
+     * NOTE: this only has an effect if push is enabled in the UI
+     *
+     * @param piggybackSecondsRemaining
+     *            whether to send the updates along with the next message to
+     *            the client
+     */
+    public void setPiggybackSecondsRemaining(boolean piggybackSecondsRemaining) {
+        this.piggybackSecondsRemaining = piggybackSecondsRemaining;
+    }
+
+    /**
+     * Gets the rules classifying the requests of the page as user activity or
+     * not
+     */
+    public List<ActivityRule> getActivityRules() {
+        return activityRules;
+    }
+
+    /**
+     * Sets the rules classifying the requests of the page as user activity,
+     * which resets the idle timeout, or not. By default, every Vaadin request
+     * except for heartbeats is activity, including polling and the requests
+     * the client makes in reaction to server pushes. See {@link ActivityRule}.
+     * <p>
+     * A rule with an {@link ActivityRule.Builder#rpcTarget(Component) RPC
+     * target} is only sent to the client while its target is attached, since
+     * the client identifies the target by its node id. The rules are sent
+     * again whenever one of the targets is attached or detached, so the target
+     * doesn't need to be attached yet when the rules are set.
+     *
+     * @param rules
+     *            the rules, in the order they are evaluated in
+     */
+    public void setActivityRules(ActivityRule... rules) {
+        activityRuleTargetRegistrations.forEach(Registration::remove);
+        activityRuleTargetRegistrations.clear();
+        activityRules = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(rules)));
+        for (ActivityRule rule : activityRules) {
+            // the node id of a component changes when it is attached again
+            rule.getRpcTarget().ifPresent(target -> {
+                activityRuleTargetRegistrations.add(target.addAttachListener(event -> updateActivityRules()));
+                activityRuleTargetRegistrations.add(target.addDetachListener(event -> updateActivityRules()));
+            });
+        }
+        updateActivityRules();
+    }
+
+    private void updateActivityRules() {
+        if (activityRules.stream().noneMatch(rule -> rule.getRpcTarget().isPresent())) {
+            setClientPropertyJson("activityRules", ActivityRule.toJson(activityRules));
+            return;
+        }
+        // the node ids of the targets are known once they are attached
+        if (activityRulesUpdatePending) {
+            return;
+        }
+        activityRulesUpdatePending = true;
+        getElement().getNode().runWhenAttached(ui -> ui.beforeClientResponse(this, context -> {
+            activityRulesUpdatePending = false;
+            setClientPropertyJson("activityRules", ActivityRule.toJson(activityRules));
+        }));
+    }
+
+    /**
+     * Sends what the client needs to throttle the heartbeats of the given UI
+     * and to close it when the page is unloaded
+     */
+    private void sendHeartbeatSettings(UI ui) {
+        getElement().setProperty("heartbeatInterval", ui.getSession().getConfiguration().getHeartbeatInterval());
+        getElement().setProperty("uiId", ui.getUIId());
+        getElement().setProperty("csrfToken", ui.getCsrfToken());
     }
 
     /**
@@ -451,18 +953,216 @@ public class IdleNotification extends Component {
     }
 
     /**
-     * Adds a timeout handler
+     * Adds a timeout handler. It is called on the server, holding the session
+     * lock, once the session has been idle for its whole
+     * {@code maxInactiveInterval}, while this notification is attached. It
+     * costs no request. To release per-session resources, also of sessions
+     * whose browser tabs have been closed, use a timeout listener of the
+     * {@link SessionIdleTracker} instead, since a closed UI is released along
+     * with its notification.
+     *
+     * @see SessionIdleTracker#addTimeoutListener(SessionIdleTracker.SessionIdleListener)
      */
     public Registration addTimeoutListener(ComponentEventListener<TimeoutEvent> listener) {
         return addListener(TimeoutEvent.class, listener);
     }
 
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        getElement().setProperty("sessionTouchToken",
+                SessionTouchRequestHandler.getToken(attachEvent.getSession().getSession()));
+        SessionIdleTracker tracker = SessionIdleTracker.get(attachEvent.getSession().getService());
+        tracker.register(this, attachEvent.getSession());
+        if (tracker.getTimeoutScale() != timeoutScale) {
+            applyTimeoutScale(tracker, attachEvent.getSession(), tracker.getTimeoutScale(),
+                    tracker.getMinimumMaxInactiveInterval());
+        }
+        if (idleHeartbeatInterval > 0) {
+            sendHeartbeatSettings(attachEvent.getUI());
+        }
+        if (tracker.getMetrics() != IdleNotificationMetrics.NOOP) {
+            addMetricsListeners(tracker);
+        }
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        super.onDetach(detachEvent);
+        SessionIdleTracker.get(detachEvent.getSession().getService()).unregister(this, detachEvent.getSession());
+    }
+
+    /**
+     * Reports the events of this notification to the metrics of the tracker,
+     * which are looked up when an event fires. Called while holding the
+     * session lock, on attach or once metrics are installed. The listeners
+     * are kept for the lifetime of the component, since each of them costs a
+     * round trip only while metrics are installed. Session extensions are
+     * counted by {@link #pokeServer(int)} and
+     * {@link SessionTouchRequestHandler}, and timeouts by the tracker.
+     */
+    void addMetricsListeners(SessionIdleTracker tracker) {
+        if (metricsListenersAdded) {
+            return;
+        }
+        metricsListenersAdded = true;
+        addOpenListener(event -> tracker.getMetrics().notificationOpened());
+        addCloseListener(event -> tracker.getMetrics().notificationClosed());
+        addRedirectListener(event -> tracker.getMetrics().redirected());
+    }
+
+    /**
+     * Updates the deadlines of the session in the {@link SessionIdleTracker}
+     * after a time-setting has changed
+     */
+    private void updateTrackerRegistration() {
+        getUI().ifPresent(ui -> SessionIdleTracker.get(ui.getSession().getService()).register(this, ui.getSession()));
+    }
+
+    /**
+     * Fires a {@link TimeoutEvent}, while holding the session lock
+     */
+    void fireTimeoutEvent() {
+        fireEvent(new TimeoutEvent(this, false));
+    }
+
     /**
      * Used to extend the session from the client side
+     *
+     * @param clientLatencyMillis
+     *            the round trip time of the previous extension as measured by
+     *            the browser, or 0 if unknown
+     * @return the authoritative number of seconds remaining until the session
+     *         times-out
      */
     @ClientCallable
-    private boolean pokeServer() {
-        return true;
+    private int pokeServer(int clientLatencyMillis) {
+        VaadinSession session = VaadinSession.getCurrent();
+        if (session != null) {
+            IdleNotificationMetrics metrics = SessionIdleTracker.get(session.getService()).getMetrics();
+            if (metrics != IdleNotificationMetrics.NOOP) {
+                metrics.sessionExtended();
+                SessionActivityRequestHandler.recordServerExtendLatency(metrics);
+                if (clientLatencyMillis > 0) {
+                    metrics.recordClientExtendLatency(clientLatencyMillis);
+                }
+            }
+        }
+        return getSecondsRemaining();
+    }
+
+    private int getSecondsRemaining() {
+        VaadinSession session = VaadinSession.getCurrent();
+        int secondsRemaining = session == null ? -1
+                : SessionIdleTracker.get(session.getService()).getSecondsRemaining(session);
+        return secondsRemaining < 0 ? maxInactiveInterval : secondsRemaining;
+    }
+
+    /**
+     * Sends the authoritative number of seconds remaining until the session
+     * times-out to the client, if push is enabled in its UI. This corrects
+     * clients whose timers have been throttled by the browser.
+     * <p>
+     * Called by the {@link SessionIdleTracker} without holding the session
+     * lock.
+     */
+    void pushSecondsRemaining(VaadinSession session, int secondsRemaining) {
+        session.access(() -> syncSecondsRemaining(secondsRemaining));
+    }
+
+    /**
+     * Sends the number of seconds remaining to the client if push is enabled.
+     * Otherwise, the next response resets the client timer anyway. Called
+     * while holding the session lock.
+     *
+     * @return whether the client has been updated
+     */
+    boolean syncSecondsRemaining(int secondsRemaining) {
+        Optional<UI> pushedUI = getPushedUI();
+        if (piggybackSecondsRemaining) {
+            pushedUI.ifPresent(this::syncSecondsRemainingBeforeClientResponse);
+            return false;
+        }
+        pushedUI.ifPresent(ui -> {
+            getElement().callJsFunction("_syncRemaining", secondsRemaining);
+            if (ui.getPushConfiguration().getPushMode() == PushMode.MANUAL) {
+                ui.push();
+            }
+        });
+        return pushedUI.isPresent();
+    }
+
+    /**
+     * Gets whether push is enabled in the UI this notification is attached to,
+     * i.e. whether its client can be updated without contacting the server
+     */
+    boolean isPushEnabled() {
+        return getPushedUI().isPresent();
+    }
+
+    private Optional<UI> getPushedUI() {
+        return getUI().filter(ui -> ui.getPushConfiguration().getPushMode().isEnabled());
+    }
+
+    /**
+     * Sends the authoritative number of seconds remaining along with the next
+     * message to the client, once however many updates are made before it
+     */
+    private void syncSecondsRemainingBeforeClientResponse(UI ui) {
+        if (secondsRemainingSyncPending) {
+            return;
+        }
+        secondsRemainingSyncPending = true;
+        ui.beforeClientResponse(this, context -> {
+            secondsRemainingSyncPending = false;
+            VaadinSession session = ui.getSession();
+            int secondsRemaining = SessionIdleTracker.get(session.getService()).getSecondsRemaining(session);
+            if (secondsRemaining >= 0) {
+                getElement().callJsFunction("_syncRemaining", secondsRemaining);
+            }
+        });
+    }
+
+    private void setClientProperty(String name, String value) {
+        dropFromConfig(name);
+        getElement().setProperty(name, value);
+    }
+
+    private void setClientProperty(String name, boolean value) {
+        dropFromConfig(name);
+        getElement().setProperty(name, value);
+    }
+
+    private void setClientProperty(String name, double value) {
+        dropFromConfig(name);
+        getElement().setProperty(name, value);
+    }
+
+    private void setClientPropertyJson(String name, JsonValue value) {
+        dropFromConfig(name);
+        getElement().setPropertyJson(name, value);
+    }
+
+    /**
+     * Removes a setting that is being overridden from the configuration sent
+     * by {@link #IdleNotification(IdleNotificationConfig)}. The client applies
+     * the properties in no particular order, e.g. when they are all sent again
+     * after a re-attach, so the configuration could otherwise overwrite the
+     * value of the setter.
+     */
+    private void dropFromConfig(String name) {
+        if (config == null || !config.hasKey(name)) {
+            return;
+        }
+        // the configuration is shared, so it is copied rather than modified
+        JsonObject remaining = Json.createObject();
+        for (String key : config.keys()) {
+            if (!key.equals(name)) {
+                remaining.put(key, (JsonValue) config.get(key));
+            }
+        }
+        config = remaining;
+        getElement().setPropertyJson("config", config);
     }
 
     private boolean isCloseButtonEnabled() {
@@ -471,7 +1171,7 @@ public class IdleNotification extends Component {
 
     private void setCloseButtonEnabled(boolean closeButtonEnabled) {
         this.closeButtonEnabled = closeButtonEnabled;
-        getElement().setProperty("closeButtonEnabled", closeButtonEnabled);
+        setClientProperty("closeButtonEnabled", closeButtonEnabled);
     }
 
     private boolean isRedirectButtonEnabled() {
@@ -480,7 +1180,7 @@ public class IdleNotification extends Component {
 
     private void setRedirectButtonEnabled(boolean redirectButtonEnabled) {
         this.redirectButtonEnabled = redirectButtonEnabled;
-        getElement().setProperty("redirectButtonEnabled", redirectButtonEnabled);
+        setClientProperty("redirectButtonEnabled", redirectButtonEnabled);
     }
 
     private boolean isExtendSessionButtonEnabled() {
@@ -492,7 +1192,7 @@ public class IdleNotification extends Component {
      */
     private void setExtendSessionButtonEnabled(boolean extendSessionButtonEnabled) {
         this.extendSessionButtonEnabled = extendSessionButtonEnabled;
-        getElement().setProperty("extendSessionButtonEnabled", extendSessionButtonEnabled);
+        setClientProperty("extendSessionButtonEnabled", extendSessionButtonEnabled);
     }
 
     private String getExtendSessionButtonCaption() {
@@ -505,7 +1205,7 @@ public class IdleNotification extends Component {
     private void setExtendSessionButtonCaption(String extendSessionButtonCaption) {
         Objects.requireNonNull(extendSessionButtonCaption, "extendSessionButtonCaption should not be null");
         this.extendSessionButtonCaption = extendSessionButtonCaption;
-        getElement().setProperty("extendSessionButtonCaption", extendSessionButtonCaption);
+        setClientProperty("extendSessionButtonCaption", extendSessionButtonCaption);
     }
 
     private String getRedirectButtonCaption() {
@@ -515,7 +1215,7 @@ public class IdleNotification extends Component {
     private void setRedirectButtonCaption(String redirectButtonCaption) {
         Objects.requireNonNull(redirectButtonCaption, "redirectButtonCaption should not be null");
         this.redirectButtonCaption = redirectButtonCaption;
-        getElement().setProperty("redirectButtonCaption", redirectButtonCaption);
+        setClientProperty("redirectButtonCaption", redirectButtonCaption);
     }
 
     private String getRedirectButtonUrl() {
@@ -525,7 +1225,7 @@ public class IdleNotification extends Component {
     private void setRedirectButtonUrl(String redirectButtonUrl) {
         Objects.requireNonNull(redirectButtonUrl, "redirectButtonUrl should not be null");
         this.redirectButtonUrl = redirectButtonUrl;
-        getElement().setProperty("redirectButtonUrl", redirectButtonUrl);
+        setClientProperty("redirectButtonUrl", redirectButtonUrl);
     }
 
     private boolean isRedirectAtTimeoutEnabled() {
@@ -542,7 +1242,7 @@ public class IdleNotification extends Component {
      */
     private void setRedirectAtTimeoutEnabled(boolean redirectAtTimeoutEnabled) {
         this.redirectAtTimeoutEnabled = redirectAtTimeoutEnabled;
-        getElement().setProperty("redirectAtTimeoutEnabled", redirectAtTimeoutEnabled);
+        setClientProperty("redirectAtTimeoutEnabled", redirectAtTimeoutEnabled);
     }
 
     @DomEvent("vaadin-idle-notification-open")
@@ -565,7 +1265,12 @@ public class IdleNotification extends Component {
         public RedirectEvent(IdleNotification source, boolean fromClient) { super(source, fromClient); }
     }
 
-    @DomEvent("vaadin-idle-notification-timeout")
+    /**
+     * Fired on the server by the {@link SessionIdleTracker} once the session
+     * has timed-out, either at its deadline or when the servlet container
+     * destroys it, whichever comes first, if the notification is still
+     * attached by then
+     */
     public static class TimeoutEvent extends ComponentEvent<IdleNotification> {
         public TimeoutEvent(IdleNotification source, boolean fromClient) { super(source, fromClient); }
     }
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+
+/**
+ * Warns, or expires, all sessions with an {@link IdleNotification} on this
+ * node, e.g. to drain the node before a rolling deploy.
+ * <p>
+ * The sessions are updated in batches of a given size at a given interval,
+ * so that the pushes to their clients don't all go out at once. The new
+ * deadlines are spread evenly over a window, so that the notifications, and
+ * the extensions and redirects they lead to, don't all happen at once either.
+ * A deadline is only ever shortened, never extended.
+ * <p>
+ * The deadlines are moved in the {@link SessionIdleTracker}, whose warning
+ * and timeout callbacks (including
+ * {@link IdleNotification#setInvalidateSessionOnTimeout(boolean) eager
+ * invalidation}) follow them. Only sessions with push enabled in the UI of
+ * one of their notifications are updated. The clients of the others would
+ * only learn about the new deadline when they next contact the server, which
+ * extends it again, so they would time-out without a warning. They are
+ * skipped and counted in {@link Progress#getSkipped()} instead.
+ *
+ * <pre>
+ * IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.expireIn(300)
+ *         .spread(120).batchSize(200).batchInterval(500).start(service);
+ * progress.getCompletion().thenRun(() -&gt; log.info("Drain notified {} clients", progress.getPushed()));
+ * </pre>
+ */
+public final class IdleNotificationBroadcast {
+
+    private final int secondsRemaining;
+    private int spreadSeconds = 0;
+    private int batchSize = 100;
+    private long batchIntervalMillis = 1000;
+
+    private IdleNotificationBroadcast(int secondsRemaining) {
+        this.secondsRemaining = secondsRemaining;
+    }
+
+    /**
+     * Creates a broadcast that displays the notification in every session, as
+     * if its {@code secondsBeforeNotification} were reached
+     */
+    public static IdleNotificationBroadcast warn() {
+        return new IdleNotificationBroadcast(-1);
+    }
+
+    /**
+     * Creates a broadcast that makes every session time-out within the given
+     * number of seconds, unless the user extends it
+     *
+     * @throws IllegalArgumentException
+     *             If {@code seconds} is negative
+     */
+    public static IdleNotificationBroadcast expireIn(int seconds) throws IllegalArgumentException {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("seconds must be >= 0");
+        }
+        return new IdleNotificationBroadcast(seconds);
+    }
+
+    /**
+     * Spreads the new deadlines evenly over the given number of seconds, 0
+     * by default
+     */
+    public IdleNotificationBroadcast spread(int spreadSeconds) {
+        if (spreadSeconds < 0) {
+            throw new IllegalArgumentException("spreadSeconds must be >= 0");
+        }
+        this.spreadSeconds = spreadSeconds;
+        return this;
+    }
+
+    /**
+     * Sets the number of sessions updated per batch, 100 by default
+     */
+    public IdleNotificationBroadcast batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be >= 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of milliseconds between two batches, 1000 by default
+     */
+    public IdleNotificationBroadcast batchInterval(long batchIntervalMillis) {
+        if (batchIntervalMillis < 1) {
+            throw new IllegalArgumentException("batchIntervalMillis must be >= 1");
+        }
+        this.batchIntervalMillis = batchIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Starts updating the sessions tracked at this moment
+     *
+     * @param service
+     *            the Vaadin service
+     * @return the progress of the broadcast
+     */
+    public Progress start(VaadinService service) {
+        return start(SessionIdleTracker.get(service), Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-notification-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Starts updating the sessions tracked at this moment by the given
+     * tracker, dispatching the batches on the given executor, which is shut
+     * down once they all have been dispatched
+     */
+    Progress start(SessionIdleTracker tracker, ScheduledExecutorService executor) {
+        List<VaadinSession> sessions = tracker.getSessions();
+        Progress progress = new Progress(sessions.size());
+        if (sessions.isEmpty()) {
+            executor.shutdown();
+            progress.completion.complete(progress);
+            return progress;
+        }
+        progress.executor = executor;
+        executor.scheduleWithFixedDelay(() -> {
+            int from = progress.dispatched.get();
+            int to = Math.min(from + batchSize, sessions.size());
+            for (int i = from; i < to; i++) {
+                VaadinSession session = sessions.get(i);
+                int offset = getOffsetSeconds(i, sessions.size());
+                try {
+                    session.access(() -> {
+                        try {
+                            update(tracker, session, offset, progress);
+                        } finally {
+                            progress.finish();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    LoggerFactory.getLogger(IdleNotificationBroadcast.class).debug("Could not access session", e);
+                    progress.finish();
+                }
+                progress.dispatched.incrementAndGet();
+            }
+            if (to == sessions.size()) {
+                // the updates still run once their sessions are unlocked
+                executor.shutdown();
+            }
+        }, 0, batchIntervalMillis, TimeUnit.MILLISECONDS);
+        return progress;
+    }
+
+    /**
+     * Gets the number of seconds the deadline of the given session is
+     * postponed by within the spread window: the i-th of n sessions gets the
+     * i-th share of the window, so that the first one gets 0 and the last one
+     * the full window
+     */
+    int getOffsetSeconds(int index, int count) {
+        return count < 2 ? 0 : (int) ((long) spreadSeconds * index / (count - 1));
+    }
+
+    /**
+     * Moves the deadline of the given session, while holding its lock
+     */
+    private void update(SessionIdleTracker tracker, VaadinSession session, int offsetSeconds, Progress progress) {
+        List<IdleNotification> notifications = tracker.getIdleNotifications(session);
+        int current = tracker.getSecondsRemaining(session);
+        if (notifications.isEmpty() || current < 0) {
+            return;
+        }
+        if (notifications.stream().noneMatch(IdleNotification::isPushEnabled)) {
+            progress.skipped.incrementAndGet();
+            return;
+        }
+        int target = secondsRemaining;
+        if (target < 0) {
+            target = Integer.MAX_VALUE;
+            for (IdleNotification notification : notifications) {
+                target = Math.min(target, notification.getEffectiveSecondsBeforeNotification());
+            }
+        }
+        if ((long) target + offsetSeconds >= current) {
+            // the session times-out earlier anyway
+            return;
+        }
+        target += offsetSeconds;
+        tracker.setSecondsRemaining(session, target);
+        for (IdleNotification notification : notifications) {
+            if (notification.syncSecondsRemaining(target)) {
+                progress.pushed.incrementAndGet();
+            }
+        }
+        progress.updated.incrementAndGet();
+    }
+
+    /**
+     * The progress of a broadcast
+     */
+    public static final class Progress {
+
+        private final int total;
+        private final AtomicInteger dispatched = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger pushed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger finished = new AtomicInteger();
+        private final CompletableFuture<Progress> completion = new CompletableFuture<>();
+        private ScheduledExecutorService executor;
+
+        private Progress(int total) {
+            this.total = total;
+        }
+
+        /**
+         * Gets the number of sessions to update
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Gets the number of sessions handed over to
+         * {@link VaadinSession#access(com.vaadin.flow.server.Command)}
+         */
+        public int getDispatched() {
+            return dispatched.get();
+        }
+
+        /**
+         * Gets the number of sessions whose deadline has been moved. Sessions
+         * that would time-out earlier anyway, and sessions that have timed-out
+         * or been closed in the meantime, are skipped.
+         */
+        public int getUpdated() {
+            return updated.get();
+        }
+
+        /**
+         * Gets the number of clients that have been updated through push
+         */
+        public int getPushed() {
+            return pushed.get();
+        }
+
+        /**
+         * Gets the number of sessions that haven't been updated because push
+         * isn't enabled in the UI of any of their notifications
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * Gets a future that completes once the updates of all sessions have
+         * run, or the broadcast has been cancelled. Updates that have already
+         * been dispatched may still run after a cancellation.
+         */
+        public CompletableFuture<Progress> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Stops dispatching the remaining sessions
+         */
+        public void cancel() {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            completion.complete(this);
+        }
+
+        /**
+         * Called once the update of a session has run, or couldn't be
+         * dispatched
+         */
+        private void finish() {
+            if (finished.incrementAndGet() == total) {
+                completion.complete(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * An immutable configuration of {@link IdleNotification}, meant to be built
+ * once per application and shared by all instances.
+ * <p>
+ * The configuration is serialized into a JSON object only once. An
+ * {@link IdleNotification} created with
+ * {@link IdleNotification#IdleNotification(IdleNotificationConfig)} sends it
+ * to the client as a single property, which the client applies in one pass,
+ * instead of synchronizing every setting as a separate property.
+ *
+ * <pre>
+ * IdleNotificationConfig config = IdleNotificationConfig.builder()
+ *         .secondsBeforeNotification(90)
+ *         .extendSessionButton("Extend session")
+ *         .redirectAtTimeoutUrl("logout")
+ *         .build();
+ *
+ * UI.getCurrent().add(new IdleNotification(config));
+ * </pre>
+ */
+public final class IdleNotificationConfig implements Serializable {
+
+    private final String message;
+    private final String afterExpiredMessage;
+    private final int secondsBeforeNotification;
+    private final Integer maxInactiveInterval;
+    private final boolean closeButtonEnabled;
+    private final String extendSessionButtonCaption;
+    private final String redirectButtonCaption;
+    private final String redirectButtonUrl;
+    private final String redirectAtTimeoutUrl;
+    private final int redirectJitter;
+    private final boolean prefetchRedirectAtTimeout;
+    private final boolean lazyDialog;
+    private final boolean extendSessionOnOutsideClick;
+    private final boolean closeNotificationOnOutsideClick;
+    private final boolean multiTabCoordinationEnabled;
+    private final boolean lightweightSessionTouchEnabled;
+    private final boolean extendSessionOnPageHide;
+    private final int autoExtendInterval;
+    private final int idleHeartbeatInterval;
+    private final boolean invalidateSessionOnTimeout;
+    private final boolean piggybackSecondsRemaining;
+    private final List<ActivityRule> activityRules;
+
+    private transient volatile JsonObject json;
+
+    private IdleNotificationConfig(Builder builder) {
+        message = builder.message;
+        afterExpiredMessage = builder.afterExpiredMessage;
+        secondsBeforeNotification = builder.secondsBeforeNotification;
+        maxInactiveInterval = builder.maxInactiveInterval;
+        closeButtonEnabled = builder.closeButtonEnabled;
+        extendSessionButtonCaption = builder.extendSessionButtonCaption;
+        redirectButtonCaption = builder.redirectButtonCaption;
+        redirectButtonUrl = builder.redirectButtonUrl;
+        redirectAtTimeoutUrl = builder.redirectAtTimeoutUrl;
+        redirectJitter = builder.redirectJitter;
+        prefetchRedirectAtTimeout = builder.prefetchRedirectAtTimeout;
+        lazyDialog = builder.lazyDialog;
+        extendSessionOnOutsideClick = builder.extendSessionOnOutsideClick;
+        closeNotificationOnOutsideClick = builder.closeNotificationOnOutsideClick;
+        multiTabCoordinationEnabled = builder.multiTabCoordinationEnabled;
+        lightweightSessionTouchEnabled = builder.lightweightSessionTouchEnabled;
+        extendSessionOnPageHide = builder.extendSessionOnPageHide;
+        autoExtendInterval = builder.autoExtendInterval;
+        idleHeartbeatInterval = builder.idleHeartbeatInterval;
+        invalidateSessionOnTimeout = builder.invalidateSessionOnTimeout;
+        piggybackSecondsRemaining = builder.piggybackSecondsRemaining;
+        activityRules = Collections.unmodifiableList(new ArrayList<>(builder.activityRules));
+    }
+
+    /**
+     * Creates a builder with the defaults of {@link IdleNotification}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getAfterExpiredMessage() {
+        return afterExpiredMessage;
+    }
+
+    public int getSecondsBeforeNotification() {
+        return secondsBeforeNotification;
+    }
+
+    /**
+     * Gets the number of seconds until the session times-out, or {@code null}
+     * if it is obtained from the underlying HttpSession
+     */
+    public Integer getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    public boolean isCloseButtonEnabled() {
+        return closeButtonEnabled;
+    }
+
+    /**
+     * Gets the caption of the extend-session button, or {@code null} if there
+     * is no such button
+     */
+    public String getExtendSessionButtonCaption() {
+        return extendSessionButtonCaption;
+    }
+
+    /**
+     * Gets the caption of the redirect button, or {@code null} if there is no
+     * such button
+     */
+    public String getRedirectButtonCaption() {
+        return redirectButtonCaption;
+    }
+
+    public String getRedirectButtonUrl() {
+        return redirectButtonUrl;
+    }
+
+    public String getRedirectAtTimeoutUrl() {
+        return redirectAtTimeoutUrl;
+    }
+
+    public int getRedirectJitter() {
+        return redirectJitter;
+    }
+
+    public boolean isPrefetchRedirectAtTimeout() {
+        return prefetchRedirectAtTimeout;
+    }
+
+    public boolean isLazyDialog() {
+        return lazyDialog;
+    }
+
+    public boolean isExtendSessionOnOutsideClick() {
+        return extendSessionOnOutsideClick;
+    }
+
+    public boolean isCloseNotificationOnOutsideClick() {
+        return closeNotificationOnOutsideClick;
+    }
+
+    public boolean isMultiTabCoordinationEnabled() {
+        return multiTabCoordinationEnabled;
+    }
+
+    public boolean isLightweightSessionTouchEnabled() {
+        return lightweightSessionTouchEnabled;
+    }
+
+    public boolean isExtendSessionOnPageHide() {
+        return extendSessionOnPageHide;
+    }
+
+    public int getAutoExtendInterval() {
+        return autoExtendInterval;
+    }
+
+    public int getIdleHeartbeatInterval() {
+        return idleHeartbeatInterval;
+    }
+
+    public boolean isInvalidateSessionOnTimeout() {
+        return invalidateSessionOnTimeout;
+    }
+
+    public boolean isPiggybackSecondsRemaining() {
+        return piggybackSecondsRemaining;
+    }
+
+    public List<ActivityRule> getActivityRules() {
+        return activityRules;
+    }
+
+    /**
+     * Gets the client-side properties of this configuration. The object is
+     * created once and must not be modified.
+     */
+    JsonObject toJson() {
+        JsonObject result = json;
+        if (result == null) {
+            result = Json.createObject();
+            result.put("beforeExpiredMessage", MessageTemplate.compile(message));
+            result.put("afterExpiredMessage", MessageTemplate.compile(afterExpiredMessage));
+            result.put("secondsBeforeNotification", secondsBeforeNotification);
+            if (maxInactiveInterval != null) {
+                result.put("maxInactiveInterval", maxInactiveInterval);
+            }
+            result.put("closeButtonEnabled", closeButtonEnabled);
+            if (extendSessionButtonCaption != null) {
+                result.put("extendSessionButtonCaption", extendSessionButtonCaption);
+            }
+            result.put("extendSessionButtonEnabled", extendSessionButtonCaption != null);
+            if (redirectButtonCaption != null) {
+                result.put("redirectButtonCaption", redirectButtonCaption);
+                result.put("redirectButtonUrl", redirectButtonUrl);
+            }
+            result.put("redirectButtonEnabled", redirectButtonCaption != null);
+            if (redirectAtTimeoutUrl != null) {
+                result.put("redirectAtTimeoutUrl", redirectAtTimeoutUrl);
+            }
+            result.put("redirectAtTimeoutEnabled", redirectAtTimeoutUrl != null);
+            result.put("redirectJitter", redirectJitter);
+            result.put("prefetchRedirectAtTimeout", prefetchRedirectAtTimeout);
+            result.put("lazyDialog", lazyDialog);
+            result.put("extendSessionOnOutsideClick", extendSessionOnOutsideClick);
+            result.put("closeNotificationOnOutsideClick", closeNotificationOnOutsideClick);
+            result.put("multiTabCoordination", multiTabCoordinationEnabled);
+            result.put("sessionTouchEnabled", lightweightSessionTouchEnabled);
+            result.put("extendSessionOnPageHide", extendSessionOnPageHide);
+            result.put("autoExtendInterval", autoExtendInterval);
+            result.put("idleHeartbeatInterval", idleHeartbeatInterval);
+            if (!activityRules.isEmpty()) {
+                result.put("activityRules", ActivityRule.toJson(activityRules));
+            }
+            json = result;
+        }
+        return result;
+    }
+
+    /**
+     * Builds {@link IdleNotificationConfig} instances
+     */
+    public static final class Builder implements Serializable {
+
+        private String message = IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE;
+        private String afterExpiredMessage = IdleNotification.DEFAULT_AFTER_EXPIRE_MESSAGE;
+        private int secondsBeforeNotification = IdleNotification.DEFAULT_SECONDS_BEFORE_NOTIFICATION;
+        private Integer maxInactiveInterval;
+        private boolean closeButtonEnabled = false;
+        private String extendSessionButtonCaption;
+        private String redirectButtonCaption;
+        private String redirectButtonUrl;
+        private String redirectAtTimeoutUrl;
+        private int redirectJitter = 0;
+        private boolean prefetchRedirectAtTimeout = false;
+        private boolean lazyDialog = false;
+        private boolean extendSessionOnOutsideClick = true;
+        private boolean closeNotificationOnOutsideClick = false;
+        private boolean multiTabCoordinationEnabled = false;
+        private boolean lightweightSessionTouchEnabled = false;
+        private boolean extendSessionOnPageHide = false;
+        private int autoExtendInterval = 0;
+        private int idleHeartbeatInterval = 0;
+        private boolean invalidateSessionOnTimeout = false;
+        private boolean piggybackSecondsRemaining = false;
+        private final List<ActivityRule> activityRules = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * @see IdleNotification#setMessage(String)
+         */
+        public Builder message(String message) {
+            this.message = Objects.requireNonNull(message, "message should not be null");
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setAfterExpiredMessage(String)
+         */
+        public Builder afterExpiredMessage(String afterExpiredMessage) {
+            this.afterExpiredMessage = Objects.requireNonNull(afterExpiredMessage,
+                    "afterExpiredMessage should not be null");
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setSecondsBeforeNotification(int)
+         */
+        public Builder secondsBeforeNotification(int secondsBeforeNotification) {
+            this.secondsBeforeNotification = secondsBeforeNotification;
+            return this;
+        }
+
+        /**
+         * Sets an arbitrary number of seconds until the session times-out. If
+         * not set, it is obtained from the underlying HttpSession of each
+         * {@link IdleNotification}.
+         *
+         * @see IdleNotification#setMaxInactiveInterval(int)
+         */
+        public Builder maxInactiveInterval(int maxInactiveInterval) {
+            this.maxInactiveInterval = maxInactiveInterval;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#addCloseButton()
+         */
+        public Builder closeButton() {
+            closeButtonEnabled = true;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#addExtendSessionButton(String)
+         */
+        public Builder extendSessionButton(String caption) {
+            extendSessionButtonCaption = Objects.requireNonNull(caption, "caption should not be null");
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#addRedirectButton(String, String)
+         */
+        public Builder redirectButton(String caption, String url) {
+            redirectButtonCaption = Objects.requireNonNull(caption, "caption should not be null");
+            redirectButtonUrl = Objects.requireNonNull(url, "url should not be null");
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setRedirectAtTimeoutUrl(String)
+         */
+        public Builder redirectAtTimeoutUrl(String redirectAtTimeoutUrl) {
+            this.redirectAtTimeoutUrl = redirectAtTimeoutUrl;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setRedirectJitter(int)
+         */
+        public Builder redirectJitter(int redirectJitterSeconds) {
+            if (redirectJitterSeconds < 0) {
+                throw new IllegalArgumentException("redirectJitterSeconds must be >= 0");
+            }
+            redirectJitter = redirectJitterSeconds;
+            return this;
+        }
+
+        /**
+         * Prefetches the redirect URL, which must be a static resource served
+         * outside of the Vaadin servlet
+         *
+         * @see IdleNotification#setPrefetchRedirectAtTimeout(boolean)
+         */
+        public Builder prefetchRedirectAtTimeout(boolean prefetchRedirectAtTimeout) {
+            this.prefetchRedirectAtTimeout = prefetchRedirectAtTimeout;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setLazyDialog(boolean)
+         */
+        public Builder lazyDialog(boolean lazyDialog) {
+            this.lazyDialog = lazyDialog;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setExtendSessionOnOutsideClick(boolean)
+         */
+        public Builder extendSessionOnOutsideClick(boolean extendSessionOnOutsideClick) {
+            this.extendSessionOnOutsideClick = extendSessionOnOutsideClick;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setCloseNotificationOnOutsideClick(boolean)
+         */
+        public Builder closeNotificationOnOutsideClick(boolean closeNotificationOnOutsideClick) {
+            this.closeNotificationOnOutsideClick = closeNotificationOnOutsideClick;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setMultiTabCoordinationEnabled(boolean)
+         */
+        public Builder multiTabCoordination(boolean multiTabCoordinationEnabled) {
+            this.multiTabCoordinationEnabled = multiTabCoordinationEnabled;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setLightweightSessionTouchEnabled(boolean)
+         */
+        public Builder lightweightSessionTouch(boolean lightweightSessionTouchEnabled) {
+            this.lightweightSessionTouchEnabled = lightweightSessionTouchEnabled;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setExtendSessionOnPageHide(boolean)
+         */
+        public Builder extendSessionOnPageHide(boolean extendSessionOnPageHide) {
+            this.extendSessionOnPageHide = extendSessionOnPageHide;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setAutoExtendOnActivity(int)
+         */
+        public Builder autoExtendOnActivity(int minExtendIntervalSeconds) {
+            if (minExtendIntervalSeconds < 0) {
+                throw new IllegalArgumentException("minExtendIntervalSeconds must be >= 0");
+            }
+            autoExtendInterval = minExtendIntervalSeconds;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setIdleHeartbeatInterval(int)
+         */
+        public Builder idleHeartbeatInterval(int idleHeartbeatIntervalSeconds) {
+            if (idleHeartbeatIntervalSeconds < 0) {
+                throw new IllegalArgumentException("idleHeartbeatIntervalSeconds must be >= 0");
+            }
+            idleHeartbeatInterval = idleHeartbeatIntervalSeconds;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setInvalidateSessionOnTimeout(boolean)
+         */
+        public Builder invalidateSessionOnTimeout(boolean invalidateSessionOnTimeout) {
+            this.invalidateSessionOnTimeout = invalidateSessionOnTimeout;
+            return this;
+        }
+
+        /**
+         * @see IdleNotification#setPiggybackSecondsRemaining(boolean)
+         */
+        public Builder piggybackSecondsRemaining(boolean piggybackSecondsRemaining) {
+            this.piggybackSecondsRemaining = piggybackSecondsRemaining;
+            return this;
+        }
+
+        /**
+         * Adds a rule, evaluated after the ones added before
+         *
+         * @throws IllegalArgumentException
+         *             If the rule targets a component, which only exists in
+         *             one UI
+         * @see IdleNotification#setActivityRules(ActivityRule...)
+         */
+        public Builder activityRule(ActivityRule rule) throws IllegalArgumentException {
+            Objects.requireNonNull(rule, "rule should not be null");
+            if (rule.getRpcTarget().isPresent()) {
+                throw new IllegalArgumentException("a shared configuration can't hold rules targeting a component");
+            }
+            activityRules.add(rule);
+            return this;
+        }
+
+        /**
+         * Builds the configuration
+         *
+         * @throws IllegalArgumentException
+         *             If either {@code secondsBeforeNotification} or
+         *             {@code maxInactiveInterval} value is smaller than 1
+         *             seconds, or if {@code secondsBeforeNotification} value is
+         *             larger than, or equal to, {@code maxInactiveInterval}.
+         */
+        public IdleNotificationConfig build() throws IllegalArgumentException {
+            if (secondsBeforeNotification < 1) {
+                throw new IllegalArgumentException("secondsBeforeNotification must be > 1");
+            }
+            if (maxInactiveInterval != null) {
+                if (maxInactiveInterval < 1) {
+                    throw new IllegalArgumentException("maxInactiveInterval must be > 1");
+                }
+                if (secondsBeforeNotification >= maxInactiveInterval) {
+                    throw new IllegalArgumentException(
+                            "secondsBeforeNotification must be less than maxInactiveInterval");
+                }
+            }
+            return new IdleNotificationConfig(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Objects;
+import java.util.Optional;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.UIInitEvent;
+import com.vaadin.flow.server.UIInitListener;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * Adds an {@link IdleNotification} to every UI of a service, so that views
+ * don't have to create their own.
+ * <p>
+ * All the notifications share one {@link IdleNotificationConfig}, whose
+ * client-side payload is serialized only once, and all the notifications of
+ * a session share its {@link SessionIdleTracker} state. Install it once at the
+ * application level, typically from a
+ * {@link com.vaadin.flow.server.VaadinServiceInitListener}:
+ *
+ * <pre>
+ * public class ApplicationServiceInitListener implements VaadinServiceInitListener {
+ *     public void serviceInit(ServiceInitEvent event) {
+ *         IdleNotificationInstaller.install(event.getSource(), IdleNotificationConfig.builder()
+ *                 .extendSessionButton("Extend session").redirectAtTimeoutUrl("logout").build());
+ *     }
+ * }
+ * </pre>
+ *
+ * NOTE: Views must not add an {@link IdleNotification} of their own then; use
+ * {@link #getIdleNotification(UI)} to add listeners to the installed one.
+ */
+public final class IdleNotificationInstaller implements UIInitListener {
+
+    private final IdleNotificationConfig config;
+
+    private IdleNotificationInstaller(IdleNotificationConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Adds an idle notification with the given configuration to every UI of
+     * the given service that is created from now on
+     *
+     * @param service
+     *            the Vaadin service
+     * @param config
+     *            the configuration of all the notifications
+     * @return a handle that can be used to stop installing the notification
+     */
+    public static Registration install(VaadinService service, IdleNotificationConfig config) {
+        Objects.requireNonNull(service, "service should not be null");
+        Objects.requireNonNull(config, "config should not be null");
+        return service.addUIInitListener(new IdleNotificationInstaller(config));
+    }
+
+    /**
+     * Gets the idle notification installed in the given UI, if any
+     */
+    public static Optional<IdleNotification> getIdleNotification(UI ui) {
+        return Optional.ofNullable(ComponentUtil.getData(ui, IdleNotification.class));
+    }
+
+    @Override
+    public void uiInit(UIInitEvent event) {
+        UI ui = event.getUI();
+        if (ComponentUtil.getData(ui, IdleNotification.class) != null) {
+            return;
+        }
+        IdleNotification idleNotification = new IdleNotification(config);
+        ComponentUtil.setData(ui, IdleNotification.class, idleNotification);
+        ui.add(idleNotification);
+    }
+}
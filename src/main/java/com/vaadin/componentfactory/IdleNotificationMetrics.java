@@ -0,0 +1,172 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import com.vaadin.flow.server.VaadinService;
+
+/**
+ * Records the lifecycle of idle notifications and the latency of session
+ * extensions, e.g. to answer how often the notification is displayed and how
+ * many users extend their session rather than let it time-out.
+ * <p>
+ * There is one instance per {@link VaadinService}. It is either installed
+ * through {@link #install(VaadinService, IdleNotificationMetrics)}, or
+ * discovered through {@link ServiceLoader} by listing the implementation
+ * class in
+ * {@code META-INF/services/com.vaadin.componentfactory.IdleNotificationMetrics}.
+ * Without either, nothing is recorded ({@link #NOOP}).
+ * <p>
+ * All methods take primitives only and are called from request threads, so
+ * implementations have to be thread-safe and should not allocate.
+ * <p>
+ * NOTE: The opened, closed and redirected notifications are reported by the
+ * browser like the corresponding {@link IdleNotification} events, so once
+ * metrics are installed each of them causes a server round trip. Session
+ * extensions and timeouts are counted on the server and cause none.
+ *
+ * @see MicrometerIdleNotificationMetrics
+ */
+public interface IdleNotificationMetrics {
+
+    /**
+     * Records nothing
+     */
+    IdleNotificationMetrics NOOP = new IdleNotificationMetrics() {
+    };
+
+    /**
+     * Installs the given metrics for the given service, replacing the previous
+     * ones
+     *
+     * @param service
+     *            the Vaadin service
+     * @param metrics
+     *            the metrics, or {@link #NOOP} to stop recording
+     */
+    static void install(VaadinService service, IdleNotificationMetrics metrics) {
+        SessionIdleTracker.get(service).setMetrics(metrics);
+    }
+
+    /**
+     * Gets the first implementation listed in
+     * {@code META-INF/services/com.vaadin.componentfactory.IdleNotificationMetrics},
+     * or {@link #NOOP}
+     */
+    static IdleNotificationMetrics load() {
+        Iterator<IdleNotificationMetrics> iterator = ServiceLoader.load(IdleNotificationMetrics.class).iterator();
+        return iterator.hasNext() ? iterator.next() : NOOP;
+    }
+
+    /**
+     * Called when the notification has been displayed
+     *
+     * @see IdleNotification.OpenEvent
+     */
+    default void notificationOpened() {
+    }
+
+    /**
+     * Called when the notification has been closed, whether the session has
+     * been extended or not
+     *
+     * @see IdleNotification.CloseEvent
+     */
+    default void notificationClosed() {
+    }
+
+    /**
+     * Called when the session has been extended from the browser, through the
+     * extend-session button, an outside click or user activity
+     *
+     * @see IdleNotification.ExtendSessionEvent
+     */
+    default void sessionExtended() {
+    }
+
+    /**
+     * Called when the user has left through the redirect button
+     *
+     * @see IdleNotification.RedirectEvent
+     */
+    default void redirected() {
+    }
+
+    /**
+     * Called for each session with an {@link IdleNotification} that has
+     * timed-out, also if its browser tabs have been closed
+     *
+     * @see IdleNotification.TimeoutEvent
+     */
+    default void sessionTimedOut() {
+    }
+
+    /**
+     * Records the duration of a session extension as measured by the browser,
+     * from sending the request until receiving the response. It is reported
+     * along with the following extension.
+     *
+     * @param millis
+     *            the round trip time in milliseconds
+     */
+    default void recordClientExtendLatency(long millis) {
+    }
+
+    /**
+     * Records the duration of a session extension as measured by the server,
+     * from receiving the request until the session has been extended,
+     * including any wait for the session lock
+     *
+     * @param nanos
+     *            the processing time in nanoseconds
+     */
+    default void recordServerExtendLatency(long nanos) {
+    }
+
+    /**
+     * Called when a timed-out session has been invalidated eagerly
+     *
+     * @param earlinessMillis
+     *            the number of milliseconds before the servlet container
+     *            would have expired the session at the earliest
+     * @param uiCount
+     *            the number of UIs closed
+     * @param closedStateNodes
+     *            the number of state nodes of the closed UIs; a count of
+     *            nodes, not of bytes, and the heap they held is only
+     *            reclaimed once nothing else refers to them
+     * @see IdleNotification#setInvalidateSessionOnTimeout(boolean)
+     */
+    default void sessionInvalidated(long earlinessMillis, int uiCount, long closedStateNodes) {
+    }
+
+    /**
+     * Called when the timeouts of all sessions have been scaled because of
+     * heap pressure, or restored
+     *
+     * @param timeoutScale
+     *            the factor applied to the timeouts, 1 once restored
+     * @param heapUsage
+     *            the usage of the heap after garbage collection, between 0
+     *            and 1
+     * @see HeapPressureTimeoutPolicy
+     */
+    default void timeoutScaleChanged(double timeoutScale, double heapUsage) {
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+
+/**
+ * Registers the server-side parts of {@link IdleNotification} with the
+ * {@link com.vaadin.flow.server.VaadinService}. It is picked up automatically
+ * through {@code META-INF/services}.
+ */
+public class IdleNotificationServiceInitListener implements VaadinServiceInitListener {
+
+    @Override
+    public void serviceInit(ServiceInitEvent event) {
+        SessionIdleTracker tracker = SessionIdleTracker.get(event.getSource());
+        event.addRequestHandler(new SessionTouchRequestHandler(tracker));
+        event.addRequestHandler(new SessionActivityRequestHandler(tracker));
+        event.addRequestHandler(new IdleHeartbeatRequestHandler());
+    }
+}
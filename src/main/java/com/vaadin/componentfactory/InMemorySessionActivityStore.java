@@ -0,0 +1,58 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The default {@link SessionActivityStore}, which keeps the sessions of the
+ * local node in memory. It suits single-node deployments and deployments with
+ * sticky sessions.
+ */
+public class InMemorySessionActivityStore implements SessionActivityStore {
+
+    private final ConcurrentMap<String, Long> expiresAt = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordActivity(String sessionId, long expiresAtMillis) {
+        expiresAt.merge(sessionId, expiresAtMillis, Math::max);
+    }
+
+    @Override
+    public void setDeadline(String sessionId, long expiresAtMillis) {
+        expiresAt.put(sessionId, expiresAtMillis);
+    }
+
+    @Override
+    public long getExpiresAt(String sessionId) {
+        Long value = expiresAt.get(sessionId);
+        return value == null ? -1 : value;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        expiresAt.remove(sessionId);
+    }
+
+    /**
+     * Gets the number of sessions in the store
+     */
+    public int size() {
+        return expiresAt.size();
+    }
+}
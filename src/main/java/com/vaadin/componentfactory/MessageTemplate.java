@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+
+/**
+ * Compiles a notification message into a list of literal strings and
+ * placeholder codes, so that the client can render each count-down tick by
+ * filling in the numbers only.
+ * <p>
+ * The placeholder codes are the indexes of {@link #PLACEHOLDERS} and have to
+ * be kept in sync with the {@code MESSAGE_PLACEHOLDER_*} constants of
+ * {@code idle-notification-message.js}. Anything else, including unknown
+ * {@code ${...}} expressions, is rendered literally.
+ */
+final class MessageTemplate {
+
+    static final String[] PLACEHOLDERS = { "${SECS_TO_TIMEOUT}", "${SECS_MAX_IDLE_TIMEOUT}", "${MINUTES_TO_TIMEOUT}",
+            "${SECS_OVER_MINUTES_TO_TIMEOUT}" };
+
+    private MessageTemplate() {
+    }
+
+    /**
+     * Compiles the given message
+     *
+     * @param message
+     *            the message, which may contain {@link IdleNotification.MessageFormatting}
+     *            placeholders
+     * @return the segments of the message
+     */
+    static JsonArray compile(String message) {
+        JsonArray segments = Json.createArray();
+        int literalStart = 0;
+        int index = message.indexOf("${");
+        while (index >= 0) {
+            int placeholder = placeholderAt(message, index);
+            if (placeholder < 0) {
+                index = message.indexOf("${", index + 2);
+                continue;
+            }
+            if (index > literalStart) {
+                segments.set(segments.length(), message.substring(literalStart, index));
+            }
+            segments.set(segments.length(), placeholder);
+            literalStart = index + PLACEHOLDERS[placeholder].length();
+            index = message.indexOf("${", literalStart);
+        }
+        if (literalStart < message.length()) {
+            segments.set(segments.length(), message.substring(literalStart));
+        }
+        return segments;
+    }
+
+    private static int placeholderAt(String message, int index) {
+        for (int i = 0; i < PLACEHOLDERS.length; i++) {
+            if (message.startsWith(PLACEHOLDERS[i], index)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link IdleNotificationMetrics} that records into a Micrometer
+ * {@link MeterRegistry}:
+ * <ul>
+ * <li>{@code idle.notification.events}, a counter tagged with
+ * {@code event=opened|closed|extended|redirected|timed-out|invalidated}</li>
+ * <li>{@code idle.notification.extend.latency}, a timer tagged with
+ * {@code side=client|server}</li>
+ * <li>{@code idle.notification.invalidation.earliness}, a timer of how much
+ * earlier than the servlet container sessions have been invalidated</li>
+ * <li>{@code idle.notification.invalidation.closed.state.nodes}, a
+ * distribution of the number of state nodes of the UIs closed per invalidated
+ * session</li>
+ * <li>{@code idle.notification.timeout.scale}, a gauge of the factor applied
+ * to the session timeouts under heap pressure</li>
+ * </ul>
+ * All meters are registered up front, so recording doesn't allocate.
+ * <p>
+ * NOTE: Micrometer is an optional dependency of this add-on; add
+ * {@code io.micrometer:micrometer-core} to the application to use this class.
+ *
+ * <pre>
+ * IdleNotificationMetrics.install(service, new MicrometerIdleNotificationMetrics(registry));
+ * </pre>
+ */
+public class MicrometerIdleNotificationMetrics implements IdleNotificationMetrics {
+
+    public static final String EVENTS = "idle.notification.events";
+    public static final String EXTEND_LATENCY = "idle.notification.extend.latency";
+    public static final String INVALIDATION_EARLINESS = "idle.notification.invalidation.earliness";
+    public static final String INVALIDATION_CLOSED_STATE_NODES = "idle.notification.invalidation.closed.state.nodes";
+    public static final String TIMEOUT_SCALE = "idle.notification.timeout.scale";
+
+    private final Counter opened;
+    private final Counter closed;
+    private final Counter extended;
+    private final Counter redirected;
+    private final Counter timedOut;
+    private final Timer clientExtendLatency;
+    private final Timer serverExtendLatency;
+    private final Counter invalidated;
+    private final Timer invalidationEarliness;
+    private final DistributionSummary invalidationClosedStateNodes;
+    private volatile double timeoutScale = 1;
+
+    public MicrometerIdleNotificationMetrics(MeterRegistry registry) {
+        Objects.requireNonNull(registry, "registry should not be null");
+        opened = counter(registry, "opened");
+        closed = counter(registry, "closed");
+        extended = counter(registry, "extended");
+        redirected = counter(registry, "redirected");
+        timedOut = counter(registry, "timed-out");
+        clientExtendLatency = timer(registry, "client");
+        serverExtendLatency = timer(registry, "server");
+        invalidated = counter(registry, "invalidated");
+        invalidationEarliness = Timer.builder(INVALIDATION_EARLINESS)
+                .description("Time by which sessions have been invalidated before the container would have")
+                .register(registry);
+        invalidationClosedStateNodes = DistributionSummary.builder(INVALIDATION_CLOSED_STATE_NODES)
+                .description("State nodes of the UIs closed per invalidated session").baseUnit("nodes")
+                .register(registry);
+        Gauge.builder(TIMEOUT_SCALE, this, metrics -> metrics.timeoutScale)
+                .description("Factor applied to the session timeouts under heap pressure").register(registry);
+    }
+
+    private static Counter counter(MeterRegistry registry, String event) {
+        return Counter.builder(EVENTS).description("Idle notification lifecycle events").tag("event", event)
+                .register(registry);
+    }
+
+    private static Timer timer(MeterRegistry registry, String side) {
+        return Timer.builder(EXTEND_LATENCY).description("Duration of session extensions").tag("side", side)
+                .publishPercentileHistogram().register(registry);
+    }
+
+    @Override
+    public void notificationOpened() {
+        opened.increment();
+    }
+
+    @Override
+    public void notificationClosed() {
+        closed.increment();
+    }
+
+    @Override
+    public void sessionExtended() {
+        extended.increment();
+    }
+
+    @Override
+    public void redirected() {
+        redirected.increment();
+    }
+
+    @Override
+    public void sessionTimedOut() {
+        timedOut.increment();
+    }
+
+    @Override
+    public void recordClientExtendLatency(long millis) {
+        clientExtendLatency.record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void recordServerExtendLatency(long nanos) {
+        serverExtendLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void sessionInvalidated(long earlinessMillis, int uiCount, long closedStateNodes) {
+        invalidated.increment();
+        invalidationEarliness.record(earlinessMillis, TimeUnit.MILLISECONDS);
+        invalidationClosedStateNodes.record(closedStateNodes);
+    }
+
+    @Override
+    public void timeoutScaleChanged(double timeoutScale, double heapUsage) {
+        this.timeoutScale = timeoutScale;
+    }
+}
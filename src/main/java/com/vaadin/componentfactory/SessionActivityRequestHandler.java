@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+/**
+ * Records the UIDL requests of a session as activity in the
+ * {@link SessionIdleTracker}, the same requests the client resets its timer
+ * on. It never handles a request itself. Session-touch requests are recorded
+ * by {@link SessionTouchRequestHandler}.
+ * <p>
+ * With long-polling push, the client sends its messages as {@code POST}
+ * requests to the push endpoint, which are recorded too. The {@code GET}
+ * requests waiting for server pushes aren't. Messages sent over a WebSocket
+ * don't pass the request handlers, so the client reports them with a
+ * session-touch request.
+ * <p>
+ * Requests that the {@link ActivityRule}s of the client have classified as
+ * no activity carry the {@value ActivityRule#NO_ACTIVITY_HEADER} header, and
+ * aren't recorded.
+ */
+class SessionActivityRequestHandler implements RequestHandler {
+
+    private static final String REQUEST_TYPE_PUSH = "push";
+
+    /**
+     * Name of the request attribute holding the {@link System#nanoTime()} at
+     * which a UIDL request has been received
+     */
+    private static final String REQUEST_START_NANOS_ATTRIBUTE = SessionActivityRequestHandler.class.getName()
+            + ".requestStartNanos";
+
+    private final SessionIdleTracker tracker;
+
+    SessionActivityRequestHandler(SessionIdleTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) {
+        String requestType = request.getParameter(ApplicationConstants.REQUEST_TYPE_PARAMETER);
+        boolean uidl = ApplicationConstants.REQUEST_TYPE_UIDL.equals(requestType);
+        // boxing the start time allocates, so it's only recorded for installed metrics
+        if (uidl && tracker.getMetrics() != IdleNotificationMetrics.NOOP) {
+            request.setAttribute(REQUEST_START_NANOS_ATTRIBUTE, System.nanoTime());
+        }
+        if ((uidl || REQUEST_TYPE_PUSH.equals(requestType) && "POST".equals(request.getMethod()))
+                && request.getHeader(ActivityRule.NO_ACTIVITY_HEADER) == null) {
+            tracker.touch(request.getWrappedSession(false));
+        }
+        return false;
+    }
+
+    /**
+     * Records the time since the current UIDL request has been received,
+     * including any wait for the session lock, as the server-side latency of
+     * a session extension. Nothing is recorded for server calls that haven't
+     * arrived with a UIDL request, such as those sent over a WebSocket, nor
+     * for requests received before the metrics were installed.
+     */
+    static void recordServerExtendLatency(IdleNotificationMetrics metrics) {
+        VaadinRequest request = VaadinRequest.getCurrent();
+        Object startNanos = request == null ? null : request.getAttribute(REQUEST_START_NANOS_ATTRIBUTE);
+        if (startNanos instanceof Long) {
+            metrics.recordServerExtendLatency(System.nanoTime() - (Long) startNanos);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import com.vaadin.flow.server.VaadinService;
+
+/**
+ * Keeps the time at which each session times-out, by session id, outside of
+ * the session itself. The {@link SessionIdleTracker} writes to it on every
+ * recorded activity, and reads from it for sessions it doesn't track itself,
+ * e.g. sessions that have been created on another node of a cluster. So, with
+ * a shared store, any node can answer how many seconds a session has left
+ * without deserializing the session, and recording activity doesn't mark the
+ * session dirty for replication.
+ * <p>
+ * There is one instance per {@link VaadinService}. It is either installed
+ * through {@link #install(VaadinService, SessionActivityStore)}, or discovered
+ * through {@link ServiceLoader} by listing the implementation class in
+ * {@code META-INF/services/com.vaadin.componentfactory.SessionActivityStore}.
+ * Without either, an {@link InMemorySessionActivityStore} is used.
+ * <p>
+ * Activity only ever moves a deadline later, while
+ * {@link #setDeadline(String, long)} replaces it, e.g. when the timeout of the
+ * session has been shortened, so that the other nodes don't keep answering
+ * with the longer one.
+ * <p>
+ * Implementations have to be thread-safe, and
+ * {@link #recordActivity(String, long)} is called on every UIDL request of a
+ * tracked session, so it should return quickly. Wrap remote stores in a
+ * {@link BatchingSessionActivityStore}, so that the request threads don't wait
+ * for them and repeated activity of a session results in one write per flush.
+ */
+public interface SessionActivityStore {
+
+    /**
+     * Installs the given store for the given service, replacing the previous
+     * one
+     *
+     * @param service
+     *            the Vaadin service
+     * @param store
+     *            the store
+     */
+    static void install(VaadinService service, SessionActivityStore store) {
+        SessionIdleTracker.get(service).setActivityStore(store);
+    }
+
+    /**
+     * Gets the first implementation listed in
+     * {@code META-INF/services/com.vaadin.componentfactory.SessionActivityStore},
+     * or a new {@link InMemorySessionActivityStore}
+     */
+    static SessionActivityStore load() {
+        Iterator<SessionActivityStore> iterator = ServiceLoader.load(SessionActivityStore.class).iterator();
+        return iterator.hasNext() ? iterator.next() : new InMemorySessionActivityStore();
+    }
+
+    /**
+     * Records that the given session times-out at the given time, unless a
+     * later time has been recorded already
+     *
+     * @param sessionId
+     *            the id of the HttpSession
+     * @param expiresAtMillis
+     *            the {@link System#currentTimeMillis()} at which the session
+     *            times-out
+     */
+    void recordActivity(String sessionId, long expiresAtMillis);
+
+    /**
+     * Records the activity of several sessions at once, as in
+     * {@link #recordActivity(String, long)}. Remote stores should override it
+     * to write all of them in a single round trip.
+     *
+     * @param expiresAtMillis
+     *            the time at which each session times-out, by session id
+     */
+    default void recordActivities(Map<String, Long> expiresAtMillis) {
+        expiresAtMillis.forEach(this::recordActivity);
+    }
+
+    /**
+     * Records that the given session times-out at the given time, even if a
+     * later time has been recorded already. The default implementation
+     * removes the session and records it again, which stores that override it
+     * should replace in a single write.
+     *
+     * @param sessionId
+     *            the id of the HttpSession
+     * @param expiresAtMillis
+     *            the {@link System#currentTimeMillis()} at which the session
+     *            times-out
+     */
+    default void setDeadline(String sessionId, long expiresAtMillis) {
+        remove(sessionId);
+        recordActivity(sessionId, expiresAtMillis);
+    }
+
+    /**
+     * Sets the deadlines of several sessions at once, as in
+     * {@link #setDeadline(String, long)}. Remote stores should override it to
+     * write all of them in a single round trip.
+     *
+     * @param expiresAtMillis
+     *            the time at which each session times-out, by session id
+     */
+    default void setDeadlines(Map<String, Long> expiresAtMillis) {
+        expiresAtMillis.forEach(this::setDeadline);
+    }
+
+    /**
+     * Gets the {@link System#currentTimeMillis()} at which the given session
+     * times-out, or -1 if the store doesn't know the session
+     */
+    long getExpiresAt(String sessionId);
+
+    /**
+     * Gets the number of seconds remaining until the given session times-out,
+     * or -1 if the store doesn't know the session
+     */
+    default int getSecondsRemaining(String sessionId) {
+        long expiresAt = getExpiresAt(sessionId);
+        if (expiresAt < 0) {
+            return -1;
+        }
+        return (int) Math.max(0, (expiresAt - System.currentTimeMillis()) / 1000);
+    }
+
+    /**
+     * Forgets the given session, which has been destroyed
+     */
+    void remove(String sessionId);
+
+    /**
+     * Forgets several sessions at once, as in {@link #remove(String)}. Remote
+     * stores should override it to remove all of them in a single round trip.
+     *
+     * @param sessionIds
+     *            the ids of the destroyed sessions
+     */
+    default void removeAll(Collection<String> sessionIds) {
+        sessionIds.forEach(this::remove);
+    }
+
+    /**
+     * Writes the activity recorded so far, if it is buffered
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flushes and releases the resources of the store, when its service is
+     * destroyed
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,999 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.shared.Registration;
+
+/**
+ * Tracks the last activity and the idle deadlines of all sessions in which an
+ * {@link IdleNotification} is attached, and fires server-side warning and
+ * timeout callbacks for them, as well as the
+ * {@link IdleNotification.TimeoutEvent}s of the attached notifications. Unlike
+ * the client-side events, these callbacks also fire for sessions whose browser
+ * tabs have been closed, and they don't cost any request.
+ * <p>
+ * There is one tracker per {@link VaadinService}, obtained through
+ * {@link #get(VaadinService)}. {@link IdleNotification} instances register
+ * with it automatically when attached. The state of each session lives in a
+ * slot of a set of primitive arrays, and the next deadline of each session
+ * is kept in a {@link TimingWheel}, so the memory per session is constant.
+ * Recording activity, which happens on every request, is a single atomic
+ * write that doesn't take the lock of the tracker; the wheel catches up with
+ * the moved deadline once the previous one comes due. A single thread ticks
+ * the wheel and hands the callbacks to a small bounded executor; no thread or
+ * timer is created per session.
+ * <p>
+ * The deadlines are also written to the {@link SessionActivityStore} of the
+ * service, which answers for the sessions tracked by other nodes.
+ */
+public class SessionIdleTracker {
+
+    /**
+     * Receives the server-side idle callbacks of a session. Callbacks are
+     * invoked from a callback thread without holding the session lock, so
+     * use {@link VaadinSession#access(com.vaadin.flow.server.Command)} to
+     * touch the session or its UIs.
+     */
+    @FunctionalInterface
+    public interface SessionIdleListener {
+        void onSessionIdle(VaadinSession session);
+    }
+
+    /**
+     * Receives all sessions that have timed-out at once, e.g. to release
+     * their resources in a single batch. Invoked from a callback thread
+     * without holding any session lock.
+     */
+    @FunctionalInterface
+    public interface BulkTimeoutListener {
+        void onSessionsTimedOut(List<VaadinSession> sessions);
+    }
+
+    /**
+     * A session that has timed-out, and what to do about it
+     */
+    private static final class Timeout {
+
+        private final VaadinSession session;
+        private final List<IdleNotification> components;
+        private final boolean invalidate;
+
+        private Timeout(VaadinSession session, List<IdleNotification> components, boolean invalidate) {
+            this.session = session;
+            this.components = components;
+            this.invalidate = invalidate;
+        }
+
+        /**
+         * Fires the timeout events of the components, while holding the
+         * session lock
+         */
+        private void fireTimeoutEvents() {
+            components.forEach(IdleNotification::fireTimeoutEvent);
+        }
+    }
+
+    /**
+     * The state of a chunk of slots that {@link #touch(WrappedSession)} reads
+     * and writes without holding the lock of the tracker. Unlike the arrays
+     * of the other state, chunks aren't copied when the slots grow, so that no
+     * write is lost.
+     */
+    private static final class SlotChunk {
+
+        private final AtomicLongArray lastActivity = new AtomicLongArray(CHUNK_SIZE);
+        private final AtomicIntegerArray maxInactiveInterval = new AtomicIntegerArray(CHUNK_SIZE);
+        private final AtomicReferenceArray<String> sessionIds = new AtomicReferenceArray<>(CHUNK_SIZE);
+    }
+
+    /**
+     * Name of the HttpSession attribute holding the slot of the session
+     */
+    static final String SLOT_ATTRIBUTE = SessionIdleTracker.class.getName() + ".slot";
+
+    /**
+     * Name of the HttpSession attribute holding its maxInactiveInterval
+     * before it was shortened by a {@link HeapPressureTimeoutPolicy}
+     */
+    static final String UNSCALED_MAX_INACTIVE_INTERVAL_ATTRIBUTE = SessionIdleTracker.class.getName()
+            + ".unscaledMaxInactiveInterval";
+
+    private static final long TICK_MILLIS = 500;
+    // one revolution of the wheel spans 68 minutes
+    private static final int WHEEL_SIZE = 8192;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int INITIAL_CAPACITY = CHUNK_SIZE;
+    private static final int CALLBACK_THREADS = 2;
+    private static final int CALLBACK_QUEUE_SIZE = 10_000;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_ACTIVE = 1;
+    private static final byte STATE_WARNED = 2;
+    private static final byte STATE_TIMED_OUT = 3;
+
+    // set in the last activity of a timed-out slot, so that touch() notices it without the lock
+    private static final long TIMED_OUT_MARK = Long.MIN_VALUE;
+
+    // per-slot session state: the last activity, maxInactiveInterval and session id in chunks
+    private volatile SlotChunk[] chunks = { new SlotChunk() };
+    private int[] secondsBeforeNotification = new int[INITIAL_CAPACITY];
+    // the maxInactiveInterval of the HttpSession before any scaling
+    private int[] sessionMaxInactiveInterval = new int[INITIAL_CAPACITY];
+    private byte[] state = new byte[INITIAL_CAPACITY];
+    private VaadinSession[] sessions = new VaadinSession[INITIAL_CAPACITY];
+    private Object[] components = new Object[INITIAL_CAPACITY];
+    // the slots by session, which don't depend on the HttpSession still being readable
+    private final Map<VaadinSession, Integer> slotsBySession = new IdentityHashMap<>();
+
+    // stack of free slots below highWaterMark
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeSlotCount = 0;
+    private int highWaterMark = 0;
+    private int size = 0;
+
+    private final List<SessionIdleListener> warningListeners = new CopyOnWriteArrayList<>();
+    private final List<SessionIdleListener> timeoutListeners = new CopyOnWriteArrayList<>();
+    private final List<BulkTimeoutListener> bulkTimeoutListeners = new CopyOnWriteArrayList<>();
+
+    private volatile IdleNotificationMetrics metrics = IdleNotificationMetrics.load();
+    private volatile SessionActivityStore activityStore = SessionActivityStore.load();
+    private volatile double timeoutScale = 1;
+    private volatile int minimumMaxInactiveInterval;
+
+    private final LongSupplier clock;
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService callbackExecutor;
+
+    SessionIdleTracker() {
+        // when the queue is full, the ticking thread runs the callbacks itself, which slows down
+        // ticking rather than dropping timeouts
+        this(System::currentTimeMillis,
+                new ThreadPoolExecutor(CALLBACK_THREADS, CALLBACK_THREADS, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(CALLBACK_QUEUE_SIZE), runnable -> {
+                            Thread thread = new Thread(runnable, "idle-notification-callback");
+                            thread.setDaemon(true);
+                            return thread;
+                        }, new ThreadPoolExecutor.CallerRunsPolicy()));
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a tracker that reads the time from the given clock and runs the
+     * callbacks on the given executor. It doesn't tick by itself, see
+     * {@link #advance()}.
+     */
+    SessionIdleTracker(LongSupplier clock, ExecutorService callbackExecutor) {
+        this.clock = clock;
+        this.callbackExecutor = callbackExecutor;
+        wheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, INITIAL_CAPACITY, clock.getAsLong());
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-notification-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the tracker of the given service, creating it on first use
+     *
+     * @param service
+     *            the Vaadin service
+     * @return the tracker of the service
+     */
+    public static SessionIdleTracker get(VaadinService service) {
+        Objects.requireNonNull(service, "service should not be null");
+        return service.getContext().getAttribute(SessionIdleTracker.class, () -> {
+            SessionIdleTracker tracker = new SessionIdleTracker();
+            service.addSessionDestroyListener(event -> tracker.remove(event.getSession()));
+            service.addServiceDestroyListener(event -> tracker.shutdown());
+            return tracker;
+        });
+    }
+
+    /**
+     * Adds a listener that is called once a session reaches the point at
+     * which its notification is displayed
+     */
+    public Registration addWarningListener(SessionIdleListener listener) {
+        Objects.requireNonNull(listener, "listener should not be null");
+        warningListeners.add(listener);
+        return () -> warningListeners.remove(listener);
+    }
+
+    /**
+     * Adds a listener that is called once a session has been idle for its
+     * whole {@code maxInactiveInterval}, whether the tracker has noticed it
+     * first or the servlet container has expired the session first
+     */
+    public Registration addTimeoutListener(SessionIdleListener listener) {
+        Objects.requireNonNull(listener, "listener should not be null");
+        timeoutListeners.add(listener);
+        return () -> timeoutListeners.remove(listener);
+    }
+
+    /**
+     * Adds a listener that is called with all sessions that have timed-out
+     * at the same time, at most once per tracker tick
+     *
+     * @see #addTimeoutListener(SessionIdleListener)
+     */
+    public Registration addBulkTimeoutListener(BulkTimeoutListener listener) {
+        Objects.requireNonNull(listener, "listener should not be null");
+        bulkTimeoutListeners.add(listener);
+        return () -> bulkTimeoutListeners.remove(listener);
+    }
+
+    /**
+     * Gets the metrics of this service
+     */
+    IdleNotificationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @see IdleNotificationMetrics#install(VaadinService, IdleNotificationMetrics)
+     */
+    void setMetrics(IdleNotificationMetrics metrics) {
+        Objects.requireNonNull(metrics, "metrics should not be null");
+        IdleNotificationMetrics previous = this.metrics;
+        this.metrics = metrics;
+        if (previous != IdleNotificationMetrics.NOOP || metrics == IdleNotificationMetrics.NOOP) {
+            return;
+        }
+        // the notifications attached so far only report their events to installed metrics
+        List<Runnable> updates = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < highWaterMark; slot++) {
+                if (state[slot] != STATE_FREE && components[slot] != null) {
+                    VaadinSession session = sessions[slot];
+                    List<IdleNotification> slotComponents = getComponents(slot);
+                    updates.add(() -> session.access(
+                            () -> slotComponents.forEach(component -> component.addMetricsListeners(this))));
+                }
+            }
+        }
+        updates.forEach(this::execute);
+    }
+
+    /**
+     * Gets the activity store of this service
+     */
+    SessionActivityStore getActivityStore() {
+        return activityStore;
+    }
+
+    /**
+     * @see SessionActivityStore#install(VaadinService, SessionActivityStore)
+     */
+    void setActivityStore(SessionActivityStore activityStore) {
+        this.activityStore = Objects.requireNonNull(activityStore, "activityStore should not be null");
+    }
+
+    /**
+     * Gets the factor currently applied to the timeouts of all sessions
+     *
+     * @see HeapPressureTimeoutPolicy
+     */
+    public double getTimeoutScale() {
+        return timeoutScale;
+    }
+
+    int getMinimumMaxInactiveInterval() {
+        return minimumMaxInactiveInterval;
+    }
+
+    /**
+     * Scales the timeouts of all tracked sessions and of their notifications,
+     * relative to their configured values. As the timeouts count from the
+     * last activity, only the sessions that have been idle for the scaled
+     * timeout time-out, see {@link HeapPressureTimeoutPolicy}.
+     *
+     * @param scale
+     *            the factor, 1 to restore the configured timeouts
+     * @param minimumMaxInactiveInterval
+     *            the number of seconds below which no timeout is shortened
+     */
+    void setTimeoutScale(double scale, int minimumMaxInactiveInterval) {
+        this.minimumMaxInactiveInterval = minimumMaxInactiveInterval;
+        this.timeoutScale = scale;
+        List<Runnable> updates = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < highWaterMark; slot++) {
+                if (state[slot] == STATE_ACTIVE || state[slot] == STATE_WARNED) {
+                    VaadinSession session = sessions[slot];
+                    updates.add(() -> session.access(() -> applyTimeoutScale(session)));
+                }
+            }
+        }
+        updates.forEach(this::execute);
+    }
+
+    /**
+     * Applies the current timeout scale to the given session, while holding
+     * its lock
+     */
+    private void applyTimeoutScale(VaadinSession session) {
+        WrappedSession wrappedSession = session.getSession();
+        if (wrappedSession == null) {
+            return;
+        }
+        List<IdleNotification> slotComponents;
+        synchronized (this) {
+            int slot = findSlot(session);
+            if (slot < 0) {
+                return;
+            }
+            scaleSessionTimeout(slot, wrappedSession);
+            @SuppressWarnings("unchecked")
+            List<IdleNotification> list = (List<IdleNotification>) components[slot];
+            slotComponents = list == null ? Collections.emptyList() : new ArrayList<>(list);
+        }
+        double scale = timeoutScale;
+        int minimum = minimumMaxInactiveInterval;
+        slotComponents.forEach(component -> component.applyTimeoutScale(this, session, scale, minimum));
+    }
+
+    private void scaleSessionTimeout(int slot, WrappedSession wrappedSession) {
+        int seconds = sessionMaxInactiveInterval[slot];
+        if (seconds > 0) {
+            wrappedSession.setMaxInactiveInterval(
+                    HeapPressureTimeoutPolicy.scaleTimeout(seconds, timeoutScale, minimumMaxInactiveInterval));
+            if (timeoutScale < 1) {
+                wrappedSession.setAttribute(UNSCALED_MAX_INACTIVE_INTERVAL_ATTRIBUTE, seconds);
+            } else if (wrappedSession.getAttribute(UNSCALED_MAX_INACTIVE_INTERVAL_ATTRIBUTE) != null) {
+                wrappedSession.removeAttribute(UNSCALED_MAX_INACTIVE_INTERVAL_ATTRIBUTE);
+            }
+        }
+    }
+
+    /**
+     * Gets the sessions tracked by this node that haven't timed-out
+     */
+    public synchronized List<VaadinSession> getSessions() {
+        List<VaadinSession> result = new ArrayList<>(size);
+        for (int slot = 0; slot < highWaterMark; slot++) {
+            if (state[slot] == STATE_ACTIVE || state[slot] == STATE_WARNED) {
+                result.add(sessions[slot]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the notifications attached in the given session. They may only be
+     * used while holding the session lock.
+     */
+    public synchronized List<IdleNotification> getIdleNotifications(VaadinSession session) {
+        int slot = findSlot(session);
+        return slot < 0 ? Collections.emptyList() : getComponents(slot);
+    }
+
+    /**
+     * Moves the deadline of the given session to the given number of seconds
+     * from now, as if it had last been active accordingly. The warning and
+     * timeout callbacks follow the new deadline, and so does the
+     * {@link SessionActivityStore}, also if the deadline moves earlier.
+     */
+    void setSecondsRemaining(VaadinSession session, int secondsRemaining) {
+        String sessionId;
+        long expiresAt;
+        synchronized (this) {
+            int slot = findSlot(session);
+            if (slot < 0 || state[slot] == STATE_TIMED_OUT) {
+                return;
+            }
+            setLastActivity(slot,
+                    clock.getAsLong() + (secondsRemaining - (long) getMaxInactiveInterval(slot)) * 1000L);
+            if (secondsRemaining > secondsBeforeNotification[slot]) {
+                state[slot] = STATE_ACTIVE;
+            }
+            scheduleNextDeadline(slot);
+            sessionId = getSessionId(slot);
+            expiresAt = getExpiresAt(slot);
+        }
+        activityStore.setDeadline(sessionId, expiresAt);
+    }
+
+    /**
+     * Gets the number of tracked sessions
+     */
+    public synchronized int getSessionCount() {
+        return size;
+    }
+
+    /**
+     * Gets the number of seconds remaining until the given session times-out,
+     * or -1 if the session isn't tracked
+     */
+    public int getSecondsRemaining(VaadinSession session) {
+        return getSecondsRemaining(session.getSession());
+    }
+
+    int getSecondsRemaining(WrappedSession wrappedSession) {
+        int slot = findSlot(wrappedSession);
+        if (slot >= 0) {
+            return getSecondsRemaining(slot);
+        }
+        // the session may be tracked by another node
+        return activityStore.getSecondsRemaining(wrappedSession.getId());
+    }
+
+    /**
+     * Gets the number of seconds remaining until the session with the given id
+     * times-out, as recorded in the {@link SessionActivityStore}, or -1 if the
+     * store doesn't know the session. Unlike
+     * {@link #getSecondsRemaining(VaadinSession)}, it neither needs the
+     * session nor the node the session has been created on.
+     */
+    public int getSecondsRemaining(String sessionId) {
+        return activityStore.getSecondsRemaining(sessionId);
+    }
+
+    /**
+     * Records user activity in the session of the given HttpSession, if it is
+     * tracked. A session that has timed-out but hasn't been invalidated, e.g.
+     * because the servlet container hasn't expired it yet or its timeout is
+     * longer than the one of the notification, is in use again: it becomes
+     * active, and is warned and timed-out again once it is idle.
+     */
+    void touch(WrappedSession wrappedSession) {
+        if (wrappedSession == null) {
+            return;
+        }
+        // called on every request, so only the slot is written, and advance() reschedules its deadlines
+        int slot = findSlot(wrappedSession);
+        if (slot < 0) {
+            recordUntrackedActivity(wrappedSession);
+            return;
+        }
+        long now = clock.getAsLong();
+        SlotChunk chunk = chunks[slot >>> CHUNK_BITS];
+        int index = slot & (CHUNK_SIZE - 1);
+        // a slot freed and reused since it has been found has just been registered, at about the same time
+        if ((chunk.lastActivity.getAndSet(index, now) & TIMED_OUT_MARK) != 0) {
+            reactivate(slot, wrappedSession.getId());
+        }
+        activityStore.recordActivity(wrappedSession.getId(), now + chunk.maxInactiveInterval.get(index) * 1000L);
+    }
+
+    /**
+     * Makes a timed-out slot active again after its activity has been
+     * recorded
+     */
+    private synchronized void reactivate(int slot, String sessionId) {
+        if (state[slot] == STATE_TIMED_OUT && sessionId.equals(getSessionId(slot))) {
+            state[slot] = STATE_ACTIVE;
+            scheduleNextDeadline(slot);
+        }
+    }
+
+    /**
+     * Records the activity of a session with an {@link IdleNotification} that
+     * isn't tracked by this node, e.g. after a fail-over, so that the store
+     * stays up to date for the other nodes
+     */
+    private void recordUntrackedActivity(WrappedSession wrappedSession) {
+        if (wrappedSession.getAttribute(SessionTouchRequestHandler.SESSION_MARKER_ATTRIBUTE) != null) {
+            activityStore.recordActivity(wrappedSession.getId(),
+                    clock.getAsLong() + wrappedSession.getMaxInactiveInterval() * 1000L);
+        }
+    }
+
+    void register(IdleNotification component, VaadinSession session) {
+        WrappedSession wrappedSession = session.getSession();
+        String sessionId;
+        long expiresAt;
+        synchronized (this) {
+            int slot = findSlot(session);
+            if (slot < 0) {
+                slot = allocateSlot();
+                sessions[slot] = session;
+                slotsBySession.put(session, slot);
+                setLastActivity(slot, clock.getAsLong());
+                state[slot] = STATE_ACTIVE;
+                sessionMaxInactiveInterval[slot] = wrappedSession.getMaxInactiveInterval();
+                if (timeoutScale != 1) {
+                    scaleSessionTimeout(slot, wrappedSession);
+                }
+            } else if (state[slot] == STATE_TIMED_OUT) {
+                // e.g. the page has been reloaded in a session that has timed-out without being invalidated
+                setLastActivity(slot, clock.getAsLong());
+                state[slot] = STATE_ACTIVE;
+            }
+            // the session id changes when the session is reinitialized, e.g. on login
+            if (!wrappedSession.getId().equals(getSessionId(slot))) {
+                setSessionId(slot, wrappedSession.getId());
+                wrappedSession.setAttribute(SLOT_ATTRIBUTE, slot);
+            }
+            @SuppressWarnings("unchecked")
+            List<IdleNotification> slotComponents = (List<IdleNotification>) components[slot];
+            if (slotComponents == null) {
+                slotComponents = new ArrayList<>(1);
+                components[slot] = slotComponents;
+            }
+            if (!slotComponents.contains(component)) {
+                slotComponents.add(component);
+            }
+            updateTimeouts(slot);
+            scheduleNextDeadline(slot);
+            sessionId = getSessionId(slot);
+            expiresAt = getExpiresAt(slot);
+        }
+        // the timeout of the component may have been shortened, see applyTimeoutScale
+        activityStore.setDeadline(sessionId, expiresAt);
+    }
+
+    /**
+     * Stops tracking the given component, which is being detached. This
+     * includes the component of a UI that is being closed, since it holds on
+     * to the whole UI: the session is still tracked, and its timeout reaches
+     * the listeners of this tracker, but not the
+     * {@link IdleNotification.TimeoutEvent} listeners of the component.
+     */
+    void unregister(IdleNotification component, VaadinSession session) {
+        String sessionId;
+        long expiresAt;
+        synchronized (this) {
+            int slot = findSlot(session);
+            if (slot < 0 || components[slot] == null) {
+                return;
+            }
+            List<?> slotComponents = (List<?>) components[slot];
+            if (!slotComponents.remove(component) || slotComponents.isEmpty()) {
+                // the timeouts of the last component stay until the session is removed or registers another one
+                return;
+            }
+            long previousExpiresAt = getExpiresAt(slot);
+            updateTimeouts(slot);
+            scheduleNextDeadline(slot);
+            sessionId = getSessionId(slot);
+            expiresAt = getExpiresAt(slot);
+            if (expiresAt == previousExpiresAt) {
+                return;
+            }
+        }
+        activityStore.setDeadline(sessionId, expiresAt);
+    }
+
+    /**
+     * Sets the timeouts of the slot from those of its components, which may
+     * differ, e.g. in tabs that have been opened with different versions of
+     * the application: the session times-out after the shortest
+     * {@code maxInactiveInterval} of them, and is warned as soon as any of
+     * them would be
+     */
+    private void updateTimeouts(int slot) {
+        int timeout = Integer.MAX_VALUE;
+        int untilWarning = Integer.MAX_VALUE;
+        for (Object component : (List<?>) components[slot]) {
+            IdleNotification notification = (IdleNotification) component;
+            int componentTimeout = notification.getEffectiveMaxInactiveInterval();
+            timeout = Math.min(timeout, componentTimeout);
+            untilWarning = Math.min(untilWarning,
+                    componentTimeout - notification.getEffectiveSecondsBeforeNotification());
+        }
+        chunks[slot >>> CHUNK_BITS].maxInactiveInterval.set(slot & (CHUNK_SIZE - 1), timeout);
+        secondsBeforeNotification[slot] = timeout - untilWarning;
+    }
+
+    /**
+     * Stops tracking the given session, which is being destroyed. If the
+     * servlet container has expired it before the tracker has timed it out,
+     * the timeout is fired now.
+     */
+    void remove(VaadinSession session) {
+        List<Timeout> expired = new ArrayList<>(1);
+        String sessionId = removeSlot(session, expired);
+        if (sessionId == null) {
+            return;
+        }
+        activityStore.remove(sessionId);
+        for (Timeout timeout : expired) {
+            // the components whose UIs haven't been closed before the session has been destroyed
+            if (session.hasLock()) {
+                timeout.fireTimeoutEvents();
+            } else {
+                session.access(timeout::fireTimeoutEvents);
+            }
+        }
+        fireTimeouts(expired, false);
+    }
+
+    /**
+     * Frees the slot of the given session and returns its session id, or
+     * {@code null} if it isn't tracked
+     */
+    private synchronized String removeSlot(VaadinSession session, List<Timeout> expired) {
+        int slot = findSlot(session);
+        if (slot < 0) {
+            return null;
+        }
+        // the container expires sessions by its own clock, which may be slightly ahead
+        boolean timedOut = (state[slot] == STATE_ACTIVE || state[slot] == STATE_WARNED)
+                && getExpiresAt(slot) <= clock.getAsLong() + TICK_MILLIS;
+        if (timedOut) {
+            expired.add(new Timeout(session, getComponents(slot), false));
+        }
+        return freeSlot(slot);
+    }
+
+    void shutdown() {
+        ticker.shutdownNow();
+        callbackExecutor.shutdownNow();
+        activityStore.close();
+    }
+
+    /**
+     * Finds the slot of the given session, also while its HttpSession is
+     * being invalidated, since the container unbinds its attributes in no
+     * particular order
+     */
+    private int findSlot(VaadinSession session) {
+        Integer slot = slotsBySession.get(session);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Finds the slot of the given HttpSession, without holding the lock of
+     * the tracker. A slot that is being registered may not be found yet.
+     */
+    private int findSlot(WrappedSession wrappedSession) {
+        Object slotAttribute = wrappedSession.getAttribute(SLOT_ATTRIBUTE);
+        if (!(slotAttribute instanceof Integer)) {
+            return -1;
+        }
+        int slot = (Integer) slotAttribute;
+        // the attribute may have been replicated from another node, or refer to a freed or reused slot
+        SlotChunk[] currentChunks = chunks;
+        if (slot < 0 || slot >>> CHUNK_BITS >= currentChunks.length || !wrappedSession.getId()
+                .equals(currentChunks[slot >>> CHUNK_BITS].sessionIds.get(slot & (CHUNK_SIZE - 1)))) {
+            return -1;
+        }
+        return slot;
+    }
+
+    private int allocateSlot() {
+        size++;
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (highWaterMark == state.length) {
+            grow(state.length * 2);
+        }
+        return highWaterMark++;
+    }
+
+    private String freeSlot(int slot) {
+        String sessionId = getSessionId(slot);
+        wheel.cancel(slot);
+        state[slot] = STATE_FREE;
+        setSessionId(slot, null);
+        slotsBySession.remove(sessions[slot]);
+        sessions[slot] = null;
+        components[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+        size--;
+        return sessionId;
+    }
+
+    private void grow(int capacity) {
+        SlotChunk[] grownChunks = Arrays.copyOf(chunks, capacity >>> CHUNK_BITS);
+        for (int i = chunks.length; i < grownChunks.length; i++) {
+            grownChunks[i] = new SlotChunk();
+        }
+        chunks = grownChunks;
+        secondsBeforeNotification = Arrays.copyOf(secondsBeforeNotification, capacity);
+        sessionMaxInactiveInterval = Arrays.copyOf(sessionMaxInactiveInterval, capacity);
+        state = Arrays.copyOf(state, capacity);
+        sessions = Arrays.copyOf(sessions, capacity);
+        components = Arrays.copyOf(components, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+        wheel.ensureCapacity(capacity);
+    }
+
+    private int getSecondsRemaining(int slot) {
+        long idleMillis = clock.getAsLong() - getLastActivity(slot);
+        return (int) Math.max(0, getMaxInactiveInterval(slot) - idleMillis / 1000);
+    }
+
+    private long getExpiresAt(int slot) {
+        return getLastActivity(slot) + getMaxInactiveInterval(slot) * 1000L;
+    }
+
+    private long getLastActivity(int slot) {
+        return chunks[slot >>> CHUNK_BITS].lastActivity.get(slot & (CHUNK_SIZE - 1)) & ~TIMED_OUT_MARK;
+    }
+
+    /**
+     * Sets the last activity of the slot, which also clears its timed-out mark
+     */
+    private void setLastActivity(int slot, long time) {
+        chunks[slot >>> CHUNK_BITS].lastActivity.set(slot & (CHUNK_SIZE - 1), time);
+    }
+
+    /**
+     * Sets the timed-out mark of the slot, unless its activity has been
+     * recorded since it has been read
+     *
+     * @return whether the mark has been set
+     */
+    private boolean markTimedOut(int slot, long lastActivity) {
+        return chunks[slot >>> CHUNK_BITS].lastActivity.compareAndSet(slot & (CHUNK_SIZE - 1), lastActivity,
+                lastActivity | TIMED_OUT_MARK);
+    }
+
+    private int getMaxInactiveInterval(int slot) {
+        return chunks[slot >>> CHUNK_BITS].maxInactiveInterval.get(slot & (CHUNK_SIZE - 1));
+    }
+
+    private String getSessionId(int slot) {
+        return chunks[slot >>> CHUNK_BITS].sessionIds.get(slot & (CHUNK_SIZE - 1));
+    }
+
+    private void setSessionId(int slot, String sessionId) {
+        chunks[slot >>> CHUNK_BITS].sessionIds.set(slot & (CHUNK_SIZE - 1), sessionId);
+    }
+
+    private void scheduleNextDeadline(int slot) {
+        long timeout = getExpiresAt(slot);
+        switch (state[slot]) {
+        case STATE_ACTIVE:
+            wheel.schedule(slot, timeout - secondsBeforeNotification[slot] * 1000L);
+            break;
+        case STATE_WARNED:
+            wheel.schedule(slot, timeout);
+            break;
+        default:
+            wheel.cancel(slot);
+        }
+    }
+
+    /**
+     * Runs on the ticker thread. An exception escaping it would cancel all
+     * future ticks, so it is logged instead.
+     */
+    private void tick() {
+        try {
+            advance();
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger(SessionIdleTracker.class).warn("Session idle tracker tick failed", e);
+        }
+    }
+
+    /**
+     * Moves the wheel to the current time, and fires the warnings and
+     * timeouts of the sessions whose deadlines have passed. The deadlines of
+     * the sessions that have been active since they have been scheduled are
+     * moved instead, see {@link #touch(WrappedSession)}.
+     */
+    void advance() {
+        List<VaadinSession> warned = new ArrayList<>();
+        List<Timeout> timedOut = new ArrayList<>();
+        List<Runnable> corrections = new ArrayList<>();
+        synchronized (this) {
+            long now = clock.getAsLong();
+            wheel.advance(now, slot -> {
+                long lastActivity = getLastActivity(slot);
+                long expiresAt = getExpiresAt(slot);
+                boolean warningDue = expiresAt - secondsBeforeNotification[slot] * 1000L <= now;
+                if (!warningDue) {
+                    // active since the deadline has been scheduled
+                    state[slot] = STATE_ACTIVE;
+                    scheduleNextDeadline(slot);
+                } else if (state[slot] == STATE_ACTIVE || expiresAt > now) {
+                    // a warned session that is due again has been active after its warning
+                    state[slot] = STATE_WARNED;
+                    warned.add(sessions[slot]);
+                    scheduleNextDeadline(slot);
+                    // the deadline may have been moved, see setSecondsRemaining
+                    addCorrections(slot, getSecondsRemaining(slot), corrections);
+                } else if (markTimedOut(slot, lastActivity)) {
+                    state[slot] = STATE_TIMED_OUT;
+                    timedOut.add(new Timeout(sessions[slot], getComponents(slot), isInvalidateSessionOnTimeout(slot)));
+                    addCorrections(slot, 0, corrections);
+                } else {
+                    // active just now
+                    state[slot] = STATE_ACTIVE;
+                    scheduleNextDeadline(slot);
+                }
+            });
+        }
+        fire(warningListeners, warned);
+        fireTimeouts(timedOut, true);
+        corrections.forEach(this::execute);
+    }
+
+    /**
+     * Pushes the server-side deadline to the clients of the slot, in case their
+     * timers have been throttled
+     */
+    private void addCorrections(int slot, int secondsRemaining, List<Runnable> corrections) {
+        if (components[slot] == null) {
+            return;
+        }
+        VaadinSession session = sessions[slot];
+        for (Object component : (List<?>) components[slot]) {
+            corrections.add(() -> ((IdleNotification) component).pushSecondsRemaining(session, secondsRemaining));
+        }
+    }
+
+    /**
+     * Runs the callback on the callback executor, or on the ticker thread when
+     * the executor is saturated. Either way, a failing callback is logged
+     * without affecting the others.
+     */
+    private void execute(Runnable callback) {
+        try {
+            callbackExecutor.execute(() -> {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    LoggerFactory.getLogger(SessionIdleTracker.class).warn("Session idle tracker callback failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the tracker has been shut down
+        }
+    }
+
+    private void fire(List<SessionIdleListener> listeners, List<VaadinSession> idleSessions) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        for (VaadinSession session : idleSessions) {
+            execute(() -> notifyListeners(listeners, session));
+        }
+    }
+
+    private static void notifyListeners(List<SessionIdleListener> listeners, VaadinSession session) {
+        for (SessionIdleListener listener : listeners) {
+            try {
+                listener.onSessionIdle(session);
+            } catch (RuntimeException e) {
+                LoggerFactory.getLogger(SessionIdleTracker.class).error("Session idle listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Calls the bulk timeout listeners once, and then for each session the
+     * timeout listeners, the timeout events of its components if requested,
+     * and the invalidation if requested
+     */
+    private void fireTimeouts(List<Timeout> timeouts, boolean fireTimeoutEvents) {
+        if (timeouts.isEmpty()) {
+            return;
+        }
+        if (!bulkTimeoutListeners.isEmpty()) {
+            List<VaadinSession> timedOutSessions = new ArrayList<>(timeouts.size());
+            timeouts.forEach(timeout -> timedOutSessions.add(timeout.session));
+            execute(() -> {
+                for (BulkTimeoutListener listener : bulkTimeoutListeners) {
+                    try {
+                        listener.onSessionsTimedOut(Collections.unmodifiableList(timedOutSessions));
+                    } catch (RuntimeException e) {
+                        LoggerFactory.getLogger(SessionIdleTracker.class).error("Bulk timeout listener failed", e);
+                    }
+                }
+            });
+        }
+        // one callback per session, so that a failing session doesn't affect the others
+        for (Timeout timeout : timeouts) {
+            execute(() -> {
+                try {
+                    metrics.sessionTimedOut();
+                    notifyListeners(timeoutListeners, timeout.session);
+                    if (fireTimeoutEvents && !timeout.components.isEmpty()) {
+                        timeout.session.access(timeout::fireTimeoutEvents);
+                    }
+                } finally {
+                    if (timeout.invalidate) {
+                        invalidate(timeout.session);
+                    }
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<IdleNotification> getComponents(int slot) {
+        return components[slot] == null ? Collections.emptyList()
+                : new ArrayList<>((List<IdleNotification>) components[slot]);
+    }
+
+    private boolean isInvalidateSessionOnTimeout(int slot) {
+        if (components[slot] != null) {
+            for (Object component : (List<?>) components[slot]) {
+                if (((IdleNotification) component).isInvalidateSessionOnTimeout()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the UIs of the given timed-out session and invalidates its
+     * HttpSession, rather than leaving both in the heap until the servlet
+     * container expires the session. Destroying the session detaches the
+     * components and removes it from this tracker.
+     */
+    private void invalidate(VaadinSession session) {
+        session.access(() -> {
+            WrappedSession wrappedSession = session.getSession();
+            if (wrappedSession == null) {
+                return;
+            }
+            long earlinessMillis;
+            try {
+                int maxInactive = wrappedSession.getMaxInactiveInterval();
+                earlinessMillis = maxInactive <= 0 ? 0
+                        : Math.max(0, wrappedSession.getLastAccessedTime() + maxInactive * 1000L
+                                - clock.getAsLong());
+            } catch (IllegalStateException e) {
+                // the session has been invalidated in the meantime
+                return;
+            }
+            List<UI> uis = new ArrayList<>(session.getUIs());
+            long closedStateNodes = 0;
+            for (UI ui : uis) {
+                closedStateNodes += countStateNodes(ui);
+                ui.close();
+            }
+            try {
+                wrappedSession.invalidate();
+            } catch (IllegalStateException e) {
+                return;
+            }
+            metrics.sessionInvalidated(earlinessMillis, uis.size(), closedStateNodes);
+        });
+    }
+
+    private static long countStateNodes(UI ui) {
+        long[] count = new long[1];
+        ui.getInternals().getStateTree().getRootNode().visitNodeTree(node -> count[0]++);
+        return count[0];
+    }
+}
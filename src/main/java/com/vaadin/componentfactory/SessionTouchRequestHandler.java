@@ -0,0 +1,173 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+/**
+ * Handles the lightweight session-touch requests ({@code ?v-r=idle-notification-touch})
+ * of the {@link IdleNotification} client.
+ * <p>
+ * Receiving the request is enough for the servlet container to refresh the
+ * last-access time of the HttpSession, so the handler doesn't access any UI
+ * and doesn't run the UIDL pipeline. It does, however, only run once
+ * {@link com.vaadin.flow.server.VaadinService} has looked up the
+ * {@link VaadinSession}, which briefly takes the session lock. A touch is
+ * therefore still delayed while another request holds that lock, e.g. a
+ * long-running server call. It records the activity in the
+ * {@link SessionIdleTracker} and answers with the authoritative number of
+ * seconds remaining until the session times-out, as plain text.
+ * <p>
+ * The same request sent with {@code navigator.sendBeacon} when the page is
+ * hidden or unloaded carries the {@value #BEACON_PARAMETER} parameter. Nobody
+ * reads its response, so it is answered with {@code 204 No Content}.
+ * <p>
+ * The client also touches the session on behalf of the messages it sends
+ * over a WebSocket push connection, which bypass the request handlers. These
+ * carry the {@value #ACTIVITY_PARAMETER} parameter, and aren't counted as
+ * session extensions.
+ * <p>
+ * Since a touch extends the session, another site could otherwise keep the
+ * session of a user alive by sending touches along with their cookies. Every
+ * request therefore carries the {@value #CSRF_TOKEN_PARAMETER} parameter,
+ * holding a token that is created with the session and sent to the
+ * notifications, and is answered with {@code 403 Forbidden} without it. The
+ * token belongs to the session rather than to a UI, since looking up the UI
+ * would take the session lock.
+ * <p>
+ * The handler is registered automatically by
+ * {@link IdleNotificationServiceInitListener}.
+ */
+public class SessionTouchRequestHandler implements RequestHandler {
+
+    public static final String REQUEST_TYPE = "idle-notification-touch";
+
+    /**
+     * Name of the optional request parameter holding the round trip time of
+     * the previous extension as measured by the browser, in milliseconds
+     */
+    static final String LATENCY_PARAMETER = "latency";
+
+    /**
+     * Name of the request parameter that marks fire-and-forget requests
+     */
+    static final String BEACON_PARAMETER = "beacon";
+
+    /**
+     * Name of the request parameter that marks requests reporting activity
+     * rather than extending the session on the user's request
+     */
+    static final String ACTIVITY_PARAMETER = "activity";
+
+    /**
+     * Name of the request parameter holding the token of the session
+     */
+    static final String CSRF_TOKEN_PARAMETER = "csrfToken";
+
+    /**
+     * Name of the HttpSession attribute that marks sessions in which an
+     * {@link IdleNotification} has been attached, holding the token the
+     * requests must carry. A touch request for a session without it refers to
+     * a session that has already expired (the container has just created a
+     * new one), so it is answered with {@code 410 Gone}.
+     */
+    static final String SESSION_MARKER_ATTRIBUTE = SessionTouchRequestHandler.class.getName() + ".marker";
+
+    private final SessionIdleTracker tracker;
+
+    public SessionTouchRequestHandler(SessionIdleTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        if (!REQUEST_TYPE.equals(request.getParameter(ApplicationConstants.REQUEST_TYPE_PARAMETER))) {
+            return false;
+        }
+        WrappedSession wrappedSession = request.getWrappedSession(false);
+        response.setHeader("Cache-Control", "no-cache, no-store");
+        Object token = wrappedSession == null ? null : wrappedSession.getAttribute(SESSION_MARKER_ATTRIBUTE);
+        if (token == null) {
+            response.setStatus(HttpServletResponse.SC_GONE);
+            return true;
+        }
+        if (!token.equals(request.getParameter(CSRF_TOKEN_PARAMETER))) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return true;
+        }
+        tracker.touch(wrappedSession);
+        int secondsRemaining = tracker.getSecondsRemaining(wrappedSession);
+        if (request.getParameter(ACTIVITY_PARAMETER) == null) {
+            IdleNotificationMetrics metrics = tracker.getMetrics();
+            metrics.sessionExtended();
+            metrics.recordServerExtendLatency(System.nanoTime() - startNanos);
+            recordClientLatency(metrics, request.getParameter(LATENCY_PARAMETER));
+        }
+        if (request.getParameter(BEACON_PARAMETER) != null) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return true;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        writer.print(secondsRemaining < 0 ? wrappedSession.getMaxInactiveInterval() : secondsRemaining);
+        writer.flush();
+        return true;
+    }
+
+    /**
+     * Gets the token of the given HttpSession, creating it when the first
+     * {@link IdleNotification} of the session is attached. The HttpSession is
+     * only written then, so that attaching doesn't mark it for replication
+     * each time.
+     */
+    static String getToken(WrappedSession wrappedSession) {
+        Object token = wrappedSession.getAttribute(SESSION_MARKER_ATTRIBUTE);
+        if (!(token instanceof String)) {
+            token = UUID.randomUUID().toString();
+            wrappedSession.setAttribute(SESSION_MARKER_ATTRIBUTE, token);
+        }
+        return (String) token;
+    }
+
+    private static void recordClientLatency(IdleNotificationMetrics metrics, String latency) {
+        if (latency == null || latency.isEmpty()) {
+            return;
+        }
+        try {
+            long millis = Long.parseLong(latency);
+            if (millis > 0) {
+                metrics.recordClientExtendLatency(millis);
+            }
+        } catch (NumberFormatException e) {
+            // ignore malformed values, they are only used for metrics
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.componentfactory;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A hashed timing wheel that schedules at most one deadline per integer id.
+ * <p>
+ * Each id is linked into the bucket of its deadline tick through the
+ * {@code next}/{@code prev} arrays, so scheduling, cancelling and
+ * rescheduling are O(1) and allocate nothing. Advancing the wheel visits one
+ * bucket per elapsed tick; deadlines further away than one revolution simply
+ * stay in their bucket until their tick comes.
+ * <p>
+ * The wheel is not thread-safe; callers have to synchronize access.
+ */
+final class TimingWheel {
+
+    private static final int NONE = -1;
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final int mask;
+    private final int[] buckets;
+
+    private int[] next;
+    private int[] prev;
+    private long[] deadlineTick;
+
+    private long processedTick;
+
+    /**
+     * @param tickMillis
+     *            the resolution of the wheel
+     * @param wheelSize
+     *            the number of buckets, rounded up to a power of two
+     * @param capacity
+     *            the initial number of ids
+     * @param startMillis
+     *            the time of tick zero
+     */
+    TimingWheel(long tickMillis, int wheelSize, int capacity, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("tickMillis & wheelSize must be both >= 1");
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        int size = Integer.highestOneBit(wheelSize - 1 > 0 ? (wheelSize - 1) << 1 : 1);
+        mask = size - 1;
+        buckets = new int[size];
+        Arrays.fill(buckets, NONE);
+        next = new int[0];
+        prev = new int[0];
+        deadlineTick = new long[0];
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Makes room for ids up to {@code capacity - 1}
+     */
+    void ensureCapacity(int capacity) {
+        int oldCapacity = next.length;
+        if (capacity <= oldCapacity) {
+            return;
+        }
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        deadlineTick = Arrays.copyOf(deadlineTick, capacity);
+        Arrays.fill(deadlineTick, oldCapacity, capacity, NONE);
+    }
+
+    /**
+     * Schedules the given id at the given time, replacing its previous
+     * deadline if any. Deadlines that have already passed expire on the next
+     * tick.
+     */
+    void schedule(int id, long deadlineMillis) {
+        cancel(id);
+        long tick = Math.max(processedTick + 1, (deadlineMillis - startMillis + tickMillis - 1) / tickMillis);
+        int bucket = (int) (tick & mask);
+        int head = buckets[bucket];
+        next[id] = head;
+        prev[id] = NONE;
+        if (head != NONE) {
+            prev[head] = id;
+        }
+        buckets[bucket] = id;
+        deadlineTick[id] = tick;
+    }
+
+    /**
+     * Cancels the deadline of the given id, if any
+     */
+    void cancel(int id) {
+        long tick = deadlineTick[id];
+        if (tick == NONE) {
+            return;
+        }
+        int before = prev[id];
+        int after = next[id];
+        if (before == NONE) {
+            buckets[(int) (tick & mask)] = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+        deadlineTick[id] = NONE;
+    }
+
+    boolean isScheduled(int id) {
+        return id < deadlineTick.length && deadlineTick[id] != NONE;
+    }
+
+    /**
+     * Advances the wheel to the given time and passes the ids whose deadline
+     * has been reached to the given consumer. The consumer may reschedule the
+     * id it is given.
+     */
+    void advance(long nowMillis, IntConsumer expired) {
+        long nowTick = (nowMillis - startMillis) / tickMillis;
+        while (processedTick < nowTick) {
+            processedTick++;
+            int bucket = (int) (processedTick & mask);
+            int id = buckets[bucket];
+            while (id != NONE) {
+                int following = next[id];
+                if (deadlineTick[id] <= processedTick) {
+                    cancel(id);
+                    expired.accept(id);
+                }
+                id = following;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// placeholder codes of precompiled messages, see MessageTemplate.java
+const MESSAGE_PLACEHOLDER_SECS_TO_TIMEOUT = 0;
+const MESSAGE_PLACEHOLDER_SECS_MAX_IDLE_TIMEOUT = 1;
+const MESSAGE_PLACEHOLDER_MINUTES_TO_TIMEOUT = 2;
+const MESSAGE_PLACEHOLDER_SECS_OVER_MINUTES_TO_TIMEOUT = 3;
+
+/**
+ * Renders a message precompiled by the server, by concatenating its literal strings with the
+ * formatted numbers of its placeholders. Called on every count-down tick, so it doesn't parse
+ * anything.
+ *
+ * @param {!Array<string|number>} template the literal strings and MESSAGE_PLACEHOLDER_* codes
+ * @param {number} secondsToTimeout the number of seconds until the session times out
+ * @param {number} maxInactiveInterval the session timeout, in seconds
+ * @return {string} the message
+ */
+export function renderMessage(template, secondsToTimeout, maxInactiveInterval) {
+  let content = '';
+  for (let i = 0; i < template.length; i++) {
+    const part = template[i];
+    content += typeof part === 'string' ? part : formatPlaceholder(part, secondsToTimeout, maxInactiveInterval);
+  }
+  return content;
+}
+
+function formatPlaceholder(placeholder, secondsToTimeout, maxInactiveInterval) {
+  switch (placeholder) {
+    case MESSAGE_PLACEHOLDER_SECS_TO_TIMEOUT:
+      return String(secondsToTimeout);
+    case MESSAGE_PLACEHOLDER_SECS_MAX_IDLE_TIMEOUT:
+      return String(maxInactiveInterval);
+    case MESSAGE_PLACEHOLDER_MINUTES_TO_TIMEOUT:
+      return String(Math.floor(secondsToTimeout / 60)).padStart(2, '0');
+    case MESSAGE_PLACEHOLDER_SECS_OVER_MINUTES_TO_TIMEOUT:
+      return String(secondsToTimeout % 60).padStart(2, '0');
+    default:
+      return '';
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import { setCountedTimeout } from './idle-notification-timers.js';
+
+// see IdleHeartbeatRequestHandler
+const HEARTBEAT_URL_PATTERN = /[?&]v-r=heartbeat(&|$)/;
+const HEARTBEAT_DEFER_PARAMETER = 'idle-notification-defer';
+
+// see SessionActivityRequestHandler.java
+const PUSH_URL_PATTERN = /[?&]v-r=push(&|$)/;
+// see ActivityRule.java
+const NO_ACTIVITY_HEADER = 'X-Idle-Notification-No-Activity';
+const REQUEST_TYPE_PATTERN = /[?&]v-r=([^&#]*)/;
+// the requests of the element itself, see SessionTouchRequestHandler.java and IdleHeartbeatRequestHandler.java
+const OWN_REQUEST_TYPE_PATTERN = /[?&]v-r=idle-notification-/;
+// messages sent over the push connection within this many ms of each other count as one activity
+const PUSH_ACTIVITY_RESOLUTION_MS = 1000;
+
+const NO_INVOCATIONS = Object.freeze([]);
+
+/**
+ * Classifies requests as user activity or not, following the rules of ActivityRule.java. The
+ * rules are compiled once: their regular expressions are created up front, and the server calls
+ * carried by a request are only parsed if a rule has a condition on them. Classifying a request
+ * runs on every request of the page, so it only loops over the rules, without allocating.
+ */
+export class ActivityClassifier {
+  constructor(rules) {
+    this._rules = rules
+      .map((rule) => ({
+        activity: rule.activity,
+        requestType: rule.requestType,
+        url: this._compileUrl(rule.url),
+        rpc:
+          rule.rpcType !== undefined ||
+          rule.node !== undefined ||
+          rule.method !== undefined ||
+          rule.event !== undefined,
+        rpcType: rule.rpcType,
+        node: rule.node,
+        method: rule.method,
+        event: rule.event,
+      }))
+      .filter((rule) => rule.url !== null);
+    this._needsRpc = this._rules.some((rule) => rule.rpc);
+    this._needsRequestType = this._rules.some((rule) => rule.requestType !== undefined);
+    // whether the request conditions of each rule match the request being classified
+    this._requestMatches = this._rules.map(() => false);
+  }
+
+  /**
+   * @param {string} url the URL of the request
+   * @param {*} body the body of the request, a UIDL message optionally prefixed with its length
+   * @return {boolean} whether the request is activity
+   */
+  isActivity(url, body) {
+    const rules = this._rules;
+    const requestMatches = this._requestMatches;
+    const requestType = this._needsRequestType ? this._requestType(url) : undefined;
+    for (let i = 0; i < rules.length; i++) {
+      const rule = rules[i];
+      requestMatches[i] =
+        (rule.requestType === undefined || rule.requestType === requestType) &&
+        (rule.url === undefined || rule.url.test(url));
+    }
+    const invocations = this._needsRpc ? this._parseInvocations(body) : NO_INVOCATIONS;
+    if (invocations.length === 0) {
+      return this._activityOf(null);
+    }
+    for (let i = 0; i < invocations.length; i++) {
+      if (this._activityOf(invocations[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the activity of the first rule that matches the request being classified and the given
+   * server call, or true if none does
+   * @private
+   */
+  _activityOf(invocation) {
+    const rules = this._rules;
+    for (let i = 0; i < rules.length; i++) {
+      const rule = rules[i];
+      if (
+        this._requestMatches[i] &&
+        (!rule.rpc || (invocation !== null && this._matchesInvocation(rule, invocation)))
+      ) {
+        return rule.activity;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compiles the URL pattern of a rule, or returns null if the browser rejects it, so that the rule
+   * is left out rather than failing all the others
+   * @private
+   */
+  _compileUrl(url) {
+    if (url === undefined) {
+      return undefined;
+    }
+    try {
+      return new RegExp(url);
+    } catch (error) {
+      console.warn(`Idle-Notification: Skipping the activity rule with URL pattern ${url}`, error);
+      return null;
+    }
+  }
+
+  /** @private */
+  _requestType(url) {
+    const match = REQUEST_TYPE_PATTERN.exec(url);
+    return match ? decodeURIComponent(match[1]) : undefined;
+  }
+
+  /** @private */
+  _matchesInvocation(rule, invocation) {
+    return (
+      (rule.rpcType === undefined || rule.rpcType === invocation.type) &&
+      (rule.node === undefined || rule.node === invocation.node) &&
+      (rule.method === undefined || rule.method === invocation.templateEventMethodName) &&
+      (rule.event === undefined || rule.event === invocation.event)
+    );
+  }
+
+  /** @private */
+  _parseInvocations(body) {
+    if (typeof body !== 'string') {
+      return NO_INVOCATIONS;
+    }
+    // push messages are prefixed with their length
+    const start = body.charCodeAt(0) === 123 ? 0 : body.indexOf('|') + 1;
+    try {
+      const message = JSON.parse(start > 0 ? body.substring(start) : body);
+      return Array.isArray(message.rpc) ? message.rpc : NO_INVOCATIONS;
+    } catch (e) {
+      return NO_INVOCATIONS;
+    }
+  }
+}
+
+/**
+ * Observes the completion of all XMLHttpRequest and fetch requests of the page
+ * and forwards them to the attached idle-notification elements.
+ *
+ * The messages that the client sends over the Vaadin push connection are
+ * forwarded too: those of a WebSocket as they are sent, those of long-polling
+ * as their POST requests complete. The long-polling requests that wait for
+ * server pushes aren't user activity, so they are ignored. So are the requests
+ * of the elements themselves, such as their session touches. The Vaadin
+ * requests sent with XMLHttpRequest or fetch are classified by the activity
+ * rules before they are sent.
+ *
+ * The prototype and fetch patches are installed once per page, no matter how
+ * many elements are created. Every request gets the same shared load listener,
+ * so its cost doesn't grow with the number of elements ever attached.
+ */
+export const RequestInterceptor = {
+  _subscribers: new Set(),
+  _installed: false,
+  _pendingHeartbeats: [],
+  _heartbeatTimeout: null,
+  _lastPushActivity: -Infinity,
+
+  subscribe(element) {
+    this._install();
+    this._subscribers.add(element);
+  },
+
+  unsubscribe(element) {
+    this._subscribers.delete(element);
+  },
+
+  /**
+   * Sends the heartbeats held back so far, for example once the session has timed out
+   */
+  releaseHeartbeats() {
+    if (this._heartbeatTimeout) {
+      clearTimeout(this._heartbeatTimeout);
+      this._heartbeatTimeout = null;
+    }
+    const pending = this._pendingHeartbeats;
+    this._pendingHeartbeats = [];
+    pending.forEach(({ xhr, args, send }) => this._sendHeartbeat(xhr, args, send));
+  },
+
+  /**
+   * Gets the subscriber throttling the heartbeats, if any
+   * @private
+   */
+  _heartbeatThrottler() {
+    for (const element of this._subscribers) {
+      if (element._heartbeatDeferral() >= 0) {
+        return element;
+      }
+    }
+    return null;
+  },
+
+  /** @private */
+  _sendHeartbeat(xhr, args, send) {
+    this._subscribers.forEach((element) => element._heartbeatSent());
+    send.apply(xhr, args);
+  },
+
+  /** @private */
+  _scheduleHeartbeats() {
+    if (this._heartbeatTimeout) {
+      clearTimeout(this._heartbeatTimeout);
+      this._heartbeatTimeout = null;
+    }
+    if (this._pendingHeartbeats.length === 0) {
+      return;
+    }
+    const throttler = this._heartbeatThrottler();
+    const delay = throttler ? throttler._heartbeatDeferral() : 0;
+    if (delay > 0) {
+      this._heartbeatTimeout = setCountedTimeout(() => this._scheduleHeartbeats(), delay);
+    } else {
+      this.releaseHeartbeats();
+    }
+  },
+
+  /**
+   * Gets the activity classifier of the first subscriber that has one, if any
+   * @private
+   */
+  _classifier() {
+    for (const element of this._subscribers) {
+      if (element._activityClassifier) {
+        return element._activityClassifier;
+      }
+    }
+    return null;
+  },
+
+  /**
+   * Whether a message sent over the push connection now would be handled as a new activity
+   * @private
+   */
+  _pushActivityDue() {
+    return this._subscribers.size > 0 && performance.now() - this._lastPushActivity >= PUSH_ACTIVITY_RESOLUTION_MS;
+  },
+
+  /**
+   * Classifies a request about to be sent: null for the requests of the element itself, which
+   * aren't notified, otherwise whether it is activity. Only Vaadin requests are classified.
+   * @private
+   */
+  _classify(url, body) {
+    if (typeof url !== 'string' || !REQUEST_TYPE_PATTERN.test(url)) {
+      return true;
+    }
+    if (OWN_REQUEST_TYPE_PATTERN.test(url)) {
+      return null;
+    }
+    const classifier = this._classifier();
+    return !classifier || classifier.isActivity(url, body);
+  },
+
+  /**
+   * Forwards a completed request to the subscribers, classified once for all of them: whether it
+   * is a successful Vaadin request, which resets the idle time of the session, and whether it is
+   * activity
+   * @private
+   */
+  _notify(status, url, activity) {
+    // ignore heartbeat requests, so timeout value can be larger than heartbeat interval
+    const vaadinRequest =
+      status === 200 && typeof url === 'string' && REQUEST_TYPE_PATTERN.test(url) && !HEARTBEAT_URL_PATTERN.test(url);
+    this._subscribers.forEach((element) => element._handleLoad(vaadinRequest, activity));
+  },
+
+  /**
+   * Called for every message sent over the push connection, so it only reads the clock
+   * until the previous activity is PUSH_ACTIVITY_RESOLUTION_MS old
+   * @private
+   */
+  _notifyPushActivity(webSocket) {
+    if (!this._pushActivityDue()) {
+      return;
+    }
+    this._lastPushActivity = performance.now();
+    this._subscribers.forEach((element) => element._handlePushActivity(webSocket));
+  },
+
+  /** @private */
+  _install() {
+    if (this._installed) {
+      return;
+    }
+    this._installed = true;
+
+    const interceptor = this;
+    // a single listener instance, which addEventListener never registers twice on the same request
+    const handleXhrLoad = function () {
+      if (this._idleNotificationPush) {
+        if (this._idleNotificationPush === 'POST' && this.status === 200 && this._idleNotificationActivity) {
+          interceptor._notifyPushActivity(false);
+        }
+      } else if (interceptor._subscribers.size > 0 && this._idleNotificationActivity !== null) {
+        interceptor._notify(this.status, this.responseURL, this._idleNotificationActivity);
+      }
+    };
+    const origOpen = XMLHttpRequest.prototype.open;
+    XMLHttpRequest.prototype.open = function (method, url) {
+      this.addEventListener('load', handleXhrLoad);
+      this._idleNotificationHeartbeat = false;
+      this._idleNotificationUrl = url;
+      this._idleNotificationPush =
+        typeof url === 'string' && PUSH_URL_PATTERN.test(url) ? String(method).toUpperCase() : null;
+      if (typeof url === 'string' && HEARTBEAT_URL_PATTERN.test(url)) {
+        const throttler = interceptor._heartbeatThrottler();
+        if (throttler) {
+          // tells the server how long the UI has to be kept alive without heartbeats
+          const args = Array.prototype.slice.call(arguments);
+          args[1] = url + '&' + HEARTBEAT_DEFER_PARAMETER + '=' + throttler.idleHeartbeatInterval;
+          this._idleNotificationHeartbeat = true;
+          return origOpen.apply(this, args);
+        }
+      }
+      return origOpen.apply(this, arguments);
+    };
+    const origSend = XMLHttpRequest.prototype.send;
+    XMLHttpRequest.prototype.send = function (body) {
+      if (!this._idleNotificationHeartbeat) {
+        this._idleNotificationActivity = interceptor._classify(this._idleNotificationUrl, body);
+        // only Vaadin requests are marked, which doesn't need a CORS preflight
+        if (this._idleNotificationActivity === false) {
+          this.setRequestHeader(NO_ACTIVITY_HEADER, 'true');
+        }
+        return origSend.apply(this, arguments);
+      }
+      // the client schedules the next heartbeat once this one completes, so holding it back
+      // holds back all of them
+      interceptor._pendingHeartbeats.push({ xhr: this, args: arguments, send: origSend });
+      interceptor._scheduleHeartbeats();
+    };
+
+    if (typeof window.WebSocket === 'function') {
+      const origWebSocketSend = WebSocket.prototype.send;
+      WebSocket.prototype.send = function (data) {
+        let push = this._idleNotificationPush;
+        if (push === undefined) {
+          push = this._idleNotificationPush = PUSH_URL_PATTERN.test(this.url);
+        }
+        // the messages of the client are JSON, unlike the single character heartbeats of Atmosphere;
+        // within the resolution of the previous activity, they aren't even classified
+        if (
+          push &&
+          typeof data === 'string' &&
+          data.charCodeAt(data.length - 1) === 125 &&
+          interceptor._pushActivityDue()
+        ) {
+          const classifier = interceptor._classifier();
+          if (!classifier || classifier.isActivity(this.url, data)) {
+            interceptor._notifyPushActivity(true);
+          }
+        }
+        return origWebSocketSend.apply(this, arguments);
+      };
+    }
+
+    if (typeof window.fetch === 'function') {
+      const origFetch = window.fetch;
+      window.fetch = function (input, init) {
+        // input is a URL string, a URL or a Request
+        const url = input !== null && typeof input === 'object' && 'url' in input ? input.url : String(input);
+        const activity = interceptor._classify(url, init && init.body);
+        let args = arguments;
+        if (activity === false) {
+          // like the options of a Request, these headers replace those of the input
+          const headers = new Headers((init && init.headers) || (input && input.headers) || {});
+          headers.set(NO_ACTIVITY_HEADER, 'true');
+          args = [input, Object.assign({}, init, { headers })];
+        }
+        return origFetch.apply(this, args).then((response) => {
+          if (interceptor._subscribers.size > 0 && activity !== null) {
+            interceptor._notify(response.status, response.url, activity);
+          }
+          return response;
+        });
+      };
+    }
+  },
+};
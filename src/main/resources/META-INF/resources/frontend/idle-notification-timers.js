@@ -0,0 +1,44 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Counts the timer wakeups of all idle-notification elements of the page. All their timers are
+ * scheduled through setCountedTimeout and setCountedInterval, so that none is left out.
+ */
+export const TimerStats = {
+  wakeups: 0,
+  since: performance.now(),
+};
+
+/**
+ * Like setTimeout, counting the wakeup in TimerStats
+ */
+export function setCountedTimeout(callback, delay) {
+  return setTimeout((...args) => {
+    TimerStats.wakeups++;
+    callback(...args);
+  }, delay);
+}
+
+/**
+ * Like setInterval, counting every wakeup in TimerStats
+ */
+export function setCountedInterval(callback, delay) {
+  return setInterval((...args) => {
+    TimerStats.wakeups++;
+    callback(...args);
+  }, delay);
+}
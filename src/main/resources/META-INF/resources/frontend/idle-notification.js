@@ -16,9 +16,233 @@
 
 import { html, PolymerElement } from '@polymer/polymer/polymer-element.js';
 import { ThemableMixin } from '@vaadin/vaadin-themable-mixin/vaadin-themable-mixin.js';
-import '@vaadin/vaadin-dialog/src/vaadin-dialog.js';
-import '@vaadin/vaadin-button/src/vaadin-button.js';
 import './idle-notification-shadow-styles.js';
+import { ActivityClassifier, RequestInterceptor } from './idle-notification-request-interceptor.js';
+import { renderMessage } from './idle-notification-message.js';
+import { setCountedInterval, setCountedTimeout, TimerStats } from './idle-notification-timers.js';
+
+// see SessionTouchRequestHandler.java
+const SESSION_TOUCH_REQUEST_TYPE = 'idle-notification-touch';
+const SESSION_TOUCH_BEACON_PARAMETER = 'beacon';
+const SESSION_TOUCH_ACTIVITY_PARAMETER = 'activity';
+const SESSION_TOUCH_CSRF_TOKEN_PARAMETER = 'csrfToken';
+
+// see IdleHeartbeatRequestHandler
+const UI_CLOSED_REQUEST_TYPE = 'idle-notification-ui-closed';
+
+// WebSocket messages don't reach the server-side tracker, so it is touched at most this often
+const PUSH_TOUCH_INTERVAL_MS = 30000;
+
+// with lazyDialog, how long before the notification is displayed the dialog components are loaded
+const DIALOG_PREFETCH_MS = 30000;
+// how long after a failed load of the dialog components the open notification retries it, doubling
+// up to DIALOG_RETRY_MAX_MS
+const DIALOG_RETRY_MS = 1000;
+const DIALOG_RETRY_MAX_MS = 16000;
+
+let dialogComponentsLoading = null;
+
+/**
+ * Loads vaadin-dialog and vaadin-button with dynamic imports, which webpack splits into their own
+ * chunk. By default, every element loads them as soon as it is connected, so they are there long
+ * before the notification is displayed. With lazyDialog, they are only loaded shortly before, so
+ * that pages that never display the notification don't fetch them. Until then, the <vaadin-dialog>
+ * of the template is an inert unknown element and its content isn't stamped.
+ */
+function loadDialogComponents() {
+  if (!dialogComponentsLoading) {
+    dialogComponentsLoading = Promise.all([
+      import('@vaadin/vaadin-dialog/src/vaadin-dialog.js'),
+      import('@vaadin/vaadin-button/src/vaadin-button.js')
+    ]).catch((error) => {
+      // allow retrying, e.g. after a network failure
+      dialogComponentsLoading = null;
+      throw error;
+    });
+  }
+  return dialogComponentsLoading;
+}
+
+// the events that count as user activity for the auto-extend mode
+const USER_ACTIVITY_EVENTS = ['pointerdown', 'pointermove', 'keydown', 'wheel', 'touchstart', 'scroll'];
+const USER_ACTIVITY_LISTENER_OPTIONS = { capture: true, passive: true };
+
+const TAB_CHANNEL_NAME = 'vaadin-idle-notification';
+const TAB_LEADER_HEARTBEAT_MS = 2000;
+const TAB_LEADER_TIMEOUT_MS = 3 * TAB_LEADER_HEARTBEAT_MS;
+
+/**
+ * Cross-tab messaging. Uses BroadcastChannel when available, and falls back to
+ * 'storage' events on localStorage otherwise.
+ */
+class TabChannel {
+  constructor(name, onMessage) {
+    this._name = name;
+    this._onMessage = onMessage;
+    if (typeof BroadcastChannel === 'function') {
+      this._channel = new BroadcastChannel(name);
+      this._channel.onmessage = (e) => this._onMessage(e.data);
+    } else {
+      this._storageListener = (e) => {
+        if (e.key === this._name && e.newValue) {
+          this._onMessage(JSON.parse(e.newValue).msg);
+        }
+      };
+      window.addEventListener('storage', this._storageListener);
+    }
+  }
+
+  post(msg) {
+    if (this._channel) {
+      this._channel.postMessage(msg);
+    } else {
+      try {
+        // the nonce makes sure that repeated identical messages still fire 'storage' events
+        localStorage.setItem(this._name, JSON.stringify({ msg: msg, nonce: Math.random() }));
+      } catch (e) {
+        // storage is full or disabled; this tab simply stays uncoordinated
+      }
+    }
+  }
+
+  close() {
+    if (this._channel) {
+      this._channel.close();
+    } else {
+      window.removeEventListener('storage', this._storageListener);
+    }
+  }
+}
+
+/**
+ * Elects a single leader among all tabs of the same origin. Only the leader
+ * runs the idle countdown and pokes the server; the other tabs share their
+ * last-activity timestamps with it and mirror the notification state.
+ *
+ * The leader announces itself every TAB_LEADER_HEARTBEAT_MS. A follower that
+ * hasn't heard from a leader for TAB_LEADER_TIMEOUT_MS claims leadership; if
+ * two leaders meet, the one with the lower id wins.
+ */
+class TabCoordinator {
+  constructor(host) {
+    this._host = host;
+    this._id = Date.now().toString(36) + Math.random().toString(36).substring(2);
+    this._leaderId = null;
+    this._lastLeaderSeen = 0;
+    this.lastActivity = Date.now();
+    this._channel = new TabChannel(TAB_CHANNEL_NAME, (msg) => this._handleMessage(msg));
+    this._heartbeatObj = setCountedInterval(() => this._heartbeat(), TAB_LEADER_HEARTBEAT_MS);
+    this._channel.post({ type: 'hello', from: this._id });
+    // give an existing leader one heartbeat to answer before claiming leadership
+    this._claimObj = setCountedTimeout(() => this._heartbeat(), TAB_LEADER_HEARTBEAT_MS);
+  }
+
+  get isLeader() {
+    return this._leaderId === this._id;
+  }
+
+  /** Shares a successful Vaadin request made by this tab. */
+  notifyActivity() {
+    this.lastActivity = Date.now();
+    this._channel.post({ type: 'activity', from: this._id, at: this.lastActivity });
+  }
+
+  /** Shares a successful session extension made by this tab. */
+  notifyExtended() {
+    this.lastActivity = Date.now();
+    this._channel.post({ type: 'extended', from: this._id, at: this.lastActivity });
+  }
+
+  /** Mirrors the notification state of the leader to the other tabs. */
+  notifyOpened(opened) {
+    this._channel.post({ type: opened ? 'opened' : 'closed', from: this._id });
+  }
+
+  notifyTimeout() {
+    this._channel.post({ type: 'timeout', from: this._id });
+  }
+
+  /** Asks the leader to extend the session on behalf of this tab. */
+  requestExtend() {
+    this._channel.post({ type: 'extend-request', from: this._id });
+  }
+
+  close() {
+    clearInterval(this._heartbeatObj);
+    clearTimeout(this._claimObj);
+    if (this.isLeader) {
+      this._channel.post({ type: 'resign', from: this._id, at: this.lastActivity });
+    }
+    this._channel.close();
+  }
+
+  /** @private */
+  _heartbeat() {
+    if (this.isLeader) {
+      this._channel.post({ type: 'leader', from: this._id, at: this.lastActivity });
+    } else if (Date.now() - this._lastLeaderSeen > TAB_LEADER_TIMEOUT_MS) {
+      this._becomeLeader();
+    }
+  }
+
+  /** @private */
+  _becomeLeader() {
+    this._leaderId = this._id;
+    this._channel.post({ type: 'leader', from: this._id, at: this.lastActivity });
+    this._host._leadershipChanged(true);
+  }
+
+  /** @private */
+  _handleMessage(msg) {
+    if (msg.at && msg.at > this.lastActivity) {
+      this.lastActivity = msg.at;
+    }
+    switch (msg.type) {
+      case 'hello':
+        if (this.isLeader) {
+          this._channel.post({ type: 'leader', from: this._id, at: this.lastActivity });
+        }
+        break;
+      case 'leader': {
+        if (this.isLeader && msg.from > this._id) {
+          // the other tab will step down once it hears from us
+          this._channel.post({ type: 'leader', from: this._id, at: this.lastActivity });
+          break;
+        }
+        const wasLeader = this.isLeader;
+        this._leaderId = msg.from;
+        this._lastLeaderSeen = Date.now();
+        if (wasLeader) {
+          this._host._leadershipChanged(false);
+        }
+        break;
+      }
+      case 'resign':
+        if (msg.from === this._leaderId) {
+          this._leaderId = null;
+          this._lastLeaderSeen = 0;
+          this._heartbeat();
+        }
+        break;
+      case 'activity':
+      case 'extended':
+        this._host._remoteActivity();
+        break;
+      case 'extend-request':
+        if (this.isLeader) {
+          this._host._pokeServer();
+        }
+        break;
+      case 'opened':
+      case 'closed':
+        this._host._remoteOpenedChanged(msg.type === 'opened');
+        break;
+      case 'timeout':
+        this._host._remoteTimeout();
+        break;
+    }
+  }
+}
 
 class IdleNotification extends ThemableMixin(PolymerElement) {
   static get properties() {
@@ -69,12 +293,13 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
       },
 
       /**
-       * The message displayed to the user before the session expires
-       * @type {string}
+       * The message displayed to the user before the session expires, precompiled by the
+       * server into literal strings and MESSAGE_PLACEHOLDER_* codes
+       * @type {!Array<string|number>}
        */
       beforeExpiredMessage: {
-        type: String,
-        value: '',
+        type: Array,
+        value: () => [],
         notify: true,
         observer: '_beforeExpiredMessageChanged',
       },
@@ -126,12 +351,44 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
       },
 
       /**
-       * The message displayed to the user after the session expires
-       * @type {string}
+       * The maximum number of seconds by which the redirect upon session timeout, and the
+       * timeout event, are delayed. Each page picks a random delay, to spread the requests of
+       * sessions that time-out together
+       * @type {number}
+       */
+      redirectJitter: {
+        type: Number,
+        value: 0,
+      },
+
+      /**
+       * Determines whether redirectAtTimeoutUrl is prefetched once the notification is displayed,
+       * so that the redirect upon session timeout can be served from the browser cache
+       * @type {boolean}
+       */
+      prefetchRedirectAtTimeout: {
+        type: Boolean,
+        value: false,
+      },
+
+      /**
+       * Determines whether the dialog components are only loaded shortly before the notification is
+       * displayed, rather than as soon as the element is connected
+       * @type {boolean}
+       */
+      lazyDialog: {
+        type: Boolean,
+        value: false,
+      },
+
+      /**
+       * The message displayed to the user after the session expires, precompiled by the
+       * server into literal strings and MESSAGE_PLACEHOLDER_* codes
+       * @type {!Array<string|number>}
        */
       afterExpiredMessage: {
-        type: String,
-        value: '',
+        type: Array,
+        value: () => [],
       },
 
       /**
@@ -186,6 +443,104 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
         value: false,
       },
 
+      /**
+       * Determines whether the session is extended through the lightweight session-touch
+       * endpoint instead of a server round trip
+       * @type {boolean}
+       */
+      sessionTouchEnabled: {
+        type: Boolean,
+        value: false,
+      },
+
+      /**
+       * Determines whether the session is extended with a beacon to the session-touch endpoint
+       * when the page is hidden or unloaded while the notification is displayed, or while an
+       * extension is still pending
+       * @type {boolean}
+       */
+      extendSessionOnPageHide: {
+        type: Boolean,
+        value: false,
+      },
+
+      /**
+       * The rules classifying the requests of the page as user activity or not, see
+       * ActivityRule.java. By default, every Vaadin request except for heartbeats is activity
+       * @type {!Array<!Object>}
+       */
+      activityRules: {
+        type: Array,
+        value: () => [],
+        observer: '_activityRulesChanged',
+      },
+
+      /**
+       * Determines whether all tabs of the same origin coordinate, so that only one
+       * of them tracks idleness and extends the session
+       * @type {boolean}
+       */
+      multiTabCoordination: {
+        type: Boolean,
+        value: false,
+        observer: '_multiTabCoordinationChanged',
+      },
+
+      /**
+       * The minimum number of seconds between two session extensions triggered by user
+       * activity (pointer, keyboard or scroll events). 0 disables the auto-extend mode
+       * @type {number}
+       */
+      autoExtendInterval: {
+        type: Number,
+        value: 0,
+        observer: '_autoExtendIntervalChanged',
+      },
+
+      /**
+       * The maximum number of seconds between two Vaadin heartbeats while the user is
+       * idle. 0 leaves the heartbeats alone
+       * @type {number}
+       */
+      idleHeartbeatInterval: {
+        type: Number,
+        value: 0,
+      },
+
+      /**
+       * The Vaadin heartbeat interval in seconds, as set by the server
+       * @type {number}
+       */
+      heartbeatInterval: Number,
+
+      /**
+       * The id of the UI, as set by the server
+       * @type {number}
+       */
+      uiId: Number,
+
+      /**
+       * The CSRF token of the UI, as set by the server
+       * @type {string}
+       */
+      csrfToken: String,
+
+      /**
+       * The token of the session, which the session-touch requests carry, as set by the server
+       * @type {string}
+       */
+      sessionTouchToken: String,
+
+      /**
+       * All of the above settings at once, as sent by the server. The client
+       * applies them in a single batch, so that each observer runs once
+       * @type {!Object}
+       */
+      config: {
+        type: Object,
+        observer: '_configChanged',
+      },
+
       /** @private */
       _timeoutObj: Object,
 
@@ -219,14 +574,23 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
       /** @private */
       _displayProcessStarted: Boolean,
 
+      /**
+       * The performance.now() time at which the session times out
+       * @private
+       */
+      _timeoutDeadline: Number,
+
+      /** @private */
+      _timedOut: Boolean,
+
       /** @private */
       _dialogElement: Object,
 
       /** @private */
-      _handleLoadListener: {
-         type: Object,
-         value: null,
-      }
+      _tabCoordinator: {
+        type: Object,
+        value: null,
+      },
     };
   }
 
@@ -334,54 +698,187 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
     `;
   }
 
-  /** @protected */
-  ready() {
-    super.ready();
+  constructor() {
+    super();
+    this._visibilityChangeListener = () => this._handleVisibilityChange();
+    this._userActivityListener = () => this._handleUserActivity();
+    this._pageHideListener = (e) => this._handlePageHide(e);
+  }
 
-    this._dialogElement = this.shadowRoot.querySelector('vaadin-dialog');
-    this._dialogElement.$.overlay.addEventListener('vaadin-overlay-outside-click', this._handleOutsideClick.bind(this));
-    this._dialogElement.noCloseOnOutsideClick = !this.closeNotificationOnOutsideClick;
-    this._dialogElement.noCloseOnEsc = true;
-    this._dialogElement.modeless = false;
+  /**
+   * Loads the dialog components if needed and sets the dialog up
+   * @return {!Promise<!HTMLElement>} the dialog
+   * @private
+   */
+  _ensureDialog() {
+    return loadDialogComponents().then(() => {
+      if (!this._dialogElement) {
+        const dialog = this.shadowRoot.querySelector('vaadin-dialog');
+        dialog.$.overlay.addEventListener('vaadin-overlay-outside-click', this._handleOutsideClick.bind(this));
+        dialog.noCloseOnOutsideClick = !this.closeNotificationOnOutsideClick;
+        dialog.noCloseOnEsc = true;
+        dialog.modeless = false;
+        this._dialogElement = dialog;
+      }
+      return this._dialogElement;
+    });
+  }
 
-    this._registerXhrListener();
+  /** @private */
+  _loadDialogComponents() {
+    loadDialogComponents().catch((error) => console.error('Idle-Notification: Could not load the dialog', error));
+  }
+
+  /** @private */
+  _prefetchDialog() {
+    this._loadDialogComponents();
+    this._scheduleDeadline();
+  }
+
+  /**
+   * Opens the dialog once its components have loaded. While the notification is open, a failed load
+   * is retried, since the connection may only just be waking up with the device.
+   * @private
+   */
+  _openDialog(attempt) {
+    this._ensureDialog().then(
+      (dialog) => {
+        // may have been closed in the meantime
+        dialog.opened = this.opened;
+      },
+      (error) => {
+        console.error('Idle-Notification: Could not load the dialog', error);
+        if (this.opened && this.isConnected && !this._dialogRetryTimeout) {
+          this._dialogRetryTimeout = setCountedTimeout(() => {
+            this._dialogRetryTimeout = null;
+            if (this.opened) {
+              this._openDialog(attempt + 1);
+            }
+          }, Math.min(DIALOG_RETRY_MAX_MS, DIALOG_RETRY_MS * 2 ** attempt));
+        }
+      }
+    );
+  }
+
+  /** @protected */
+  connectedCallback() {
+    super.connectedCallback();
+    RequestInterceptor.subscribe(this);
+    document.addEventListener('visibilitychange', this._visibilityChangeListener);
+    window.addEventListener('pagehide', this._pageHideListener);
+    if (this.multiTabCoordination && !this._tabCoordinator) {
+      this._tabCoordinator = new TabCoordinator(this);
+    }
+    this._autoExtendIntervalChanged(this.autoExtendInterval);
+    if (!this.lazyDialog) {
+      this._loadDialogComponents();
+    }
   }
 
   /** @protected */
   disconnectedCallback() {
     super.disconnectedCallback();
-    this.removeEventListener('load', this._handleLoadListener);
-    this._clearTimeoutObject();
     // to not trigger _handleLoad after disconnecting the component
-    this._displayProcessStarted = true;
+    RequestInterceptor.unsubscribe(this);
+    document.removeEventListener('visibilitychange', this._visibilityChangeListener);
+    window.removeEventListener('pagehide', this._pageHideListener);
+    RequestInterceptor.releaseHeartbeats();
+    this._clearTimeoutObject();
+    this._clearTimeoutJitter();
+    if (this._pushTouchTimeout) {
+      clearTimeout(this._pushTouchTimeout);
+      this._pushTouchTimeout = null;
+    }
+    if (this._prefetchTimeout) {
+      clearTimeout(this._prefetchTimeout);
+      this._prefetchTimeout = null;
+      this._prefetchedUrl = null;
+    }
+    if (this._dialogRetryTimeout) {
+      clearTimeout(this._dialogRetryTimeout);
+      this._dialogRetryTimeout = null;
+    }
+    this._closeTabCoordinator();
+    this._removeUserActivityListeners();
   }
 
   /** @private */
-  _registerXhrListener() {
-    let currRequest;
-    let origOpen = XMLHttpRequest.prototype.open;
-    let thisComponent = this;
-    XMLHttpRequest.prototype.open = function () {
-      currRequest = this;
-      thisComponent._handleLoadListener = (e) => thisComponent._handleLoad(currRequest);
-      this.addEventListener('load', thisComponent._handleLoadListener);
-      origOpen.apply(this, arguments);
-    };
+  _activityRulesChanged(rules) {
+    this._activityClassifier = rules && rules.length > 0 ? new ActivityClassifier(rules) : null;
   }
 
   /** @private */
-  _handleLoad(currRequest) {
-    if (
-        currRequest.status === 200 &&
-        !this._displayProcessStarted &&
-        this._isVaadinRequest(currRequest)
-    ) {
+  _handleLoad(vaadinRequest, activity) {
+    if (vaadinRequest) {
+      // the server has reset the heartbeat timestamp of the UI, and the idle time of the session
+      this._lastUidlRequest = performance.now();
+    }
+    if (vaadinRequest && activity !== false && !this._displayProcessStarted) {
+      if (this._tabCoordinator) {
+        this._tabCoordinator.notifyActivity();
+      }
       this._resetTimer();
       if (this.opened) {
         this.opened = false;
       }
     }
-  };
+  }
+
+  /**
+   * Handles a message sent to the server over the push connection like a completed Vaadin request.
+   * Unlike long-polling requests, WebSocket messages don't reach the server-side idle tracking,
+   * so the session is touched on their behalf, at most every PUSH_TOUCH_INTERVAL_MS.
+   * @private
+   */
+  _handlePushActivity(webSocket) {
+    if (this._displayProcessStarted) {
+      return;
+    }
+    if (webSocket) {
+      this._schedulePushTouch();
+    }
+    if (this._tabCoordinator) {
+      this._tabCoordinator.notifyActivity();
+    }
+    this._resetTimer();
+    if (this.opened) {
+      this.opened = false;
+    }
+  }
+
+  /**
+   * Touches the session right away if it hasn't been touched for PUSH_TOUCH_INTERVAL_MS, and
+   * otherwise once that much time has passed, so that the last activity is always reported
+   * @private
+   */
+  _schedulePushTouch() {
+    if (this._pushTouchTimeout) {
+      return;
+    }
+    // a UIDL request touches the session as well
+    const lastTouch = Math.max(this._lastPushTouch || -Infinity, this._lastUidlRequest || -Infinity);
+    const sinceLastTouch = performance.now() - lastTouch;
+    this._pushTouchTimeout = setCountedTimeout(() => {
+      this._pushTouchTimeout = null;
+      this._lastPushTouch = performance.now();
+      const url = new URL('./?v-r=' + SESSION_TOUCH_REQUEST_TYPE, document.baseURI);
+      url.searchParams.set(SESSION_TOUCH_ACTIVITY_PARAMETER, '');
+      fetch(url.href, {
+        method: 'POST',
+        credentials: 'same-origin',
+        cache: 'no-store',
+        body: this._sessionTouchBody(),
+      })
+        .then((response) => (response.ok ? response.text() : '0'))
+        .then((text) => {
+          const secondsRemaining = Number.parseInt(text, 10);
+          if (secondsRemaining > 0 && !this._timedOut) {
+            this._syncRemaining(secondsRemaining);
+          }
+        })
+        .catch(() => {});
+    }, Math.max(0, PUSH_TOUCH_INTERVAL_MS - sinceLastTouch));
+  }
 
   /** @private */
   _closeButtonEnabledChanged(isCloseButtonEnabled, wasCloseButtonEnabled) {
@@ -457,18 +954,85 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
 
   /** @private */
   _resetTimer() {
-    clearTimeout(this._timeoutObj);
-    this._timeoutObj = setTimeout(
-      (e) => this._displayNotification(e),
-      (this.maxInactiveInterval - this.secondsBeforeNotification) * 1000
-    );
+    // the session is alive after all
+    this._clearTimeoutJitter();
+    this._timedOut = false;
+    let elapsed = 0;
+    if (this._tabCoordinator) {
+      elapsed = Math.max(0, Date.now() - this._tabCoordinator.lastActivity);
+    }
+    this._syncRemaining(this.maxInactiveInterval - elapsed / 1000);
+  }
+
+  /**
+   * Moves the session timeout to the given number of seconds from now. The deadline is kept
+   * as an absolute point on the monotonic clock, so timers that the browser delays (for example
+   * in background tabs) don't make the count-down drift.
+   *
+   * Also called by the server, with the authoritative number of remaining seconds.
+   * @private
+   */
+  _syncRemaining(secondsRemaining) {
+    this._timeoutDeadline = performance.now() + secondsRemaining * 1000;
+    if (this.opened && !this._timedOut) {
+      if (secondsRemaining <= this.secondsBeforeNotification) {
+        this._tick();
+        return;
+      }
+      // the session has been extended elsewhere
+      this._clearTimeoutObject();
+      this.opened = false;
+    }
+    this._scheduleDeadline();
   }
 
   /** @private */
-  _isVaadinRequest(req) {
-    const reqUrl = new URL(req.responseURL);
-    // ignore heartbeat requests, so timeout value can be larger than heartbeat interval
-    return reqUrl.searchParams.has('v-r') && reqUrl.searchParams.get('v-r') !== 'heartbeat';
+  _scheduleDeadline() {
+    if (this._timedOut) {
+      return;
+    }
+    this._clearTimeoutObject();
+    if (!this.activated || this.opened || (this._tabCoordinator && !this._tabCoordinator.isLeader)) {
+      // only the leading tab counts down
+      return;
+    }
+    const untilNotification = this._timeoutDeadline - this.secondsBeforeNotification * 1000 - performance.now();
+    if (!this._dialogElement && !dialogComponentsLoading) {
+      if (!this.lazyDialog) {
+        // the load on connect has failed, retry it
+        this._loadDialogComponents();
+      } else if (untilNotification > DIALOG_PREFETCH_MS) {
+        // wake up once more, shortly before the deadline, to load the dialog in advance
+        this._setTimer(() => this._prefetchDialog(), untilNotification - DIALOG_PREFETCH_MS);
+        return;
+      } else {
+        this._prefetchDialog();
+        return;
+      }
+    }
+    this._setTimer((e) => this._displayNotification(e), Math.max(0, untilNotification));
+  }
+
+  /** @private */
+  _secondsToTimeout() {
+    return Math.max(0, Math.ceil((this._timeoutDeadline - performance.now()) / 1000));
+  }
+
+  /** @private */
+  _handleVisibilityChange() {
+    if (document.visibilityState === 'hidden') {
+      this._extendWithBeacon();
+      return;
+    }
+    if (document.visibilityState !== 'visible' || !this.activated || this._timeoutDeadline === undefined) {
+      return;
+    }
+    // timers may have been throttled while hidden, catch up with the deadline right away
+    if (this.opened) {
+      this._tick();
+    } else {
+      this._scheduleDeadline();
+    }
   }
 
   /** @private */
@@ -479,30 +1043,111 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
     // The following flag is used to prevent this sequence from happening.
     this._displayProcessStarted = true;
 
+    this._timedOut = false;
     this.opened = true;
-    let timeleft = this.secondsBeforeNotification - 1;
-    this._timeoutObj = setInterval((e) => {
-      if (timeleft <= 0) {
-        clearInterval(this._timeoutObj);
-        this._handleSessionTimeout(e);
-      } else {
-        this._updateFormattedMessage(this.beforeExpiredMessage, timeleft);
-        timeleft -= 1;
-      }
-    }, 1000);
+    this._prefetchRedirect();
+    this._scheduleTick();
+  }
+
+  /**
+   * Prefetches redirectAtTimeoutUrl once per page, at a random point of the first half of the
+   * count-down, so that the pages whose notifications open together don't prefetch together. The
+   * request carries the session cookie, so the URL must be a static resource without side effects
+   * (see IdleNotification.setPrefetchRedirectAtTimeout).
+   * @private
+   */
+  _prefetchRedirect() {
+    if (
+      !this.prefetchRedirectAtTimeout ||
+      !this.redirectAtTimeoutEnabled ||
+      !this.redirectAtTimeoutUrl ||
+      this._prefetchedUrl === this.redirectAtTimeoutUrl
+    ) {
+      return;
+    }
+    const url = this.redirectAtTimeoutUrl;
+    this._prefetchedUrl = url;
+    clearTimeout(this._prefetchTimeout);
+    const delay = Math.random() * Math.max(0, this._timeoutDeadline - performance.now()) / 2;
+    this._prefetchTimeout = setCountedTimeout(() => {
+      this._prefetchTimeout = null;
+      const link = document.createElement('link');
+      link.rel = 'prefetch';
+      link.href = url;
+      document.head.appendChild(link);
+    }, delay);
+  }
+
+  /**
+   * Schedules the next count-down tick. While the tab is visible, the tick is aligned with the
+   * moment the displayed number of seconds changes; while it is hidden, nothing is rendered and
+   * the only wakeup is the timeout itself.
+   * @private
+   */
+  _scheduleTick() {
+    const remaining = this._timeoutDeadline - performance.now();
+    const delay = document.visibilityState === 'hidden' ? remaining : remaining % 1000 || 1000;
+    this._setTimer((e) => this._tick(e), Math.max(0, delay));
   }
 
   /** @private */
-  _handleSessionTimeout(e) {
-    this.dispatchEvent(new CustomEvent('vaadin-idle-notification-timeout', { bubbles: true, composed: true }));
+  _tick(e) {
+    if (this._timedOut) {
+      return;
+    }
+    const timeleft = this._secondsToTimeout();
+    if (timeleft > 0) {
+      this._updateFormattedMessage(this.beforeExpiredMessage, timeleft);
+      this._scheduleTick();
+      return;
+    }
+    this._clearTimeoutObject();
+    // a mirroring tab waits for the leader to confirm the timeout
+    if (!this._timedOut && (!this._tabCoordinator || this._tabCoordinator.isLeader)) {
+      this._handleSessionTimeout(e);
+    }
+  }
 
-    if (this.redirectAtTimeoutEnabled && this.redirectAtTimeoutUrl) {
-      this._doRedirect(this.redirectAtTimeoutUrl);
+  /** @private */
+  _handleSessionTimeout(e) {
+    this._timedOut = true;
+    if (this._tabCoordinator && this._tabCoordinator.isLeader) {
+      this._tabCoordinator.notifyTimeout();
+    }
+    const redirect = this.redirectAtTimeoutEnabled && this.redirectAtTimeoutUrl;
+    // also shown while a jittered redirect is pending, when the session can't be extended anymore
+    this._updateFormattedMessage(this.afterExpiredMessage, 0);
+    this.extendSessionOnOutsideClick = false;
+    this.closeNotificationOnOutsideClick = true;
+    this._actionsVisibility = 'hidden';
+    // everything that may send a request is delayed, so that pages whose sessions time-out
+    // together don't all hit the server in the same second
+    const jitter = this.redirectJitter > 0 ? Math.random() * this.redirectJitter * 1000 : 0;
+    const dispatch = () => {
+      // the heartbeats tell the client that the session is gone
+      RequestInterceptor.releaseHeartbeats();
+      this.dispatchEvent(new CustomEvent('vaadin-idle-notification-timeout', { bubbles: true, composed: true }));
+      if (redirect) {
+        this._doRedirect(this.redirectAtTimeoutUrl);
+      }
+    };
+    this._clearTimeoutJitter();
+    if (jitter > 0) {
+      // not the element timer, which the count-down paths clear
+      this._timeoutJitterObj = setCountedTimeout(() => {
+        this._timeoutJitterObj = null;
+        dispatch();
+      }, jitter);
     } else {
-      this._updateFormattedMessage(this.afterExpiredMessage, 0);
-      this.extendSessionOnOutsideClick = false;
-      this.closeNotificationOnOutsideClick = true;
-      this._actionsVisibility = 'hidden';
+      dispatch();
+    }
+  }
+
+  /** @private */
+  _clearTimeoutJitter() {
+    if (this._timeoutJitterObj) {
+      clearTimeout(this._timeoutJitterObj);
+      this._timeoutJitterObj = null;
     }
   }
 
@@ -514,17 +1159,38 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
   /** @private */
   _clearTimeoutObject() {
     if (this._timeoutObj) {
-      clearInterval(this._timeoutObj);
+      clearTimeout(this._timeoutObj);
+      this._timeoutObj = null;
     }
   }
 
+  /**
+   * Replaces the single pending timer of the element
+   * @private
+   */
+  _setTimer(callback, delay) {
+    this._clearTimeoutObject();
+    this._timeoutObj = setCountedTimeout((e) => {
+      this._timeoutObj = null;
+      callback(e);
+    }, delay);
+  }
+
   /** @private */
   _openedChanged(opened, wasOpened) {
-    if (this._dialogElement) {
-      this._dialogElement.opened = opened;
+    if (opened) {
+      this._openDialog(0);
+    } else if (this._dialogElement) {
+      this._dialogElement.opened = false;
+    }
+    if (this._tabCoordinator && this._tabCoordinator.isLeader && opened !== !!wasOpened) {
+      this._tabCoordinator.notifyOpened(opened);
     }
     if (opened) {
-      this._updateFormattedMessage(this.beforeExpiredMessage, this.secondsBeforeNotification);
+      this._updateFormattedMessage(
+        this.beforeExpiredMessage,
+        this._timeoutDeadline === undefined ? this.secondsBeforeNotification : this._secondsToTimeout()
+      );
       if(!wasOpened) this.dispatchEvent(new CustomEvent('vaadin-idle-notification-open', { bubbles: true, composed: true }));
     } else {
       this._displayProcessStarted = false;
@@ -538,14 +1204,8 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
   }
 
   /** @private */
-  _updateFormattedMessage(message, secondsToTimeout) {
-    let SECS_TO_TIMEOUT = secondsToTimeout;
-    let SECS_MAX_IDLE_TIMEOUT = this.maxInactiveInterval;
-    let minutesToTimeout = Math.floor(SECS_TO_TIMEOUT / 60);
-    let secondsOverMinutesToTimeout = SECS_TO_TIMEOUT - minutesToTimeout * 60;
-    let MINUTES_TO_TIMEOUT = String(minutesToTimeout).padStart(2, '0');
-    let SECS_OVER_MINUTES_TO_TIMEOUT = String(secondsOverMinutesToTimeout).padStart(2, '0');
-    this._messageContent = eval('`' + message + '`');
+  _updateFormattedMessage(template, secondsToTimeout) {
+    this._messageContent = renderMessage(template, secondsToTimeout, this.maxInactiveInterval);
   }
 
   /** @private */
@@ -577,17 +1237,284 @@ class IdleNotification extends ThemableMixin(PolymerElement) {
 
   /** @private */
   _pokeServer(e) {
-    this.$server.pokeServer().then((result) => {
-      if (result === true) {
+    if (this._tabCoordinator && !this._tabCoordinator.isLeader) {
+      this._tabCoordinator.requestExtend();
+      return;
+    }
+    // the round trip time is reported along with the following extension
+    const latency = Math.round(this._lastExtendLatency || 0);
+    const start = performance.now();
+    const poke = this.sessionTouchEnabled ? this._touchSession(latency) : this.$server.pokeServer(latency);
+    this._extendPending = true;
+    const settled = () => (this._extendPending = false);
+    poke.then(settled, settled);
+    poke.then((secondsRemaining) => {
+      this._lastExtendLatency = performance.now() - start;
+      if (secondsRemaining > 0) {
         console.log('Idle-Notification: Server poked successfully. Session extended.');
+        if (this._tabCoordinator) {
+          this._tabCoordinator.notifyExtended();
+        }
         this.opened = false;
-        this._resetTimer();
+        this._syncRemaining(secondsRemaining);
       } else {
         console.error('Could not poke the server');
       }
     });
   }
 
+  /**
+   * Touches the session through the lightweight session-touch endpoint, which
+   * bypasses the UIDL round trip of a server call
+   * @private
+   */
+  _touchSession(latency) {
+    const url = new URL('./?v-r=' + SESSION_TOUCH_REQUEST_TYPE, document.baseURI);
+    if (latency > 0) {
+      url.searchParams.set('latency', latency);
+    }
+    return fetch(url.href, {
+      method: 'POST',
+      credentials: 'same-origin',
+      cache: 'no-store',
+      body: this._sessionTouchBody(),
+    })
+      .then((response) => (response.ok ? response.text().then((text) => Number.parseInt(text, 10)) : 0))
+      .catch(() => 0);
+  }
+
+  /**
+   * The form body of a session-touch request, carrying the token that keeps other sites from
+   * extending the session
+   * @private
+   */
+  _sessionTouchBody() {
+    return new URLSearchParams({ [SESSION_TOUCH_CSRF_TOKEN_PARAMETER]: this.sessionTouchToken || '' });
+  }
+
+  /**
+   * Extends the session with a beacon, which the browser delivers even if the page is being
+   * unloaded, unlike the request of a server call. The session is assumed to be extended, so
+   * that a hidden page doesn't time-out on its own.
+   * @private
+   */
+  _extendWithBeacon() {
+    if (
+      !this.extendSessionOnPageHide ||
+      !this.activated ||
+      this._timedOut ||
+      !(this.opened || this._extendPending) ||
+      !navigator.sendBeacon
+    ) {
+      return;
+    }
+    const url = new URL('./?v-r=' + SESSION_TOUCH_REQUEST_TYPE, document.baseURI);
+    url.searchParams.set(SESSION_TOUCH_BEACON_PARAMETER, '');
+    if (!navigator.sendBeacon(url.href, this._sessionTouchBody())) {
+      return;
+    }
+    this._extendPending = false;
+    if (this._tabCoordinator) {
+      this._tabCoordinator.notifyExtended();
+    }
+    this._resetTimer();
+  }
+
+  /** @private */
+  _configChanged(config) {
+    if (config) {
+      this.setProperties(config);
+    }
+  }
+
+  /** @private */
+  _autoExtendIntervalChanged(interval) {
+    this._removeUserActivityListeners();
+    if (interval > 0 && this.isConnected) {
+      USER_ACTIVITY_EVENTS.forEach((type) =>
+        document.addEventListener(type, this._userActivityListener, USER_ACTIVITY_LISTENER_OPTIONS)
+      );
+      this._listeningToUserActivity = true;
+    }
+  }
+
+  /** @private */
+  _removeUserActivityListeners() {
+    if (this._listeningToUserActivity) {
+      USER_ACTIVITY_EVENTS.forEach((type) =>
+        document.removeEventListener(type, this._userActivityListener, USER_ACTIVITY_LISTENER_OPTIONS)
+      );
+      this._listeningToUserActivity = false;
+    }
+    if (this._autoExtendTimeout) {
+      clearTimeout(this._autoExtendTimeout);
+      this._autoExtendTimeout = null;
+    }
+  }
+
+  /**
+   * Called for every activity event, so it only records the time and makes sure that a
+   * single extend is pending
+   * @private
+   */
+  _handleUserActivity() {
+    this._lastUserActivity = performance.now();
+    if (!this._autoExtendTimeout) {
+      this._scheduleAutoExtend();
+    }
+  }
+
+  /**
+   * The session was last refreshed when the current deadline was set, either by a Vaadin
+   * request, by an extend or by another tab
+   * @private
+   */
+  _lastSessionRefresh() {
+    return this._timeoutDeadline - this.maxInactiveInterval * 1000;
+  }
+
+  /** @private */
+  _scheduleAutoExtend() {
+    const delay = this._lastSessionRefresh() + this.autoExtendInterval * 1000 - performance.now();
+    this._autoExtendTimeout = setCountedTimeout(() => this._autoExtend(), Math.max(0, delay));
+  }
+
+  /** @private */
+  _autoExtend() {
+    this._autoExtendTimeout = null;
+    if (!this.activated || this.opened || this._timedOut || this._timeoutDeadline === undefined) {
+      // the notification, once displayed, has to be dismissed explicitly
+      return;
+    }
+    const lastRefresh = this._lastSessionRefresh();
+    if (lastRefresh >= this._lastUserActivity) {
+      // a Vaadin request has refreshed the session since then
+      return;
+    }
+    if (performance.now() - lastRefresh < this.autoExtendInterval * 1000) {
+      this._scheduleAutoExtend();
+      return;
+    }
+    // move the deadline right away, so that activity during the round trip doesn't extend again
+    this._syncRemaining(this.maxInactiveInterval);
+    this._pokeServer();
+  }
+
+  /**
+   * Gets the number of milliseconds a heartbeat has to be held back, or -1 if this element
+   * doesn't throttle the heartbeats
+   * @private
+   */
+  _heartbeatDeferral() {
+    if (!(this.idleHeartbeatInterval > 0 && this.heartbeatInterval > 0) || !this.activated || this._timedOut) {
+      return -1;
+    }
+    const lastUidlRequest = this._lastUidlRequest || 0;
+    const lastHeartbeat = this._lastHeartbeat || 0;
+    // after a Vaadin request, the server expects a heartbeat within 3 heartbeat intervals again
+    const interval =
+      lastUidlRequest >= lastHeartbeat
+        ? Math.min(this.idleHeartbeatInterval, 3 * this.heartbeatInterval)
+        : this.idleHeartbeatInterval;
+    return Math.max(0, Math.max(lastUidlRequest, lastHeartbeat) + interval * 1000 - performance.now());
+  }
+
+  /** @private */
+  _heartbeatSent() {
+    this._lastHeartbeat = performance.now();
+  }
+
+  /**
+   * Tells the server that the UI is gone, instead of letting it wait for the missing heartbeats
+   * @private
+   */
+  _handlePageHide(e) {
+    this._extendWithBeacon();
+    if (e.persisted || !(this.idleHeartbeatInterval > 0) || this.uiId === undefined || !navigator.sendBeacon) {
+      return;
+    }
+    const url = new URL('./?v-r=' + UI_CLOSED_REQUEST_TYPE, document.baseURI);
+    url.searchParams.set('v-uiId', this.uiId);
+    navigator.sendBeacon(url.href, new URLSearchParams({ csrfToken: this.csrfToken || '' }));
+  }
+
+  /** @private */
+  _multiTabCoordinationChanged(enabled) {
+    this._closeTabCoordinator();
+    if (enabled) {
+      this._tabCoordinator = new TabCoordinator(this);
+    }
+    if (this.activated) {
+      this._resetTimer();
+    }
+  }
+
+  /** @private */
+  _closeTabCoordinator() {
+    if (this._tabCoordinator) {
+      this._tabCoordinator.close();
+      this._tabCoordinator = null;
+    }
+  }
+
+  /** @private */
+  _leadershipChanged(isLeader) {
+    if (!this.activated || this.opened) {
+      return;
+    }
+    if (isLeader) {
+      this._resetTimer();
+    } else {
+      this._clearTimeoutObject();
+    }
+  }
+
+  /** @private */
+  _remoteActivity() {
+    if (this._tabCoordinator.isLeader && this.activated) {
+      this._resetTimer();
+      if (this.opened) {
+        this.opened = false;
+      }
+    }
+  }
+
+  /** @private */
+  _remoteOpenedChanged(opened) {
+    if (this._tabCoordinator.isLeader) {
+      return;
+    }
+    if (opened && !this.opened) {
+      const elapsed = Math.max(0, Date.now() - this._tabCoordinator.lastActivity);
+      this._timeoutDeadline = performance.now() + this.maxInactiveInterval * 1000 - elapsed;
+      this._displayNotification();
+    } else if (!opened && this.opened) {
+      this._clearTimeoutObject();
+      this.opened = false;
+    }
+  }
+
+  /** @private */
+  _remoteTimeout() {
+    if (!this._tabCoordinator.isLeader) {
+      this._clearTimeoutObject();
+      this._handleSessionTimeout();
+    }
+  }
+
+  /**
+   * Gets the number of timer wakeups of all idle-notification elements of the page, in total and
+   * per minute since the page was loaded
+   * @return {{wakeups: number, wakeupsPerMinute: number}}
+   */
+  static getTimerStats() {
+    const minutes = (performance.now() - TimerStats.since) / 60000;
+    return {
+      wakeups: TimerStats.wakeups,
+      wakeupsPerMinute: minutes > 0 ? TimerStats.wakeups / minutes : 0,
+    };
+  }
+
   static get is() {
     return 'idle-notification';
   }
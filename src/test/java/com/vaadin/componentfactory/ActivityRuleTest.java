@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+
+public class ActivityRuleTest {
+
+    @Test
+    public void toJson_writesTheConditionsOfEachRuleInOrder() {
+        ActivityRule heartbeat = ActivityRule.builder().requestType("heartbeat").url("[?&]v-uiId=0").build();
+        ActivityRule confirm = ActivityRule.builder().rpcType("publishedEventHandler").rpcMethod("confirm")
+                .activity(true).build();
+
+        assertEquals("[{\"activity\":false,\"rpcType\":\"event\",\"event\":\"ui-poll\"},"
+                + "{\"activity\":false,\"requestType\":\"heartbeat\",\"url\":\"[?&]v-uiId=0\"},"
+                + "{\"activity\":true,\"rpcType\":\"publishedEventHandler\",\"method\":\"confirm\"}]",
+                ActivityRule.toJson(Arrays.asList(ActivityRule.POLL, heartbeat, confirm)).toJson());
+    }
+
+    @Test
+    public void toJson_noRules_isEmpty() {
+        assertEquals("[]", ActivityRule.toJson(Collections.emptyList()).toJson());
+    }
+
+    @Test
+    public void builder_defaultsToNoActivity() {
+        ActivityRule rule = ActivityRule.builder().build();
+        assertFalse(rule.isActivity());
+        assertFalse(rule.getRequestType().isPresent());
+        assertFalse(rule.getRpcTarget().isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void url_rejectsInvalidPattern() {
+        ActivityRule.builder().url("v-r=(uidl");
+    }
+
+    @Test
+    public void url_rejectsSyntaxTheBrowserDoesNotSupport() {
+        for (String pattern : new String[] { "(?i)v-r=uidl", "v-r=(?i:uidl)", "(?>uidl)", "v-uiId=\\d++",
+                "uidl?+", "x{1,2}+", "\\Av-r", "uidl\\Z", "\\Quidl\\E", "\\p{Alpha}", "[a-z&&[^x]]",
+                "[a[b]]", "[]a]" }) {
+            try {
+                ActivityRule.builder().url(pattern);
+                fail("Accepted " + pattern);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void url_acceptsSyntaxCommonToJavaAndJavaScript() {
+        for (String pattern : new String[] { "[?&]v-r=heartbeat(&|$)", "(?:a|b)+?", "(?<=v-r=)uidl",
+                "(?<!x)y", "(?<type>uidl)", "(?=a)(?!b)", "\\d{2,}\\w*?", "[\\[\\]]", "[^\\]]", "a\\+\\+",
+                "\\b\\s\\S\\W\\D\\B", "x{2}" }) {
+            assertEquals(pattern, ActivityRule.builder().url(pattern).build().getUrl().get());
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rpcEvent_rejectsNull() {
+        ActivityRule.builder().rpcEvent(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void config_rejectsRulesTargetingAComponent() {
+        IdleNotificationConfig.builder()
+                .activityRule(ActivityRule.builder().rpcTarget(new TargetComponent()).build());
+    }
+
+    @Test
+    public void config_keepsTheRulesInOrder() {
+        ActivityRule heartbeat = ActivityRule.builder().requestType("heartbeat").build();
+        IdleNotificationConfig config = IdleNotificationConfig.builder().activityRule(ActivityRule.POLL)
+                .activityRule(heartbeat).build();
+        assertEquals(Arrays.asList(ActivityRule.POLL, heartbeat), config.getActivityRules());
+    }
+
+    @Tag("div")
+    private static class TargetComponent extends Component {
+    }
+}
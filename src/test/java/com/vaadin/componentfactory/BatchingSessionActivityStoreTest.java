@@ -0,0 +1,297 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchingSessionActivityStoreTest {
+
+    // long enough for the scheduled flushes not to interfere
+    private static final long FLUSH_INTERVAL = 3_600_000;
+
+    private RecordingStore delegate;
+    private BatchingSessionActivityStore store;
+
+    @Before
+    public void setUp() {
+        delegate = new RecordingStore();
+        store = new BatchingSessionActivityStore(delegate, FLUSH_INTERVAL);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void flush_writesLatestDeadlinePerSessionInOneBatch() {
+        store.recordActivity("a", 1000);
+        store.recordActivity("a", 3000);
+        store.recordActivity("a", 2000);
+        store.recordActivity("b", 5000);
+
+        store.flush();
+
+        assertEquals(1, delegate.batches.size());
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("a", 3000L);
+        expected.put("b", 5000L);
+        assertEquals(expected, delegate.batches.get(0));
+        assertEquals(0, store.getPendingCount());
+        assertEquals(3000, delegate.getExpiresAt("a"));
+    }
+
+    @Test
+    public void flush_withoutActivity_writesNothing() {
+        store.flush();
+
+        assertTrue(delegate.batches.isEmpty());
+    }
+
+    @Test
+    public void flush_keepsActivityRecordedWhileWriting() {
+        store.recordActivity("a", 1000);
+        store.recordActivity("b", 1000);
+        delegate.onWrite = batch -> {
+            store.recordActivity("a", 4000);
+            store.recordActivity("c", 2000);
+        };
+
+        store.flush();
+
+        assertEquals(2, store.getPendingCount());
+        assertEquals(4000, store.getExpiresAt("a"));
+
+        delegate.onWrite = null;
+        store.flush();
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("a", 4000L);
+        expected.put("c", 2000L);
+        assertEquals(expected, delegate.batches.get(1));
+        assertEquals(0, store.getPendingCount());
+        assertEquals(4000, delegate.getExpiresAt("a"));
+        assertEquals(1000, delegate.getExpiresAt("b"));
+    }
+
+    @Test
+    public void flush_failedWrite_keepsActivityPending() {
+        store.recordActivity("a", 1000);
+        delegate.onWrite = batch -> {
+            throw new IllegalStateException("store unavailable");
+        };
+
+        try {
+            store.flush();
+        } catch (IllegalStateException expected) {
+            // the scheduled flushes log it
+        }
+
+        assertEquals(1, store.getPendingCount());
+        assertEquals(-1, delegate.getExpiresAt("a"));
+
+        delegate.onWrite = null;
+        store.flush();
+        assertEquals(1000, delegate.getExpiresAt("a"));
+    }
+
+    @Test
+    public void flush_writesDeadlinesInOneBatchAndReplacesLaterOnes() {
+        delegate.recordActivity("a", 5000);
+        store.setDeadline("a", 2000);
+        store.setDeadline("b", 3000);
+        store.recordActivity("c", 4000);
+
+        store.flush();
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("a", 2000L);
+        expected.put("b", 3000L);
+        assertEquals(Collections.singletonList(expected), delegate.deadlineBatches);
+        assertEquals(Collections.singletonMap("c", 4000L), delegate.batches.get(0));
+        assertEquals(2000, delegate.getExpiresAt("a"));
+    }
+
+    @Test
+    public void setDeadline_laterActivity_staysADeadline() {
+        delegate.recordActivity("a", 5000);
+        store.setDeadline("a", 2000);
+        store.recordActivity("a", 1000);
+        assertEquals(2000, store.getExpiresAt("a"));
+
+        store.recordActivity("a", 3000);
+        store.flush();
+
+        assertEquals(3000, delegate.getExpiresAt("a"));
+        assertTrue(delegate.batches.isEmpty());
+    }
+
+    @Test
+    public void setDeadline_replacesPendingActivity() {
+        store.recordActivity("a", 5000);
+
+        store.setDeadline("a", 2000);
+
+        assertEquals(2000, store.getExpiresAt("a"));
+    }
+
+    @Test
+    public void getExpiresAt_answersFromPendingActivityFirst() {
+        delegate.recordActivity("a", 2000);
+        store.recordActivity("b", 1000);
+        store.recordActivity("a", 3000);
+
+        assertEquals(3000, store.getExpiresAt("a"));
+        assertEquals(1000, store.getExpiresAt("b"));
+        assertEquals(-1, store.getExpiresAt("c"));
+
+        store.recordActivity("a", 1500);
+        assertEquals(3000, store.getExpiresAt("a"));
+    }
+
+    @Test
+    public void getExpiresAt_pendingActivity_doesNotReadTheDelegate() {
+        store.recordActivity("a", 3000);
+
+        assertEquals(3000, store.getExpiresAt("a"));
+        assertEquals(0, delegate.reads);
+
+        assertEquals(-1, store.getExpiresAt("b"));
+        assertEquals(1, delegate.reads);
+    }
+
+    @Test
+    public void remove_whileFlushing_doesNotWaitAndIsWrittenByTheNextFlush() throws InterruptedException {
+        store.recordActivity("a", 1000);
+        Thread[] remover = new Thread[1];
+        boolean[] removed = new boolean[1];
+        delegate.onWrite = batch -> {
+            remover[0] = new Thread(() -> store.remove("a"));
+            remover[0].start();
+            try {
+                remover[0].join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            removed[0] = !remover[0].isAlive();
+        };
+
+        store.flush();
+
+        assertTrue(removed[0]);
+        assertEquals(-1, store.getExpiresAt("a"));
+        assertEquals(1, store.getPendingCount());
+
+        delegate.onWrite = null;
+        store.flush();
+
+        assertEquals(-1, delegate.getExpiresAt("a"));
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    public void remove_dropsPendingAndStoredActivity() {
+        delegate.recordActivity("a", 2000);
+        store.recordActivity("a", 3000);
+
+        store.remove("a");
+        store.recordActivity("a", 4000);
+        store.flush();
+
+        assertEquals(-1, store.getExpiresAt("a"));
+        assertTrue(delegate.batches.isEmpty());
+    }
+
+    @Test
+    public void remove_isWrittenInOneBatchByTheNextFlush() {
+        delegate.recordActivity("a", 2000);
+        delegate.recordActivity("b", 2000);
+
+        store.remove("a");
+        store.remove("b");
+
+        assertEquals(0, delegate.removals.size());
+        assertEquals(-1, store.getExpiresAt("a"));
+
+        store.flush();
+
+        assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList("a", "b"))), delegate.removals);
+        assertEquals(-1, delegate.getExpiresAt("b"));
+    }
+
+    @Test
+    public void close_flushesPendingActivity() {
+        store.recordActivity("a", 1000);
+
+        store.close();
+
+        assertEquals(1000, delegate.getExpiresAt("a"));
+    }
+
+    private static class RecordingStore extends InMemorySessionActivityStore {
+
+        private final List<Map<String, Long>> batches = new ArrayList<>();
+        private final List<Map<String, Long>> deadlineBatches = new ArrayList<>();
+        private final List<Set<String>> removals = new ArrayList<>();
+        private Consumer<Map<String, Long>> onWrite;
+        private int reads;
+
+        @Override
+        public long getExpiresAt(String sessionId) {
+            reads++;
+            return super.getExpiresAt(sessionId);
+        }
+
+        @Override
+        public void recordActivities(Map<String, Long> expiresAtMillis) {
+            if (onWrite != null) {
+                onWrite.accept(expiresAtMillis);
+            }
+            batches.add(new HashMap<>(expiresAtMillis));
+            super.recordActivities(expiresAtMillis);
+        }
+
+        @Override
+        public void setDeadlines(Map<String, Long> expiresAtMillis) {
+            deadlineBatches.add(new HashMap<>(expiresAtMillis));
+            super.setDeadlines(expiresAtMillis);
+        }
+
+        @Override
+        public void removeAll(Collection<String> sessionIds) {
+            removals.add(new HashSet<>(sessionIds));
+            super.removeAll(sessionIds);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+/**
+ * A {@link VaadinRequest} stand-in for the request handler tests, answering
+ * with the given parameters, headers and HttpSession. The other methods of
+ * the request aren't supported.
+ */
+class FakeRequest implements InvocationHandler {
+
+    private final Map<String, String> parameters = new HashMap<>();
+    private final Map<String, String> headers = new HashMap<>();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private String method = "POST";
+    private WrappedSession session;
+
+    FakeRequest(String requestType) {
+        parameters.put(ApplicationConstants.REQUEST_TYPE_PARAMETER, requestType);
+    }
+
+    FakeRequest parameter(String name, String value) {
+        parameters.put(name, value);
+        return this;
+    }
+
+    FakeRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    FakeRequest method(String method) {
+        this.method = method;
+        return this;
+    }
+
+    FakeRequest session(WrappedSession session) {
+        this.session = session;
+        return this;
+    }
+
+    VaadinRequest create() {
+        return (VaadinRequest) Proxy.newProxyInstance(VaadinRequest.class.getClassLoader(),
+                new Class<?>[] { VaadinRequest.class }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method invoked, Object[] args) {
+        switch (invoked.getName()) {
+        case "getParameter":
+            return parameters.get(args[0]);
+        case "getHeader":
+            return headers.get(args[0]);
+        case "getMethod":
+            return method;
+        case "getWrappedSession":
+            return session;
+        case "getAttribute":
+            return attributes.get(args[0]);
+        case "setAttribute":
+            attributes.put((String) args[0], args[1]);
+            return null;
+        default:
+            throw new UnsupportedOperationException(invoked.getName());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.flow.server.VaadinResponse;
+
+/**
+ * A {@link VaadinResponse} stand-in for the request handler tests, recording
+ * the status, headers and body written by the handler. The other methods of
+ * the response aren't supported.
+ */
+class FakeResponse implements InvocationHandler {
+
+    int status = -1;
+    String contentType;
+    final Map<String, String> headers = new HashMap<>();
+    private final StringWriter body = new StringWriter();
+
+    VaadinResponse create() {
+        return (VaadinResponse) Proxy.newProxyInstance(VaadinResponse.class.getClassLoader(),
+                new Class<?>[] { VaadinResponse.class }, this);
+    }
+
+    String getBody() {
+        return body.toString();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method invoked, Object[] args) {
+        switch (invoked.getName()) {
+        case "setStatus":
+        case "sendError":
+            status = (Integer) args[0];
+            return null;
+        case "setContentType":
+            contentType = (String) args[0];
+            return null;
+        case "setHeader":
+            headers.put((String) args[0], (String) args[1]);
+            return null;
+        case "getWriter":
+            return new PrintWriter(body);
+        default:
+            throw new UnsupportedOperationException(invoked.getName());
+        }
+    }
+}
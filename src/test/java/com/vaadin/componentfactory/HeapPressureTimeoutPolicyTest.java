@@ -0,0 +1,146 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HeapPressureTimeoutPolicyTest {
+
+    private final HeapPressureTimeoutPolicy policy = HeapPressureTimeoutPolicy.builder().step(0.9, 0.25)
+            .step(0.8, 0.5).hysteresis(0.05).build();
+
+    @Test
+    public void getStep_entersStepsAtTheirThreshold() {
+        assertEquals(-1, policy.getStep(-1, 0.79));
+        assertEquals(0, policy.getStep(-1, 0.8));
+        assertEquals(0, policy.getStep(0, 0.89));
+        assertEquals(1, policy.getStep(0, 0.9));
+    }
+
+    @Test
+    public void getStep_skipsStepsOnSteepRise() {
+        assertEquals(1, policy.getStep(-1, 0.95));
+    }
+
+    @Test
+    public void getStep_leavesStepsOnlyBelowTheHysteresis() {
+        assertEquals(1, policy.getStep(1, 0.86));
+        assertEquals(0, policy.getStep(1, 0.849));
+        assertEquals(0, policy.getStep(0, 0.76));
+        assertEquals(-1, policy.getStep(0, 0.749));
+        assertEquals(-1, policy.getStep(1, 0.5));
+    }
+
+    @Test
+    public void getStep_doesNotOscillateWithinTheHysteresis() {
+        int step = -1;
+        for (double usage : new double[] { 0.8, 0.78, 0.81, 0.76, 0.79 }) {
+            step = policy.getStep(step, usage);
+            assertEquals("at " + usage, 0, step);
+        }
+    }
+
+    @Test
+    public void getStep_withoutHysteresis_leavesStepsBelowTheirThreshold() {
+        HeapPressureTimeoutPolicy strict = HeapPressureTimeoutPolicy.builder().step(0.8, 0.5).hysteresis(0).build();
+        assertEquals(0, strict.getStep(0, 0.8));
+        assertEquals(-1, strict.getStep(0, 0.7999));
+    }
+
+    @Test
+    public void getScale_followsTheStepsInThresholdOrder() {
+        assertEquals(1, policy.getScale(-1), 0);
+        assertEquals(0.5, policy.getScale(0), 0);
+        assertEquals(0.25, policy.getScale(1), 0);
+    }
+
+    @Test
+    public void defaultSteps_halveAndQuarterTheTimeouts() {
+        HeapPressureTimeoutPolicy defaults = HeapPressureTimeoutPolicy.builder().build();
+        assertEquals(0.5, defaults.getScale(defaults.getStep(-1, 0.8)), 0);
+        assertEquals(0.25, defaults.getScale(defaults.getStep(-1, 0.9)), 0);
+    }
+
+    @Test
+    public void scaleTimeout_keepsTheMinimum() {
+        assertEquals(900, HeapPressureTimeoutPolicy.scaleTimeout(1800, 0.5, 120));
+        assertEquals(120, HeapPressureTimeoutPolicy.scaleTimeout(300, 0.25, 120));
+        // shorter than the minimum already
+        assertEquals(60, HeapPressureTimeoutPolicy.scaleTimeout(60, 0.25, 120));
+        assertEquals(1800, HeapPressureTimeoutPolicy.scaleTimeout(1800, 1, 120));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void step_rejectsUsageOutOfRange() {
+        HeapPressureTimeoutPolicy.builder().step(1, 0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void step_rejectsZeroScale() {
+        HeapPressureTimeoutPolicy.builder().step(0.8, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_rejectsScaleGrowingWithTheUsage() {
+        HeapPressureTimeoutPolicy.builder().step(0.9, 0.5).step(0.8, 0.25).build();
+    }
+
+    @Test
+    public void stop_restoresTheThresholdsOfOthers() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        List<Long> originalThresholds = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.getUsage().getMax() > 0) {
+                pools.add(pool);
+                originalThresholds.add(pool.getCollectionUsageThreshold());
+            }
+        }
+        SessionIdleTracker tracker = new SessionIdleTracker(System::currentTimeMillis,
+                new SessionIdleTrackerTest.DirectExecutorService());
+        try {
+            // as set by another component
+            pools.forEach(pool -> pool.setCollectionUsageThreshold(pool.getUsage().getMax() / 2));
+            HeapPressureTimeoutPolicy.Monitor monitor = policy.new Monitor(tracker);
+
+            monitor.start();
+            for (MemoryPoolMXBean pool : pools) {
+                assertEquals(pool.getName(), (long) (pool.getUsage().getMax() * 0.8),
+                        pool.getCollectionUsageThreshold());
+            }
+            monitor.stop();
+
+            for (MemoryPoolMXBean pool : pools) {
+                assertEquals(pool.getName(), pool.getUsage().getMax() / 2, pool.getCollectionUsageThreshold());
+            }
+        } finally {
+            for (int i = 0; i < pools.size(); i++) {
+                pools.get(i).setCollectionUsageThreshold(originalThresholds.get(i));
+            }
+            tracker.shutdown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.vaadin.componentfactory.SessionIdleTrackerTest.TestSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+public class IdleHeartbeatRequestHandlerTest {
+
+    private final IdleHeartbeatRequestHandler handler = new IdleHeartbeatRequestHandler();
+    private final TestSession session = new TestSession("a");
+
+    @Test
+    public void heartbeatWithoutDefer_isLeftToTheBuiltInHandler() throws IOException {
+        assertNotHandled(new FakeRequest(ApplicationConstants.REQUEST_TYPE_HEARTBEAT));
+    }
+
+    @Test
+    public void heartbeatWithMalformedDefer_isLeftToTheBuiltInHandler() throws IOException {
+        assertNotHandled(new FakeRequest(ApplicationConstants.REQUEST_TYPE_HEARTBEAT)
+                .parameter(IdleHeartbeatRequestHandler.DEFER_PARAMETER, "soon"));
+    }
+
+    @Test
+    public void heartbeatWithoutPositiveDefer_isLeftToTheBuiltInHandler() throws IOException {
+        assertNotHandled(new FakeRequest(ApplicationConstants.REQUEST_TYPE_HEARTBEAT)
+                .parameter(IdleHeartbeatRequestHandler.DEFER_PARAMETER, "0"));
+    }
+
+    @Test
+    public void otherRequestType_isNotHandled() throws IOException {
+        assertNotHandled(new FakeRequest(ApplicationConstants.REQUEST_TYPE_UIDL)
+                .parameter(IdleHeartbeatRequestHandler.DEFER_PARAMETER, "60"));
+    }
+
+    @Test
+    public void requestWithoutSession_isNotHandled() throws IOException {
+        FakeResponse response = new FakeResponse();
+
+        assertFalse(handler.handleRequest(null,
+                new FakeRequest(IdleHeartbeatRequestHandler.UI_CLOSED_REQUEST_TYPE).create(), response.create()));
+        assertEquals(-1, response.status);
+    }
+
+    private void assertNotHandled(FakeRequest request) throws IOException {
+        FakeResponse response = new FakeResponse();
+
+        assertFalse(handler.handleRequest(session, request.session(session.getSession()).create(),
+                response.create()));
+        assertEquals(-1, response.status);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.componentfactory.SessionIdleTrackerTest.DirectExecutorService;
+import com.vaadin.componentfactory.SessionIdleTrackerTest.TestSession;
+import com.vaadin.flow.component.PushConfiguration;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.shared.communication.PushMode;
+
+public class IdleNotificationBroadcastTest {
+
+    private static final int MAX_INACTIVE_INTERVAL = 600;
+
+    private final long now = 1_000_000_000L;
+    private SessionIdleTracker tracker;
+    private ManualScheduler scheduler;
+    private final List<TestSession> pushedSessions = new ArrayList<>();
+    private final List<TestSession> unpushedSessions = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        tracker = new SessionIdleTracker(() -> now, new DirectExecutorService());
+        scheduler = new ManualScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        tracker.shutdown();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void start_dispatchesBatchesAtTheInterval() {
+        addSessions(5, 0);
+
+        IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.expireIn(60).batchSize(2)
+                .batchInterval(250).start(tracker, scheduler);
+
+        assertEquals(5, progress.getTotal());
+        assertEquals(250, scheduler.unit.toMillis(scheduler.delay));
+        assertEquals(0, progress.getDispatched());
+        scheduler.runBatch();
+        assertEquals(2, progress.getDispatched());
+        scheduler.runBatch();
+        assertEquals(4, progress.getDispatched());
+        assertFalse(scheduler.isShutdown());
+        scheduler.runBatch();
+        assertEquals(5, progress.getDispatched());
+        assertTrue(scheduler.isShutdown());
+    }
+
+    @Test
+    public void start_movesTheDeadlinesOfPushedSessionsOnly() {
+        addSessions(3, 2);
+
+        IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.expireIn(60).batchSize(10)
+                .start(tracker, scheduler);
+        scheduler.runBatch();
+
+        assertEquals(5, progress.getDispatched());
+        assertEquals(3, progress.getUpdated());
+        assertEquals(3, progress.getPushed());
+        assertEquals(2, progress.getSkipped());
+        pushedSessions.forEach(session -> assertEquals(60, tracker.getSecondsRemaining(session)));
+        unpushedSessions.forEach(
+                session -> assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session)));
+    }
+
+    @Test
+    public void start_sessionTimingOutEarlierAnyway_isNotUpdated() {
+        addSessions(1, 0);
+
+        IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.expireIn(MAX_INACTIVE_INTERVAL)
+                .start(tracker, scheduler);
+        scheduler.runBatch();
+
+        assertEquals(1, progress.getDispatched());
+        assertEquals(0, progress.getUpdated());
+        assertEquals(0, progress.getPushed());
+    }
+
+    @Test
+    public void start_completesOnceAllSessionsHaveBeenUpdated() throws Exception {
+        addSessions(2, 1);
+
+        IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.warn().batchSize(2)
+                .start(tracker, scheduler);
+        scheduler.runBatch();
+        assertFalse(progress.getCompletion().isDone());
+        scheduler.runBatch();
+
+        assertTrue(progress.getCompletion().isDone());
+        assertSame(progress, progress.getCompletion().get());
+    }
+
+    @Test
+    public void start_withoutSessions_completesRightAway() {
+        IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.warn().start(tracker, scheduler);
+
+        assertTrue(progress.getCompletion().isDone());
+        assertEquals(0, progress.getTotal());
+        assertTrue(scheduler.isShutdown());
+    }
+
+    @Test
+    public void cancel_stopsDispatchingAndCompletes() {
+        addSessions(5, 0);
+
+        IdleNotificationBroadcast.Progress progress = IdleNotificationBroadcast.expireIn(60).batchSize(2)
+                .start(tracker, scheduler);
+        scheduler.runBatch();
+        progress.cancel();
+        scheduler.runBatch();
+
+        assertTrue(scheduler.isShutdown());
+        assertTrue(progress.getCompletion().isDone());
+        assertEquals(2, progress.getDispatched());
+        assertEquals(2, progress.getUpdated());
+    }
+
+    @Test
+    public void getOffsetSeconds_spreadsEvenlyFromZeroToTheWindow() {
+        IdleNotificationBroadcast broadcast = IdleNotificationBroadcast.expireIn(300).spread(120);
+        int[] offsets = new int[5];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = broadcast.getOffsetSeconds(i, offsets.length);
+        }
+        assertArrayEquals(new int[] { 0, 30, 60, 90, 120 }, offsets);
+    }
+
+    @Test
+    public void getOffsetSeconds_singleSession_getsNoOffset() {
+        assertEquals(0, IdleNotificationBroadcast.expireIn(300).spread(120).getOffsetSeconds(0, 1));
+    }
+
+    @Test
+    public void getOffsetSeconds_withoutSpread_isZero() {
+        IdleNotificationBroadcast broadcast = IdleNotificationBroadcast.warn();
+        assertEquals(0, broadcast.getOffsetSeconds(0, 1000));
+        assertEquals(0, broadcast.getOffsetSeconds(999, 1000));
+    }
+
+    @Test
+    public void getOffsetSeconds_manySessions_staysWithinTheWindowAndIncreases() {
+        IdleNotificationBroadcast broadcast = IdleNotificationBroadcast.expireIn(0).spread(86_400);
+        int count = 1_000_001;
+        int previous = 0;
+        for (int i = 0; i < count; i += 997) {
+            int offset = broadcast.getOffsetSeconds(i, count);
+            assertTrue(offset >= previous && offset <= 86_400);
+            previous = offset;
+        }
+        // spread * index doesn't overflow an int
+        assertEquals(86_400, broadcast.getOffsetSeconds(count - 1, count));
+        assertEquals(43_200, broadcast.getOffsetSeconds((count - 1) / 2, count));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expireIn_rejectsNegativeSeconds() {
+        IdleNotificationBroadcast.expireIn(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spread_rejectsNegativeSeconds() {
+        IdleNotificationBroadcast.warn().spread(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchSize_rejectsZero() {
+        IdleNotificationBroadcast.warn().batchSize(0);
+    }
+
+    /**
+     * Registers the given number of sessions whose notification is attached to
+     * a UI with push enabled, and of sessions without push
+     */
+    private void addSessions(int pushed, int unpushed) {
+        for (int i = 0; i < pushed + unpushed; i++) {
+            TestSession session = new TestSession("session-" + i);
+            boolean push = i < pushed;
+            tracker.register(new TestNotification(push), session);
+            (push ? pushedSessions : unpushedSessions).add(session);
+        }
+    }
+
+    /**
+     * A notification attached to a UI with the given push mode
+     */
+    private static class TestNotification extends IdleNotification {
+
+        private final UI ui;
+
+        TestNotification(boolean push) {
+            super(DEFAULT_BEFORE_EXPIRE_MESSAGE, 60, MAX_INACTIVE_INTERVAL);
+            PushConfiguration pushConfiguration = (PushConfiguration) Proxy.newProxyInstance(
+                    PushConfiguration.class.getClassLoader(), new Class<?>[] { PushConfiguration.class },
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("getPushMode")) {
+                            return push ? PushMode.AUTOMATIC : PushMode.DISABLED;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            ui = new UI() {
+                @Override
+                public PushConfiguration getPushConfiguration() {
+                    return pushConfiguration;
+                }
+            };
+        }
+
+        @Override
+        public Optional<UI> getUI() {
+            // called by the super constructor before the UI is set
+            return Optional.ofNullable(ui);
+        }
+    }
+
+    /**
+     * A scheduler that runs the task scheduled with a fixed delay only when
+     * {@link #runBatch()} is called, and no longer once it has been shut down
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private Runnable task;
+        private long delay;
+        private TimeUnit unit;
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                TimeUnit unit) {
+            this.task = command;
+            this.delay = delay;
+            this.unit = unit;
+            return null;
+        }
+
+        void runBatch() {
+            if (!isShutdown()) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import elemental.json.JsonObject;
+
+public class IdleNotificationConfigTest {
+
+    @Test
+    public void toJson_isCreatedOnce() {
+        IdleNotificationConfig config = IdleNotificationConfig.builder().build();
+        assertSame(config.toJson(), config.toJson());
+    }
+
+    @Test
+    public void toJson_compilesTheMessages() {
+        JsonObject json = IdleNotificationConfig.builder().message("Expires in ${SECS_TO_TIMEOUT} seconds")
+                .afterExpiredMessage("Expired").build().toJson();
+        assertEquals("[\"Expires in \",0,\" seconds\"]", json.get("beforeExpiredMessage").toJson());
+        assertEquals("[\"Expired\"]", json.get("afterExpiredMessage").toJson());
+    }
+
+    @Test
+    public void toJson_leavesOutUnsetOptionalProperties() {
+        JsonObject json = IdleNotificationConfig.builder().build().toJson();
+        assertFalse(json.hasKey("maxInactiveInterval"));
+        assertFalse(json.hasKey("extendSessionButtonCaption"));
+        assertFalse(json.hasKey("redirectButtonCaption"));
+        assertFalse(json.hasKey("redirectAtTimeoutUrl"));
+        assertFalse(json.hasKey("activityRules"));
+    }
+
+    @Test
+    public void toJson_writesTheConfiguredProperties() {
+        JsonObject json = IdleNotificationConfig.builder().secondsBeforeNotification(30).maxInactiveInterval(600)
+                .extendSessionButton("Extend").redirectButton("Leave", "logout")
+                .activityRule(ActivityRule.POLL).lazyDialog(true).build().toJson();
+        assertEquals(30, json.getNumber("secondsBeforeNotification"), 0);
+        assertEquals(600, json.getNumber("maxInactiveInterval"), 0);
+        assertEquals("Extend", json.getString("extendSessionButtonCaption"));
+        assertEquals("Leave", json.getString("redirectButtonCaption"));
+        assertEquals("logout", json.getString("redirectButtonUrl"));
+        assertEquals(ActivityRule.toJson(Collections.singletonList(ActivityRule.POLL)).toJson(),
+                json.get("activityRules").toJson());
+        assertTrue(json.getBoolean("lazyDialog"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_rejectsNotificationNotBeforeTimeout() {
+        IdleNotificationConfig.builder().secondsBeforeNotification(60).maxInactiveInterval(60).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_rejectsNonPositiveSecondsBeforeNotification() {
+        IdleNotificationConfig.builder().secondsBeforeNotification(0).build();
+    }
+}
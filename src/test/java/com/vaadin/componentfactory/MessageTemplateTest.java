@@ -0,0 +1,75 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MessageTemplateTest {
+
+    @Test
+    public void compile_literalMessage_isSingleSegment() {
+        assertCompiled("[\"Your session has expired.\"]", "Your session has expired.");
+    }
+
+    @Test
+    public void compile_emptyMessage_hasNoSegments() {
+        assertCompiled("[]", "");
+    }
+
+    @Test
+    public void compile_placeholders_becomeTheirCodes() {
+        assertCompiled("[\"Expires in \",0,\" of \",1,\" seconds\"]",
+                "Expires in ${SECS_TO_TIMEOUT} of ${SECS_MAX_IDLE_TIMEOUT} seconds");
+    }
+
+    @Test
+    public void compile_adjacentPlaceholders_haveNoLiteralInBetween() {
+        assertCompiled("[2,\":\",3]", IdleNotification.MessageFormatting.SECS_AND_MINUTES_TO_TIMEOUT.toString());
+        assertCompiled("[0,0]", "${SECS_TO_TIMEOUT}${SECS_TO_TIMEOUT}");
+    }
+
+    @Test
+    public void compile_unknownExpressions_stayLiteral() {
+        assertCompiled("[\"${alert(1)} \",0,\" ${\"]", "${alert(1)} ${SECS_TO_TIMEOUT} ${");
+        assertCompiled("[\"$\",0,\"$\"]", "$${SECS_TO_TIMEOUT}$");
+    }
+
+    @Test
+    public void compile_defaultMessage() {
+        assertCompiled("[\"Your session will expire in less than \",0,\" seconds. \"]",
+                IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE);
+    }
+
+    @Test
+    public void placeholderCodes_matchMessageFormatting() {
+        // the codes are the MESSAGE_PLACEHOLDER_* constants of idle-notification-message.js
+        assertEquals("${SECS_TO_TIMEOUT}", MessageTemplate.PLACEHOLDERS[0]);
+        assertEquals("${SECS_MAX_IDLE_TIMEOUT}", MessageTemplate.PLACEHOLDERS[1]);
+        assertEquals("${MINUTES_TO_TIMEOUT}", MessageTemplate.PLACEHOLDERS[2]);
+        assertEquals("${SECS_OVER_MINUTES_TO_TIMEOUT}", MessageTemplate.PLACEHOLDERS[3]);
+        assertEquals(IdleNotification.MessageFormatting.SECS_TO_TIMEOUT.toString(), MessageTemplate.PLACEHOLDERS[0]);
+        assertEquals(IdleNotification.MessageFormatting.SECS_MAX_IDLE_TIMEOUT.toString(),
+                MessageTemplate.PLACEHOLDERS[1]);
+    }
+
+    private static void assertCompiled(String expectedJson, String message) {
+        assertEquals(expectedJson, MessageTemplate.compile(message).toJson());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.componentfactory.SessionIdleTrackerTest.DirectExecutorService;
+import com.vaadin.componentfactory.SessionIdleTrackerTest.TestSession;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+public class SessionActivityRequestHandlerTest {
+
+    private static final String START_NANOS_ATTRIBUTE = SessionActivityRequestHandler.class.getName()
+            + ".requestStartNanos";
+
+    private long now = 1_000_000_000L;
+    private SessionIdleTracker tracker;
+    private SessionActivityRequestHandler handler;
+    private TestSession session;
+
+    @Before
+    public void setUp() {
+        tracker = new SessionIdleTracker(() -> now, new DirectExecutorService());
+        handler = new SessionActivityRequestHandler(tracker);
+        session = new TestSession("a");
+        tracker.register(new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE, 60, 600), session);
+        now += 100_000;
+    }
+
+    @After
+    public void tearDown() {
+        tracker.shutdown();
+    }
+
+    @Test
+    public void uidlRequest_isRecordedAsActivity() {
+        assertFalse(handle(new FakeRequest(ApplicationConstants.REQUEST_TYPE_UIDL)));
+
+        assertEquals(600, tracker.getSecondsRemaining(session));
+    }
+
+    @Test
+    public void uidlRequest_withMetrics_recordsItsStartTime() {
+        tracker.setMetrics(new IdleNotificationMetrics() {
+        });
+        VaadinRequest request = new FakeRequest(ApplicationConstants.REQUEST_TYPE_UIDL).session(session.getSession())
+                .create();
+
+        handler.handleRequest(session, request, new FakeResponse().create());
+
+        assertTrue(request.getAttribute(START_NANOS_ATTRIBUTE) instanceof Long);
+    }
+
+    @Test
+    public void uidlRequest_withoutMetrics_recordsNoStartTime() {
+        VaadinRequest request = new FakeRequest(ApplicationConstants.REQUEST_TYPE_UIDL).session(session.getSession())
+                .create();
+
+        handler.handleRequest(session, request, new FakeResponse().create());
+
+        assertNull(request.getAttribute(START_NANOS_ATTRIBUTE));
+    }
+
+    @Test
+    public void pushPost_isRecordedAsActivity() {
+        handle(new FakeRequest("push").method("POST"));
+
+        assertEquals(600, tracker.getSecondsRemaining(session));
+    }
+
+    @Test
+    public void pushGet_isNotRecorded() {
+        handle(new FakeRequest("push").method("GET"));
+
+        assertEquals(500, tracker.getSecondsRemaining(session));
+    }
+
+    @Test
+    public void requestClassifiedAsNoActivity_isNotRecorded() {
+        handle(new FakeRequest(ApplicationConstants.REQUEST_TYPE_UIDL).header(ActivityRule.NO_ACTIVITY_HEADER,
+                "1"));
+
+        assertEquals(500, tracker.getSecondsRemaining(session));
+    }
+
+    @Test
+    public void heartbeat_isNotRecorded() {
+        handle(new FakeRequest(ApplicationConstants.REQUEST_TYPE_HEARTBEAT));
+
+        assertEquals(500, tracker.getSecondsRemaining(session));
+    }
+
+    private boolean handle(FakeRequest request) {
+        return handler.handleRequest(session, request.session(session.getSession()).create(),
+                new FakeResponse().create());
+    }
+}
@@ -0,0 +1,771 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+
+public class SessionIdleTrackerTest {
+
+    private static final int MAX_INACTIVE_INTERVAL = 600;
+    private static final int SECONDS_BEFORE_NOTIFICATION = 60;
+    // the wheel fires deadlines on the tick after them
+    private static final long TICK = 500;
+
+    private long now = 1_000_000_000L;
+    private SessionIdleTracker tracker;
+    private InMemorySessionActivityStore activityStore;
+    private final List<VaadinSession> warned = new ArrayList<>();
+    private final List<VaadinSession> timedOut = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        tracker = new SessionIdleTracker(() -> now, new DirectExecutorService());
+        activityStore = new InMemorySessionActivityStore();
+        tracker.setActivityStore(activityStore);
+        tracker.addWarningListener(warned::add);
+        tracker.addTimeoutListener(timedOut::add);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.shutdown();
+    }
+
+    @Test
+    public void register_tracksSessionWithTheDeadlineOfTheComponent() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+
+        assertEquals(1, tracker.getSessionCount());
+        assertEquals(Collections.singletonList(session), tracker.getSessions());
+        assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session));
+        assertEquals(now + MAX_INACTIVE_INTERVAL * 1000L, activityStore.getExpiresAt("a"));
+    }
+
+    @Test
+    public void register_sameComponentTwice_isTrackedOnce() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        tracker.register(notification, session);
+        tracker.register(notification, session);
+
+        assertEquals(1, tracker.getSessionCount());
+        assertEquals(Collections.singletonList(notification), tracker.getIdleNotifications(session));
+    }
+
+    @Test
+    public void register_differentlyConfiguredComponents_followsTheEarliestDeadlines() {
+        TestSession session = new TestSession("a");
+        IdleNotification shorter = new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE, 30, 300);
+        tracker.register(shorter, session);
+        // attached last, e.g. in another tab
+        tracker.register(createNotification(), session);
+
+        assertEquals(300, tracker.getSecondsRemaining(session));
+        assertEquals(now + 300_000L, activityStore.getExpiresAt("a"));
+        advanceTo(270_000L - TICK);
+        assertTrue(warned.isEmpty());
+        advanceTo(270_000L + TICK);
+        assertEquals(Collections.singletonList(session), warned);
+        advanceTo(300_000L + TICK);
+        assertEquals(Collections.singletonList(session), timedOut);
+    }
+
+    @Test
+    public void unregister_componentWithTheShortestTimeout_restoresTheTimeoutOfTheOthers() {
+        TestSession session = new TestSession("a");
+        IdleNotification shorter = new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE, 30, 300);
+        tracker.register(createNotification(), session);
+        tracker.register(shorter, session);
+
+        tracker.unregister(shorter, session);
+
+        assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session));
+        assertEquals(now + MAX_INACTIVE_INTERVAL * 1000L, activityStore.getExpiresAt("a"));
+        advanceTo((MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L - TICK);
+        assertTrue(warned.isEmpty());
+    }
+
+    @Test
+    public void advance_warnsAndThenTimesOut() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        List<IdleNotification.TimeoutEvent> events = new ArrayList<>();
+        notification.addTimeoutListener(events::add);
+        tracker.register(notification, session);
+
+        advanceTo((MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L - TICK);
+        assertTrue(warned.isEmpty());
+
+        advanceTo((MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L + TICK);
+        assertEquals(Collections.singletonList(session), warned);
+        assertTrue(timedOut.isEmpty());
+
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+        assertEquals(Collections.singletonList(session), timedOut);
+        assertEquals(1, events.size());
+        assertEquals(0, tracker.getSecondsRemaining(session));
+        assertTrue(tracker.getSessions().isEmpty());
+    }
+
+    @Test
+    public void touch_postponesTheDeadlines() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        long start = now;
+
+        now += 500_000;
+        tracker.touch(session.getSession());
+
+        assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session));
+        assertEquals(now + MAX_INACTIVE_INTERVAL * 1000L, activityStore.getExpiresAt("a"));
+        advanceTo(now - start + (MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L - TICK);
+        assertTrue(warned.isEmpty());
+    }
+
+    @Test
+    public void touch_afterTheWarning_warnsAgainOnceIdle() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        advanceTo((MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L + TICK);
+        assertEquals(1, warned.size());
+
+        advanceTo(550_000L);
+        tracker.touch(session.getSession());
+
+        advanceTo(550_000L + (MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L - TICK);
+        assertEquals(1, warned.size());
+        assertTrue(timedOut.isEmpty());
+        advanceTo(550_000L + (MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L + TICK);
+        assertEquals(2, warned.size());
+    }
+
+    @Test
+    public void touch_doesNotWaitForTheTrackerLock() throws Exception {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        now += 100_000;
+
+        // as while the ticker advances the wheel
+        synchronized (tracker) {
+            CompletableFuture.runAsync(() -> tracker.touch(session.getSession())).get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session));
+        assertEquals(now + MAX_INACTIVE_INTERVAL * 1000L, activityStore.getExpiresAt("a"));
+    }
+
+    @Test
+    public void touch_untrackedSessionWithNotification_recordsActivityInStore() {
+        TestSession session = new TestSession("a");
+        session.getSession().setAttribute(SessionTouchRequestHandler.SESSION_MARKER_ATTRIBUTE, Boolean.TRUE);
+
+        tracker.touch(session.getSession());
+
+        assertEquals(0, tracker.getSessionCount());
+        assertEquals(now + MAX_INACTIVE_INTERVAL * 1000L, activityStore.getExpiresAt("a"));
+    }
+
+    @Test
+    public void activityStore_isWrittenWithoutHoldingTheTrackerLock() {
+        List<Boolean> locked = new ArrayList<>();
+        tracker.setActivityStore(new InMemorySessionActivityStore() {
+            @Override
+            public void recordActivity(String sessionId, long expiresAtMillis) {
+                locked.add(Thread.holdsLock(tracker));
+            }
+
+            @Override
+            public void setDeadline(String sessionId, long expiresAtMillis) {
+                locked.add(Thread.holdsLock(tracker));
+            }
+        });
+        TestSession session = new TestSession("a");
+        TestSession untracked = new TestSession("b");
+        untracked.getSession().setAttribute(SessionTouchRequestHandler.SESSION_MARKER_ATTRIBUTE, Boolean.TRUE);
+
+        tracker.register(createNotification(), session);
+        tracker.touch(session.getSession());
+        tracker.touch(untracked.getSession());
+        tracker.setSecondsRemaining(session, 30);
+
+        assertEquals(Arrays.asList(false, false, false, false), locked);
+    }
+
+    @Test
+    public void setSecondsRemaining_movesTheDeadlines() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        long start = now;
+
+        tracker.setSecondsRemaining(session, 30);
+        advanceTo(TICK);
+        assertEquals(Collections.singletonList(session), warned);
+
+        advanceTo(30_000 + TICK);
+        assertEquals(Collections.singletonList(session), timedOut);
+        assertTrue(now - start < (MAX_INACTIVE_INTERVAL - SECONDS_BEFORE_NOTIFICATION) * 1000L);
+    }
+
+    @Test
+    public void setSecondsRemaining_movesTheStoredDeadlineEarlier() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+
+        tracker.setSecondsRemaining(session, 30);
+
+        assertEquals(now + 30_000L, activityStore.getExpiresAt("a"));
+    }
+
+    @Test
+    public void setTimeoutScale_shortensTheStoredDeadline() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        tracker.register(notification, session);
+
+        // as IdleNotification does for each of its sessions once the tracker scales their timeouts
+        notification.applyTimeoutScale(tracker, session, 0.5, 120);
+
+        assertEquals(now + MAX_INACTIVE_INTERVAL / 2 * 1000L, activityStore.getExpiresAt("a"));
+    }
+
+    @Test
+    public void advance_sessionsTimingOutTogether_areReportedInOneBulk() {
+        List<List<VaadinSession>> bulks = new ArrayList<>();
+        tracker.addBulkTimeoutListener(bulks::add);
+        TestSession a = new TestSession("a");
+        TestSession b = new TestSession("b");
+        tracker.register(createNotification(), a);
+        tracker.register(createNotification(), b);
+
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+
+        assertEquals(1, bulks.size());
+        assertEquals(Arrays.asList(a, b), bulks.get(0));
+    }
+
+    @Test
+    public void remove_beforeTimeout_stopsTrackingWithoutTimeout() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+
+        tracker.remove(session);
+
+        assertEquals(0, tracker.getSessionCount());
+        assertEquals(-1, activityStore.getExpiresAt("a"));
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+        assertTrue(warned.isEmpty());
+        assertTrue(timedOut.isEmpty());
+    }
+
+    @Test
+    public void remove_sessionExpiredByContainer_firesTimeout() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        List<IdleNotification.TimeoutEvent> events = new ArrayList<>();
+        notification.addTimeoutListener(events::add);
+        tracker.register(notification, session);
+
+        now += MAX_INACTIVE_INTERVAL * 1000L;
+        tracker.remove(session);
+
+        assertEquals(Collections.singletonList(session), timedOut);
+        assertEquals(1, events.size());
+        assertEquals(0, tracker.getSessionCount());
+    }
+
+    @Test
+    public void remove_sessionDestroyedByContainer_firesTimeoutOfItsClosedUis() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        tracker.register(notification, session);
+        now += MAX_INACTIVE_INTERVAL * 1000L;
+
+        // the order of VaadinService.fireSessionDestroy: the container has invalidated the HttpSession, the UIs
+        // are closed and detached, and then the session destroy listeners are called
+        session.getSession().invalidated = true;
+        session.access(() -> {
+            tracker.unregister(notification, session);
+            tracker.remove(session);
+        });
+
+        assertEquals(Collections.singletonList(session), timedOut);
+        assertEquals(0, tracker.getSessionCount());
+    }
+
+    @Test
+    public void remove_httpSessionThrows_findsTheSlotWithoutReadingIt() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        now += MAX_INACTIVE_INTERVAL * 1000L;
+        // the container may have unbound the slot attribute, or invalidated the HttpSession, already
+        session.getSession().invalidated = true;
+        int attributeReads = session.getSession().attributeReads;
+
+        tracker.remove(session);
+
+        assertEquals(attributeReads, session.getSession().attributeReads);
+        assertEquals(Collections.singletonList(session), timedOut);
+        assertEquals(0, tracker.getSessionCount());
+        assertEquals(-1, activityStore.getExpiresAt("a"));
+    }
+
+    @Test
+    public void remove_untrackedSessions_takesConstantTimePerSession() {
+        IdleNotification notification = createNotification();
+        List<TestSession> tracked = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            TestSession session = new TestSession("tracked-" + i);
+            tracker.register(notification, session);
+            tracked.add(session);
+        }
+        TestSession untracked = new TestSession("untracked");
+        untracked.getSession().invalidated = true;
+
+        // a scan of the tracked sessions per destroyed session would take billions of steps
+        long start = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            tracker.remove(untracked);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("removing took " + elapsedMillis + " ms", elapsedMillis < 1000);
+        assertEquals(0, untracked.getSession().attributeReads);
+        assertEquals(tracked.size(), tracker.getSessionCount());
+    }
+
+    @Test
+    public void unregister_invalidatedSession_stopsTrackingTheComponent() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        tracker.register(notification, session);
+        session.getSession().invalidated = true;
+
+        tracker.unregister(notification, session);
+
+        session.getSession().invalidated = false;
+        assertTrue(tracker.getIdleNotifications(session).isEmpty());
+    }
+
+    @Test
+    public void unregister_componentsOfClosedUis_areReleased() {
+        TestSession session = new TestSession("a");
+        // one UI per reload of the page
+        for (int i = 0; i < 100; i++) {
+            IdleNotification notification = createNotification();
+            tracker.register(notification, session);
+            tracker.unregister(notification, session);
+        }
+
+        assertTrue(tracker.getIdleNotifications(session).isEmpty());
+        assertEquals(Collections.singletonList(session), tracker.getSessions());
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+        assertEquals(Collections.singletonList(session), timedOut);
+    }
+
+    @Test
+    public void advance_timeoutOfClosedUi_isCountedInTheMetrics() {
+        CountingMetrics metrics = new CountingMetrics();
+        tracker.setMetrics(metrics);
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        tracker.register(notification, session);
+
+        tracker.unregister(notification, session);
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+
+        assertEquals(1, metrics.timedOut);
+    }
+
+    @Test
+    public void setMetrics_afterRegister_reportsTheEventsOfTheRegisteredNotifications() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        tracker.register(notification, session);
+        CountingMetrics metrics = new CountingMetrics();
+
+        tracker.setMetrics(metrics);
+        ComponentUtil.fireEvent(notification, new IdleNotification.OpenEvent(notification, true));
+
+        assertEquals(1, metrics.opened);
+    }
+
+    @Test
+    public void advance_detachedComponent_receivesNoTimeoutEvent() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        List<IdleNotification.TimeoutEvent> events = new ArrayList<>();
+        notification.addTimeoutListener(events::add);
+        tracker.register(notification, session);
+
+        tracker.unregister(notification, session);
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+
+        assertTrue(events.isEmpty());
+        assertEquals(Collections.singletonList(session), timedOut);
+    }
+
+    @Test
+    public void touch_timedOutSession_becomesActiveAgain() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+        assertEquals(0, tracker.getSecondsRemaining(session));
+
+        // the session hasn't been invalidated, and the user is back
+        tracker.touch(session.getSession());
+
+        // what IdleNotification.pokeServer answers the client extending the session
+        assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session));
+        assertEquals(Collections.singletonList(session), tracker.getSessions());
+        assertEquals(now + MAX_INACTIVE_INTERVAL * 1000L, activityStore.getExpiresAt("a"));
+        tracker.setSecondsRemaining(session, 30);
+        assertEquals(30, tracker.getSecondsRemaining(session));
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + 30_000L + 2 * TICK);
+        assertEquals(2, warned.size());
+        assertEquals(2, timedOut.size());
+    }
+
+    @Test
+    public void register_timedOutSession_becomesActiveAgain() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+
+        // e.g. the page has been reloaded
+        tracker.register(createNotification(), session);
+
+        assertEquals(MAX_INACTIVE_INTERVAL, tracker.getSecondsRemaining(session));
+        advanceTo(2 * MAX_INACTIVE_INTERVAL * 1000L + 2 * TICK);
+        assertEquals(2, warned.size());
+        assertEquals(2, timedOut.size());
+    }
+
+    @Test
+    public void advance_invalidateSessionOnTimeout_invalidatesTheSession() {
+        TestSession session = new TestSession("a");
+        IdleNotification notification = createNotification();
+        notification.setInvalidateSessionOnTimeout(true);
+        tracker.register(notification, session);
+
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+
+        assertTrue(session.getSession().invalidated);
+    }
+
+    @Test
+    public void advance_withoutInvalidateSessionOnTimeout_keepsTheSession() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+
+        advanceTo(MAX_INACTIVE_INTERVAL * 1000L + TICK);
+
+        assertFalse(session.getSession().invalidated);
+    }
+
+    @Test
+    public void setTimeoutScale_keepsTheUnscaledTimeoutForNewNotifications() {
+        TestSession session = new TestSession("a");
+        tracker.register(createNotification(), session);
+
+        tracker.setTimeoutScale(0.5, 120);
+
+        assertEquals(MAX_INACTIVE_INTERVAL / 2, session.getSession().getMaxInactiveInterval());
+        VaadinSession.setCurrent(session);
+        try {
+            assertEquals(MAX_INACTIVE_INTERVAL, new IdleNotification(90).getMaxInactiveInterval());
+        } finally {
+            VaadinSession.setCurrent(null);
+        }
+
+        tracker.setTimeoutScale(1, 120);
+
+        assertEquals(MAX_INACTIVE_INTERVAL, session.getSession().getMaxInactiveInterval());
+        assertNull(session.getSession()
+                .getAttribute(SessionIdleTracker.UNSCALED_MAX_INACTIVE_INTERVAL_ATTRIBUTE));
+    }
+
+    @Test
+    public void setTimeoutScale_onlyTimesOutSessionsIdleForTheScaledTimeout() {
+        TestSession active = new TestSession("a");
+        TestSession idle = new TestSession("b");
+        tracker.register(createNotification(), active);
+        tracker.register(createNotification(), idle);
+        advanceTo(400_000L);
+        tracker.touch(active.getSession());
+
+        tracker.setTimeoutScale(0.5, 120);
+
+        // idle for longer than the scaled timeout already
+        advanceTo(400_000L + 2 * TICK);
+        assertEquals(Collections.singletonList(idle), timedOut);
+        // the active session keeps the whole scaled timeout from its last activity, and postpones it when used
+        assertEquals(MAX_INACTIVE_INTERVAL / 2, tracker.getSecondsRemaining(active));
+        advanceTo(600_000L);
+        tracker.touch(active.getSession());
+        advanceTo(800_000L);
+        tracker.touch(active.getSession());
+        assertEquals(Collections.singletonList(idle), timedOut);
+        advanceTo(800_000L + MAX_INACTIVE_INTERVAL / 2 * 1000L + TICK);
+        assertEquals(Arrays.asList(idle, active), timedOut);
+    }
+
+    /**
+     * Moves the clock to the given number of milliseconds after the start of
+     * the test, one tick at a time, as the ticker thread does
+     */
+    private void advanceTo(long millis) {
+        long target = 1_000_000_000L + millis;
+        while (now < target) {
+            now = Math.min(now + TICK, target);
+            tracker.advance();
+        }
+    }
+
+    private static IdleNotification createNotification() {
+        return new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE, SECONDS_BEFORE_NOTIFICATION,
+                MAX_INACTIVE_INTERVAL);
+    }
+
+    /**
+     * A {@link VaadinSession} backed by an in-memory HttpSession stand-in,
+     * which runs {@link #access(Command)} right away
+     */
+    static class TestSession extends VaadinSession {
+
+        private final TestWrappedSession wrappedSession;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        TestSession(String id) {
+            super(null);
+            wrappedSession = new TestWrappedSession(id);
+        }
+
+        @Override
+        public TestWrappedSession getSession() {
+            return wrappedSession;
+        }
+
+        @Override
+        public Lock getLockInstance() {
+            return lock;
+        }
+
+        @Override
+        public void lock() {
+            lock.lock();
+        }
+
+        @Override
+        public void unlock() {
+            lock.unlock();
+        }
+
+        @Override
+        public boolean hasLock() {
+            return lock.isHeldByCurrentThread();
+        }
+
+        @Override
+        public Future<Void> access(Command command) {
+            lock();
+            try {
+                command.execute();
+            } finally {
+                unlock();
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * An in-memory HttpSession, which throws like a servlet container once it
+     * has been invalidated
+     */
+    static class TestWrappedSession implements WrappedSession {
+
+        private final String id;
+        private final Map<String, Object> attributes = new HashMap<>();
+        private int maxInactiveInterval = MAX_INACTIVE_INTERVAL;
+        boolean invalidated;
+        int attributeReads;
+        int attributeWrites;
+
+        TestWrappedSession(String id) {
+            this.id = id;
+        }
+
+        private void checkValid() {
+            if (invalidated) {
+                throw new IllegalStateException("Session already invalidated");
+            }
+        }
+
+        @Override
+        public int getMaxInactiveInterval() {
+            checkValid();
+            return maxInactiveInterval;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            attributeReads++;
+            checkValid();
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            checkValid();
+            attributeWrites++;
+            attributes.put(name, value);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            checkValid();
+            return Collections.unmodifiableSet(attributes.keySet());
+        }
+
+        @Override
+        public void invalidate() {
+            checkValid();
+            invalidated = true;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getCreationTime() {
+            checkValid();
+            return 0;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            checkValid();
+            return 0;
+        }
+
+        @Override
+        public boolean isNew() {
+            checkValid();
+            return false;
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            checkValid();
+            attributes.remove(name);
+        }
+
+        @Override
+        public void setMaxInactiveInterval(int interval) {
+            checkValid();
+            maxInactiveInterval = interval;
+        }
+    }
+
+    /**
+     * Counts the notifications opened and the sessions timed-out
+     */
+    static class CountingMetrics implements IdleNotificationMetrics {
+
+        int opened;
+        int timedOut;
+
+        @Override
+        public void notificationOpened() {
+            opened++;
+        }
+
+        @Override
+        public void sessionTimedOut() {
+            timedOut++;
+        }
+    }
+
+    /**
+     * Runs the callbacks of the tracker on the calling thread, so that they
+     * have completed when {@link SessionIdleTracker#advance()} returns
+     */
+    static class DirectExecutorService extends AbstractExecutorService {
+
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.componentfactory.SessionIdleTrackerTest.DirectExecutorService;
+import com.vaadin.componentfactory.SessionIdleTrackerTest.TestSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+public class SessionTouchRequestHandlerTest {
+
+    private long now = 1_000_000_000L;
+    private int extensions;
+    private SessionIdleTracker tracker;
+    private SessionTouchRequestHandler handler;
+    private TestSession session;
+    private String token;
+
+    @Before
+    public void setUp() {
+        tracker = new SessionIdleTracker(() -> now, new DirectExecutorService());
+        tracker.setMetrics(new IdleNotificationMetrics() {
+            @Override
+            public void sessionExtended() {
+                extensions++;
+            }
+        });
+        handler = new SessionTouchRequestHandler(tracker);
+        session = new TestSession("a");
+        token = SessionTouchRequestHandler.getToken(session.getSession());
+        tracker.register(new IdleNotification(IdleNotification.DEFAULT_BEFORE_EXPIRE_MESSAGE, 60, 600), session);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.shutdown();
+    }
+
+    @Test
+    public void handleRequest_otherRequestType_isNotHandled() throws IOException {
+        FakeResponse response = new FakeResponse();
+
+        assertFalse(handler.handleRequest(session,
+                new FakeRequest(ApplicationConstants.REQUEST_TYPE_UIDL).session(session.getSession()).create(),
+                response.create()));
+        assertEquals(-1, response.status);
+    }
+
+    @Test
+    public void handleRequest_extendsSessionAndAnswersSecondsRemaining() throws IOException {
+        now += 100_000;
+        FakeResponse response = new FakeResponse();
+
+        assertTrue(handler.handleRequest(session, touch().create(), response.create()));
+
+        assertEquals(200, response.status);
+        assertEquals("text/plain", response.contentType);
+        assertEquals("600", response.getBody());
+        assertEquals(600, tracker.getSecondsRemaining(session));
+        assertEquals(1, extensions);
+    }
+
+    @Test
+    public void handleRequest_beacon_answersNoContent() throws IOException {
+        now += 100_000;
+        FakeResponse response = new FakeResponse();
+
+        handler.handleRequest(session, touch().parameter(SessionTouchRequestHandler.BEACON_PARAMETER, "").create(),
+                response.create());
+
+        assertEquals(204, response.status);
+        assertEquals("", response.getBody());
+        assertEquals(600, tracker.getSecondsRemaining(session));
+    }
+
+    @Test
+    public void handleRequest_activity_isNotCountedAsExtension() throws IOException {
+        handler.handleRequest(session,
+                touch().parameter(SessionTouchRequestHandler.ACTIVITY_PARAMETER, "").create(),
+                new FakeResponse().create());
+
+        assertEquals(0, extensions);
+    }
+
+    @Test
+    public void handleRequest_withoutToken_isForbidden() throws IOException {
+        now += 100_000;
+        FakeResponse response = new FakeResponse();
+
+        handler.handleRequest(session,
+                new FakeRequest(SessionTouchRequestHandler.REQUEST_TYPE).session(session.getSession()).create(),
+                response.create());
+
+        assertEquals(403, response.status);
+        assertEquals(500, tracker.getSecondsRemaining(session));
+        assertEquals(0, extensions);
+    }
+
+    @Test
+    public void handleRequest_withTokenOfAnotherSession_isForbidden() throws IOException {
+        FakeResponse response = new FakeResponse();
+
+        handler.handleRequest(session, touch().parameter(SessionTouchRequestHandler.CSRF_TOKEN_PARAMETER,
+                SessionTouchRequestHandler.getToken(new TestSession("b").getSession())).create(), response.create());
+
+        assertEquals(403, response.status);
+    }
+
+    @Test
+    public void getToken_writesTheSessionOnce() {
+        TestSession newSession = new TestSession("b");
+
+        String first = SessionTouchRequestHandler.getToken(newSession.getSession());
+
+        assertEquals(first, SessionTouchRequestHandler.getToken(newSession.getSession()));
+        assertEquals(1, newSession.getSession().attributeWrites);
+    }
+
+    @Test
+    public void handleRequest_sessionWithoutNotification_answersGone() throws IOException {
+        TestSession newSession = new TestSession("b");
+        FakeResponse response = new FakeResponse();
+
+        handler.handleRequest(newSession,
+                new FakeRequest(SessionTouchRequestHandler.REQUEST_TYPE).session(newSession.getSession()).create(),
+                response.create());
+
+        assertEquals(410, response.status);
+        assertEquals(0, extensions);
+    }
+
+    @Test
+    public void handleRequest_withoutSession_answersGone() throws IOException {
+        FakeResponse response = new FakeResponse();
+
+        handler.handleRequest(null, new FakeRequest(SessionTouchRequestHandler.REQUEST_TYPE).create(),
+                response.create());
+
+        assertEquals(410, response.status);
+    }
+
+    private FakeRequest touch() {
+        return new FakeRequest(SessionTouchRequestHandler.REQUEST_TYPE).session(session.getSession())
+                .parameter(SessionTouchRequestHandler.CSRF_TOKEN_PARAMETER, token);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.vaadin.componentfactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private static final long START = 1_000_000;
+    private static final long TICK = 100;
+
+    private TimingWheel wheel;
+    private List<Integer> expired;
+
+    @Before
+    public void setUp() {
+        wheel = new TimingWheel(TICK, 8, 4, START);
+        expired = new ArrayList<>();
+    }
+
+    @Test
+    public void advance_passesReachedDeadlinesOnly() {
+        wheel.schedule(0, START + 250);
+        wheel.schedule(1, START + 500);
+
+        // deadlines are rounded up to the next tick, so they never expire early
+        wheel.advance(START + 299, expired::add);
+        assertExpired();
+
+        wheel.advance(START + 300, expired::add);
+        assertExpired(0);
+        assertFalse(wheel.isScheduled(0));
+        assertTrue(wheel.isScheduled(1));
+
+        wheel.advance(START + 500, expired::add);
+        assertExpired(0, 1);
+    }
+
+    @Test
+    public void cancel_removesDeadline() {
+        wheel.schedule(0, START + 200);
+        wheel.schedule(1, START + 200);
+        wheel.schedule(2, START + 200);
+
+        // the middle, head and only remaining id of the bucket
+        wheel.cancel(1);
+        wheel.cancel(2);
+        wheel.cancel(0);
+        wheel.cancel(0);
+
+        wheel.advance(START + 1000, expired::add);
+        assertExpired();
+        assertFalse(wheel.isScheduled(0));
+    }
+
+    @Test
+    public void schedule_replacesPreviousDeadline() {
+        wheel.schedule(0, START + 200);
+        wheel.schedule(0, START + 600);
+
+        wheel.advance(START + 500, expired::add);
+        assertExpired();
+
+        wheel.advance(START + 600, expired::add);
+        assertExpired(0);
+    }
+
+    @Test
+    public void advance_keepsDeadlinesBeyondOneRevolution() {
+        // 8 buckets of 100 ms, so this deadline shares the bucket of tick 2
+        wheel.schedule(0, START + 1000);
+        wheel.schedule(1, START + 200);
+
+        wheel.advance(START + 900, expired::add);
+        assertExpired(1);
+
+        wheel.advance(START + 1000, expired::add);
+        assertExpired(1, 0);
+    }
+
+    @Test
+    public void schedule_pastDeadlineExpiresOnNextTick() {
+        wheel.advance(START + 500, expired::add);
+        wheel.schedule(0, START);
+
+        wheel.advance(START + 599, expired::add);
+        assertExpired();
+
+        wheel.advance(START + 600, expired::add);
+        assertExpired(0);
+    }
+
+    @Test
+    public void advance_allowsRescheduleFromConsumer() {
+        wheel.schedule(0, START + 100);
+        wheel.schedule(1, START + 100);
+
+        wheel.advance(START + 100, id -> {
+            expired.add(id);
+            wheel.schedule(id, START + 300);
+        });
+        assertExpired(1, 0);
+        assertTrue(wheel.isScheduled(0));
+        assertTrue(wheel.isScheduled(1));
+
+        expired.clear();
+        wheel.advance(START + 300, expired::add);
+        assertExpired(0, 1);
+    }
+
+    @Test
+    public void ensureCapacity_keepsScheduledIds() {
+        wheel.schedule(3, START + 200);
+        wheel.ensureCapacity(100);
+        wheel.schedule(99, START + 200);
+        assertFalse(wheel.isScheduled(50));
+
+        wheel.advance(START + 200, expired::add);
+        assertExpired(99, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsZeroTick() {
+        new TimingWheel(0, 8, 4, START);
+    }
+
+    private void assertExpired(Integer... ids) {
+        assertArrayEquals(ids, expired.toArray(new Integer[0]));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Run with: mvn -Pfrontend-tests test
+import { test } from 'node:test';
+import assert from 'node:assert/strict';
+import { importFrontendModule } from './frontend-module.mjs';
+
+globalThis.window = globalThis;
+
+const { ActivityClassifier } = await importFrontendModule('idle-notification-request-interceptor.js');
+
+const UIDL_URL = '/?v-r=uidl&v-uiId=0';
+// see ActivityRule.POLL
+const POLL = { activity: false, rpcType: 'event', event: 'ui-poll' };
+
+function uidl(...rpc) {
+  return JSON.stringify({ csrfToken: 'token', rpc, syncId: 1, clientId: 1 });
+}
+
+test('requests without a matching rule are activity', () => {
+  const classifier = new ActivityClassifier([POLL]);
+  assert.equal(classifier.isActivity(UIDL_URL, uidl({ type: 'event', node: 1, event: 'click' })), true);
+  assert.equal(classifier.isActivity(UIDL_URL, uidl()), true);
+  assert.equal(classifier.isActivity(UIDL_URL, undefined), true);
+});
+
+test('a request is activity if any of its server calls is', () => {
+  const classifier = new ActivityClassifier([POLL]);
+  const poll = { type: 'event', node: 1, event: 'ui-poll' };
+  assert.equal(classifier.isActivity(UIDL_URL, uidl(poll)), false);
+  assert.equal(classifier.isActivity(UIDL_URL, uidl(poll, { type: 'event', node: 5, event: 'click' })), true);
+});
+
+test('push messages are parsed after their length prefix', () => {
+  const classifier = new ActivityClassifier([POLL]);
+  const message = uidl({ type: 'event', node: 1, event: 'ui-poll' });
+  assert.equal(classifier.isActivity('/?v-r=push&v-uiId=0', message.length + '|' + message), false);
+});
+
+test('the first matching rule wins', () => {
+  const classifier = new ActivityClassifier([
+    { activity: true, rpcType: 'event', node: 7, event: 'ui-poll' },
+    POLL,
+    { activity: false, requestType: 'heartbeat' },
+    { activity: true, url: 'v-r=heartbeat' },
+  ]);
+  assert.equal(classifier.isActivity(UIDL_URL, uidl({ type: 'event', node: 7, event: 'ui-poll' })), true);
+  assert.equal(classifier.isActivity(UIDL_URL, uidl({ type: 'event', node: 8, event: 'ui-poll' })), false);
+  assert.equal(classifier.isActivity('/?v-r=heartbeat&v-uiId=0', undefined), false);
+});
+
+test('server call conditions only apply to the requests matching the request conditions', () => {
+  const classifier = new ActivityClassifier([{ activity: false, requestType: 'push', rpcType: 'event' }]);
+  const body = uidl({ type: 'event', node: 1, event: 'click' });
+  assert.equal(classifier.isActivity(UIDL_URL, body), true);
+  assert.equal(classifier.isActivity('/?v-r=push&v-uiId=0', body), false);
+});
+
+test('a rule whose URL pattern the browser rejects is skipped', () => {
+  const warn = console.warn;
+  console.warn = () => {};
+  try {
+    const classifier = new ActivityClassifier([
+      { activity: false, url: '(?i)v-r=UIDL' },
+      { activity: false, requestType: 'heartbeat' },
+    ]);
+    assert.equal(classifier.isActivity(UIDL_URL, undefined), true);
+    assert.equal(classifier.isActivity('/?v-r=heartbeat&v-uiId=0', undefined), false);
+  } finally {
+    console.warn = warn;
+  }
+});
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Stands in for @vaadin/vaadin-dialog/src/vaadin-dialog.js, whose import upgrades the dialogs of the
+ * elements. A test delays the upgrade by setting globalThis.dialogStubLoading to a promise before
+ * the element imports the package.
+ */
+
+import { defineDialog } from './polymer-stubs.mjs';
+
+await globalThis.dialogStubLoading;
+defineDialog();
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Run with: mvn -Pfrontend-tests test
+import { test } from 'node:test';
+import assert from 'node:assert/strict';
+import { setImmediate } from 'node:timers/promises';
+import { importFrontendModule } from './frontend-module.mjs';
+import { POLYMER_STUBS } from './polymer-stubs.mjs';
+
+globalThis.window = globalThis;
+const registry = new Map();
+globalThis.customElements = {
+  define: (name, elementClass) => registry.set(name, elementClass),
+  get: (name) => registry.get(name),
+};
+
+// the dialog package is only imported once the test lets it
+let upgradeDialogs;
+globalThis.dialogStubLoading = new Promise((resolve) => (upgradeDialogs = resolve));
+
+await importFrontendModule('idle-notification.js', POLYMER_STUBS);
+const IdleNotification = customElements.get('idle-notification');
+
+// the elements aren't activated, so that they don't count down, and are opened directly, as by the server
+test('the dialog renders the bound content of the element when it upgrades after being opened', async () => {
+  const element = new IdleNotification();
+  element.setProperties({
+    beforeExpiredMessage: ['Your session is about to expire'],
+    extendSessionButtonCaption: 'Extend',
+    redirectButtonCaption: 'Log out',
+  });
+  const dialog = element.shadowRoot.querySelector('vaadin-dialog');
+
+  // opened before the dialog components have loaded, as when the page has just been loaded
+  element.opened = true;
+  await setImmediate();
+  assert.equal(dialog.$, undefined);
+  assert.equal(Object.prototype.hasOwnProperty.call(dialog, 'opened'), false);
+
+  upgradeDialogs();
+  // settles after the open, which has been waiting for the same components
+  await element._ensureDialog();
+
+  assert.equal(dialog.opened, true);
+  assert.deepEqual(dialog.content, {
+    message: 'Your session is about to expire',
+    actions: element._actionsVisibility,
+    redirect: 'Log out',
+    extendSession: 'Extend',
+  });
+  assert.equal(dialog.noCloseOnEsc, true);
+
+  element.opened = false;
+  assert.equal(dialog.opened, false);
+  assert.equal(dialog.content, null);
+});
+
+test('a dialog created after the components have loaded is set up when opened', async () => {
+  const element = new IdleNotification();
+  element.beforeExpiredMessage = ['Expiring'];
+  const dialog = element.shadowRoot.querySelector('vaadin-dialog');
+  assert.notEqual(dialog.$, undefined);
+
+  element.opened = true;
+  await element._ensureDialog();
+
+  assert.equal(dialog.opened, true);
+  assert.equal(dialog.content.message, 'Expiring');
+  element.opened = false;
+});
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import { readFileSync } from 'node:fs';
+
+const FRONTEND = new URL('../../main/resources/META-INF/resources/frontend/', import.meta.url);
+const RELATIVE_IMPORT = /\b(from|import)\s+'\.\/([^']+)'/g;
+// static and dynamic imports of packages, e.g. import('@vaadin/vaadin-dialog/src/vaadin-dialog.js')
+const PACKAGE_IMPORT = /\b(from|import)(\s*\(?\s*)'([^.'][^']*)'/g;
+
+/**
+ * Gets a data: URL of the given module of the add-on, in which its relative imports are data: URLs
+ * too, and its imports of the given packages are replaced by their stubs. This loads the modules
+ * without a bundler, and, as a module always gets the same URL, every module is still only
+ * evaluated once.
+ */
+function toDataUrl(name, stubs) {
+  const source = readFileSync(new URL(name, FRONTEND), 'utf8')
+    .replace(PACKAGE_IMPORT, (statement, keyword, separator, specifier) =>
+      specifier in stubs ? `${keyword}${separator}'${stubs[specifier]}'` : statement
+    )
+    .replace(RELATIVE_IMPORT, (statement, keyword, dependency) => `${keyword} '${toDataUrl(dependency, stubs)}'`);
+  // the quotes too, as the URL is quoted in the importing module
+  return 'data:text/javascript,' + encodeURIComponent(source).replace(/'/g, '%27');
+}
+
+/**
+ * Imports the given module of src/main/resources/META-INF/resources/frontend
+ *
+ * @param stubs the URLs of the modules that replace the packages the module imports, by package
+ *     specifier
+ */
+export function importFrontendModule(name, stubs = {}) {
+  return import(toDataUrl(name, stubs));
+}
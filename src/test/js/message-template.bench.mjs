@@ -0,0 +1,83 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Compares the per-tick cost of rendering a count-down message, precompiled by MessageTemplate.java,
+// with the eval() of the raw message as a template literal that the client used before.
+// Run with: mvn -Pbenchmarks verify, or node message-template.bench.mjs
+import { importFrontendModule } from './frontend-module.mjs';
+
+const { renderMessage } = await importFrontendModule('idle-notification-message.js');
+
+const MAX_INACTIVE_INTERVAL = 1800;
+const WARMUP_TICKS = 200000;
+const MEASURED_TICKS = 1000000;
+const ROUNDS = 5;
+
+const MESSAGE =
+  'Your session of ${SECS_MAX_IDLE_TIMEOUT} seconds expires in ${MINUTES_TO_TIMEOUT}:${SECS_OVER_MINUTES_TO_TIMEOUT}.' +
+  ' Unsaved changes will be lost.';
+// what MessageTemplate.compile(MESSAGE) sends to the client
+const TEMPLATE = ['Your session of ', 1, ' seconds expires in ', 2, ':', 3, '. Unsaved changes will be lost.'];
+
+/** The former _updateFormattedMessage of idle-notification.js */
+function evalMessage(message, secondsToTimeout, maxInactiveInterval) {
+  let SECS_TO_TIMEOUT = secondsToTimeout;
+  let SECS_MAX_IDLE_TIMEOUT = maxInactiveInterval;
+  let minutesToTimeout = Math.floor(SECS_TO_TIMEOUT / 60);
+  let secondsOverMinutesToTimeout = SECS_TO_TIMEOUT - minutesToTimeout * 60;
+  let MINUTES_TO_TIMEOUT = String(minutesToTimeout).padStart(2, '0');
+  let SECS_OVER_MINUTES_TO_TIMEOUT = String(secondsOverMinutesToTimeout).padStart(2, '0');
+  return eval('`' + message + '`');
+}
+
+function evalTick(i) {
+  return evalMessage(MESSAGE, i % MAX_INACTIVE_INTERVAL, MAX_INACTIVE_INTERVAL);
+}
+
+function compiledTick(i) {
+  return renderMessage(TEMPLATE, i % MAX_INACTIVE_INTERVAL, MAX_INACTIVE_INTERVAL);
+}
+
+/** @return the average time per tick, in ns */
+function measure(tick, ticks) {
+  let length = 0;
+  const start = process.hrtime.bigint();
+  for (let i = 0; i < ticks; i++) {
+    // keeps the result alive
+    length += tick(i).length;
+  }
+  const elapsed = Number(process.hrtime.bigint() - start);
+  if (length === 0) {
+    throw new Error('empty messages');
+  }
+  return elapsed / ticks;
+}
+
+if (evalTick(61) !== compiledTick(61)) {
+  throw new Error('The paths render different messages: ' + evalTick(61) + ' / ' + compiledTick(61));
+}
+for (const [name, tick] of [
+  ['eval', evalTick],
+  ['compiled', compiledTick],
+]) {
+  measure(tick, WARMUP_TICKS);
+  const results = [];
+  for (let round = 0; round < ROUNDS; round++) {
+    results.push(measure(tick, MEASURED_TICKS));
+  }
+  results.sort((a, b) => a - b);
+  console.log(`${name.padEnd(8)} ${results[ROUNDS >> 1].toFixed(1).padStart(8)} ns/tick (median of ${ROUNDS} rounds)`);
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Run with: mvn -Pfrontend-tests test
+import { test } from 'node:test';
+import assert from 'node:assert/strict';
+import { importFrontendModule } from './frontend-module.mjs';
+
+const { renderMessage } = await importFrontendModule('idle-notification-message.js');
+
+test('placeholder codes render the numbers of MessageTemplate.PLACEHOLDERS', () => {
+  // what MessageTemplate.compile() sends for a message with every placeholder
+  const template = ['', 0, ' of ', 1, ' (', 2, ':', 3, ')'];
+  assert.equal(renderMessage(template, 125, 1800), '125 of 1800 (02:05)');
+  assert.equal(renderMessage(template, 5, 1800), '5 of 1800 (00:05)');
+});
+
+test('literal segments are rendered as is', () => {
+  assert.equal(renderMessage(['${SECS_TO_TIMEOUT} is not a placeholder here'], 10, 60), '${SECS_TO_TIMEOUT} is not a placeholder here');
+  assert.equal(renderMessage([], 10, 60), '');
+});
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Stands in for the packages that idle-notification.js imports, so that the element runs under
+ * node without a DOM. Only what the element relies on is implemented: the declared properties with
+ * their default values and observers, setProperties, and a shadow root with a dialog, which is
+ * upgraded once its package, dialog-stub.mjs, has been imported.
+ */
+
+const PACKAGES = [
+  '@polymer/polymer/polymer-element.js',
+  '@vaadin/vaadin-themable-mixin/vaadin-themable-mixin.js',
+  '@vaadin/vaadin-themable-mixin/register-styles',
+  '@vaadin/vaadin-button/src/vaadin-button.js',
+];
+
+/**
+ * The stubs to pass to importFrontendModule
+ */
+export const POLYMER_STUBS = {
+  ...Object.fromEntries(PACKAGES.map((name) => [name, import.meta.url])),
+  '@vaadin/vaadin-dialog/src/vaadin-dialog.js': new URL('./dialog-stub.mjs', import.meta.url).href,
+};
+
+export function html(strings, ...values) {
+  return strings.raw.join('');
+}
+
+export const css = html;
+
+export function registerStyles() {}
+
+export function ThemableMixin(base) {
+  return base;
+}
+
+const finalized = new WeakSet();
+
+/**
+ * Like <vaadin-dialog>, renders the content of its template while opened, from the current
+ * properties of the element whose template declares it
+ */
+const DIALOG_PROTOTYPE = {
+  get opened() {
+    return !!this.__opened;
+  },
+
+  set opened(opened) {
+    this.__opened = opened;
+  },
+
+  /** The rendered content, or null while closed */
+  get content() {
+    const host = this.__host;
+    return this.__opened
+      ? {
+          message: host._messageContent,
+          actions: host._actionsVisibility,
+          redirect: host.redirectButtonCaption,
+          extendSession: host.extendSessionButtonCaption,
+        }
+      : null;
+  },
+};
+
+const dialogs = [];
+let dialogDefined = false;
+
+/**
+ * Upgrades the given dialog, which, like a custom element, keeps the properties set on it before
+ * as its own, shadowing the accessors of its class
+ */
+function upgradeDialog(dialog) {
+  Object.setPrototypeOf(dialog, DIALOG_PROTOTYPE);
+  dialog.$ = { overlay: new EventTarget() };
+}
+
+/**
+ * Upgrades the dialogs created so far, and those created from now on
+ */
+export function defineDialog() {
+  dialogDefined = true;
+  dialogs.splice(0).forEach(upgradeDialog);
+}
+
+function createDialog(host) {
+  const dialog = { localName: 'vaadin-dialog', __host: host };
+  if (dialogDefined) {
+    upgradeDialog(dialog);
+  } else {
+    dialogs.push(dialog);
+  }
+  return dialog;
+}
+
+/**
+ * Defines an accessor per declared property, which, like Polymer, runs the observer of the property
+ * once its value changes
+ */
+function finalize(elementClass) {
+  if (finalized.has(elementClass)) {
+    return;
+  }
+  finalized.add(elementClass);
+  Object.keys(elementClass.properties).forEach((name) =>
+    Object.defineProperty(elementClass.prototype, name, {
+      get() {
+        return this.__data[name];
+      },
+      set(value) {
+        this.setProperties({ [name]: value });
+      },
+    })
+  );
+}
+
+export class PolymerElement extends EventTarget {
+  constructor() {
+    super();
+    this.__data = {};
+    finalize(this.constructor);
+    const defaults = {};
+    Object.entries(this.constructor.properties).forEach(([name, property]) => {
+      if (property.value !== undefined) {
+        defaults[name] = typeof property.value === 'function' ? property.value() : property.value;
+      }
+    });
+    const dialog = createDialog(this);
+    this.shadowRoot = { querySelector: (selector) => (selector === 'vaadin-dialog' ? dialog : null) };
+    this.setProperties(defaults);
+  }
+
+  /**
+   * Sets all the given properties before running the observers of the changed ones
+   */
+  setProperties(values) {
+    const changed = Object.entries(values).filter(([name, value]) => this.__data[name] !== value);
+    const oldValues = changed.map(([name]) => this.__data[name]);
+    changed.forEach(([name, value]) => (this.__data[name] = value));
+    changed.forEach(([name, value], i) => {
+      const property = this.constructor.properties[name];
+      if (property && property.observer) {
+        this[property.observer](value, oldValues[i]);
+      }
+    });
+  }
+
+  connectedCallback() {}
+
+  disconnectedCallback() {}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Run with: mvn -Pfrontend-tests test
+import { test } from 'node:test';
+import assert from 'node:assert/strict';
+import { importFrontendModule } from './frontend-module.mjs';
+import { POLYMER_STUBS } from './polymer-stubs.mjs';
+
+globalThis.window = globalThis;
+const registry = new Map();
+globalThis.customElements = {
+  define: (name, elementClass) => registry.set(name, elementClass),
+  get: (name) => registry.get(name),
+};
+
+await importFrontendModule('idle-notification.js', POLYMER_STUBS);
+const IdleNotification = customElements.get('idle-notification');
+
+const PAGES = 1000;
+const WAVE_MS = 5000;
+const MAX_INACTIVE_INTERVAL = 120;
+const SECONDS_BEFORE_NOTIFICATION = 60;
+const JITTER = 30;
+
+/** Runs timers in the order of their due time, without waiting for them */
+class FakeClock {
+  constructor() {
+    this.now = 0;
+    this._queue = [];
+    this._cancelled = new Set();
+    this._nextId = 1;
+  }
+
+  setTimeout(callback, delay) {
+    const timer = { id: this._nextId++, at: this.now + Math.max(0, delay || 0), callback };
+    this._push(timer);
+    return timer.id;
+  }
+
+  clearTimeout(id) {
+    this._cancelled.add(id);
+  }
+
+  /** Runs the timers due until the given time, including those they set */
+  runUntil(time) {
+    while (this._queue.length > 0 && this._queue[0].at <= time) {
+      const timer = this._pop();
+      if (this._cancelled.delete(timer.id)) {
+        continue;
+      }
+      this.now = timer.at;
+      timer.callback();
+    }
+    this.now = time;
+  }
+
+  /** A binary heap ordered by due time, then by id */
+  _before(a, b) {
+    return a.at < b.at || (a.at === b.at && a.id < b.id);
+  }
+
+  _push(timer) {
+    const queue = this._queue;
+    let i = queue.push(timer) - 1;
+    while (i > 0 && this._before(timer, queue[(i - 1) >> 1])) {
+      queue[i] = queue[(i - 1) >> 1];
+      i = (i - 1) >> 1;
+    }
+    queue[i] = timer;
+  }
+
+  _pop() {
+    const queue = this._queue;
+    const first = queue[0];
+    const last = queue.pop();
+    if (queue.length > 0) {
+      let i = 0;
+      for (;;) {
+        const child = 2 * i + 1;
+        if (child >= queue.length) {
+          break;
+        }
+        const smaller = child + 1 < queue.length && this._before(queue[child + 1], queue[child]) ? child + 1 : child;
+        if (!this._before(queue[smaller], last)) {
+          break;
+        }
+        queue[i] = queue[smaller];
+        i = smaller;
+      }
+      queue[i] = last;
+    }
+    return first;
+  }
+}
+
+/** A seeded random number generator (mulberry32), so that every run sees the same pages */
+function seededRandom(seed) {
+  let state = seed >>> 0;
+  return () => {
+    state = (state + 0x6d2b79f5) >>> 0;
+    let t = state;
+    t = Math.imul(t ^ (t >>> 15), t | 1);
+    t ^= t + Math.imul(t ^ (t >>> 7), t | 61);
+    return ((t ^ (t >>> 14)) >>> 0) / 4294967296;
+  };
+}
+
+/**
+ * Replaces the given properties of globalThis while running the given function
+ */
+function withGlobals(globals, run) {
+  const saved = Object.keys(globals).map((name) => [name, Object.getOwnPropertyDescriptor(globalThis, name)]);
+  Object.entries(globals).forEach(([name, value]) =>
+    Object.defineProperty(globalThis, name, { value, configurable: true, writable: true })
+  );
+  const random = Math.random;
+  try {
+    return run();
+  } finally {
+    Math.random = random;
+    saved.forEach(([name, descriptor]) =>
+      descriptor ? Object.defineProperty(globalThis, name, descriptor) : delete globalThis[name]
+    );
+  }
+}
+
+/**
+ * Logs PAGES pages in, uniformly over WAVE_MS, and lets them all stay idle until their sessions
+ * time-out. Returns, per page, the time of its login, of its redirect and of its prefetch, in
+ * milliseconds from the start of the wave.
+ */
+function simulate({ redirectJitter, prefetchRedirectAtTimeout }) {
+  const clock = new FakeClock();
+  const random = seededRandom(42);
+  const pages = [];
+  const redirect = (url) => (pages[new URL(url).searchParams.get('page')].redirects.push(clock.now));
+  const document = {
+    visibilityState: 'visible',
+    head: { appendChild: (link) => pages[new URL(link.href).searchParams.get('page')].prefetches.push(clock.now) },
+    createElement: () => ({}),
+    addEventListener() {},
+    removeEventListener() {},
+  };
+  return withGlobals(
+    {
+      setTimeout: (callback, delay) => clock.setTimeout(callback, delay),
+      clearTimeout: (id) => clock.clearTimeout(id),
+      performance: { now: () => clock.now },
+      location: { replace: redirect },
+      document,
+    },
+    () => {
+      Math.random = random;
+      for (let i = 0; i < PAGES; i++) {
+        const page = { login: random() * WAVE_MS, redirects: [], prefetches: [] };
+        pages.push(page);
+        clock.setTimeout(() => {
+          page.element = new IdleNotification();
+          page.element.setProperties({
+            redirectAtTimeoutUrl: 'https://example.com/logged-out?page=' + i,
+            redirectJitter,
+            prefetchRedirectAtTimeout,
+            secondsBeforeNotification: SECONDS_BEFORE_NOTIFICATION,
+            maxInactiveInterval: MAX_INACTIVE_INTERVAL,
+          });
+        }, page.login);
+      }
+      clock.runUntil(WAVE_MS + (MAX_INACTIVE_INTERVAL + JITTER + 1) * 1000);
+      return pages;
+    }
+  );
+}
+
+function deadline(page) {
+  return page.login + MAX_INACTIVE_INTERVAL * 1000;
+}
+
+/** The largest number of the given times within one second */
+function peak(times) {
+  const perSecond = new Map();
+  times.forEach((time) => {
+    const second = Math.floor(time / 1000);
+    perSecond.set(second, (perSecond.get(second) || 0) + 1);
+  });
+  return Math.max(...perSecond.values());
+}
+
+/** The number of milliseconds of the shortest window holding 99% of the given times */
+function spread99(times) {
+  const sorted = [...times].sort((a, b) => a - b);
+  const needed = Math.ceil(sorted.length * 0.99);
+  let best = Infinity;
+  for (let start = 0; start + needed <= sorted.length; start++) {
+    best = Math.min(best, sorted[start + needed - 1] - sorted[start]);
+  }
+  return best;
+}
+
+const noJitter = simulate({ redirectJitter: 0, prefetchRedirectAtTimeout: false });
+const jitter = simulate({ redirectJitter: JITTER, prefetchRedirectAtTimeout: false });
+const jitterAndPrefetch = simulate({ redirectJitter: JITTER, prefetchRedirectAtTimeout: true });
+
+function redirects(pages) {
+  return pages.flatMap((page) => page.redirects);
+}
+
+test('without jitter, every page redirects at its timeout, as the sessions logged in', () => {
+  noJitter.forEach((page) => assert.deepEqual(page.redirects, [deadline(page)]));
+  assert.ok(spread99(redirects(noJitter)) <= WAVE_MS);
+  assert.ok(peak(redirects(noJitter)) >= PAGES / (WAVE_MS / 1000) * 0.8);
+});
+
+test('jitter delays the redirect of every page by at most redirectJitter', () => {
+  jitter.forEach((page) => {
+    assert.equal(page.redirects.length, 1);
+    assert.ok(page.redirects[0] >= deadline(page));
+    assert.ok(page.redirects[0] <= deadline(page) + JITTER * 1000);
+  });
+});
+
+test('jitter spreads the redirects over redirectJitter, and flattens their peak', () => {
+  assert.ok(spread99(redirects(jitter)) >= JITTER * 1000 * 0.9);
+  assert.ok(peak(redirects(jitter)) * 3 <= peak(redirects(noJitter)));
+});
+
+test('every page prefetches once, in the first half of its count-down', () => {
+  jitterAndPrefetch.forEach((page) => {
+    const notification = deadline(page) - SECONDS_BEFORE_NOTIFICATION * 1000;
+    assert.equal(page.prefetches.length, 1);
+    assert.ok(page.prefetches[0] >= notification);
+    assert.ok(page.prefetches[0] <= notification + (SECONDS_BEFORE_NOTIFICATION * 1000) / 2);
+    assert.equal(page.redirects.length, 1);
+  });
+  const prefetches = jitterAndPrefetch.flatMap((page) => page.prefetches);
+  assert.ok(spread99(prefetches) >= (SECONDS_BEFORE_NOTIFICATION * 1000) / 2 * 0.9);
+  assert.ok(peak(prefetches) * 3 <= peak(redirects(noJitter)));
+});
+
+test('pages without prefetchRedirectAtTimeout do not prefetch', () => {
+  jitter.forEach((page) => assert.deepEqual(page.prefetches, []));
+});
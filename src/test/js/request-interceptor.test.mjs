@@ -0,0 +1,188 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Run with: mvn -Pfrontend-tests test
+import { test } from 'node:test';
+import assert from 'node:assert/strict';
+import { importFrontendModule } from './frontend-module.mjs';
+
+/** Registers a listener once per type, like EventTarget, and fires load synchronously on send */
+class FakeXMLHttpRequest {
+  constructor() {
+    this.listeners = new Map();
+    this.status = 200;
+  }
+
+  addEventListener(type, listener) {
+    if (!this.listeners.has(type)) {
+      this.listeners.set(type, new Set());
+    }
+    this.listeners.get(type).add(listener);
+  }
+
+  loadListenerCount() {
+    return this.listeners.has('load') ? this.listeners.get('load').size : 0;
+  }
+
+  open(method, url) {
+    this.responseURL = url;
+  }
+
+  setRequestHeader() {}
+
+  send() {
+    (this.listeners.get('load') || []).forEach((listener) => listener.call(this));
+  }
+}
+
+class FakeWebSocket {
+  send() {}
+}
+
+globalThis.window = globalThis;
+globalThis.XMLHttpRequest = FakeXMLHttpRequest;
+globalThis.WebSocket = FakeWebSocket;
+const fetchedHeaders = [];
+globalThis.fetch = (url, init) => {
+  fetchedHeaders.push(new Headers(init && init.headers));
+  return Promise.resolve({ status: 200, url });
+};
+const unpatchedOpen = FakeXMLHttpRequest.prototype.open;
+
+const { ActivityClassifier, RequestInterceptor } = await importFrontendModule(
+  'idle-notification-request-interceptor.js'
+);
+
+function createElement() {
+  return {
+    loads: 0,
+    vaadinRequests: [],
+    activities: [],
+    _activityClassifier: null,
+    _heartbeatDeferral: () => -1,
+    _handleLoad(vaadinRequest, activity) {
+      this.loads++;
+      this.vaadinRequests.push(vaadinRequest);
+      this.activities.push(activity);
+    },
+    _handlePushActivity() {},
+  };
+}
+
+function sendRequest() {
+  const xhr = new XMLHttpRequest();
+  xhr.open('POST', '/?v-r=uidl&v-uiId=0');
+  xhr.send('{}');
+  return xhr;
+}
+
+test('per-request overhead stays constant after 1000 attach/detach cycles', async () => {
+  const element = createElement();
+  RequestInterceptor.subscribe(element);
+  const first = sendRequest();
+  const patched = {
+    open: XMLHttpRequest.prototype.open,
+    send: XMLHttpRequest.prototype.send,
+    webSocketSend: WebSocket.prototype.send,
+    fetch: window.fetch,
+  };
+  assert.notEqual(patched.open, unpatchedOpen);
+  assert.equal(first.loadListenerCount(), 1);
+  assert.equal(element.loads, 1);
+
+  // re-attaching the same element, as after a navigation back, and attaching new ones
+  for (let i = 0; i < 1000; i++) {
+    const other = createElement();
+    RequestInterceptor.subscribe(other);
+    RequestInterceptor.unsubscribe(element);
+    RequestInterceptor.subscribe(element);
+    RequestInterceptor.unsubscribe(other);
+  }
+
+  // the patches are installed once, rather than wrapped again by every element
+  assert.equal(XMLHttpRequest.prototype.open, patched.open);
+  assert.equal(XMLHttpRequest.prototype.send, patched.send);
+  assert.equal(WebSocket.prototype.send, patched.webSocketSend);
+  assert.equal(window.fetch, patched.fetch);
+  assert.equal(RequestInterceptor._subscribers.size, 1);
+
+  const last = sendRequest();
+  assert.equal(last.loadListenerCount(), 1);
+  assert.equal(element.loads, 2);
+
+  await fetch('/?v-r=uidl&v-uiId=0');
+  assert.equal(element.loads, 3);
+
+  RequestInterceptor.unsubscribe(element);
+});
+
+test('detached elements are not notified', () => {
+  const element = createElement();
+  RequestInterceptor.subscribe(element);
+  RequestInterceptor.unsubscribe(element);
+  const xhr = sendRequest();
+  assert.equal(xhr.loadListenerCount(), 1);
+  assert.equal(element.loads, 0);
+});
+
+test('fetch requests excluded by an activity rule are marked, and notified as no activity', async () => {
+  const element = createElement();
+  element._activityClassifier = new ActivityClassifier([{ activity: false, url: 'poll' }]);
+  RequestInterceptor.subscribe(element);
+  fetchedHeaders.length = 0;
+
+  await fetch('/?v-r=uidl&v-uiId=0&poll', { method: 'POST', headers: { 'Content-Type': 'application/json' } });
+  await fetch('/?v-r=uidl&v-uiId=0', { method: 'POST', body: '{}' });
+
+  assert.deepEqual(element.activities, [false, true]);
+  assert.equal(fetchedHeaders[0].get('X-Idle-Notification-No-Activity'), 'true');
+  assert.equal(fetchedHeaders[0].get('Content-Type'), 'application/json');
+  assert.equal(fetchedHeaders[1].get('X-Idle-Notification-No-Activity'), null);
+
+  RequestInterceptor.unsubscribe(element);
+});
+
+test('the requests of the element itself are not notified', async () => {
+  const element = createElement();
+  RequestInterceptor.subscribe(element);
+
+  await fetch('/?v-r=idle-notification-touch&activity', { method: 'POST' });
+  const xhr = new XMLHttpRequest();
+  xhr.open('POST', '/?v-r=idle-notification-ui-closed');
+  xhr.send('');
+
+  assert.equal(element.loads, 0);
+
+  RequestInterceptor.unsubscribe(element);
+});
+
+test('completed requests are classified once for all the elements', async () => {
+  const elements = [createElement(), createElement()];
+  elements.forEach((element) => RequestInterceptor.subscribe(element));
+
+  sendRequest();
+  await fetch('/?v-r=uidl&v-uiId=0');
+  await fetch('/?v-r=heartbeat&v-uiId=0');
+  await fetch('/images/logo.png');
+  const failed = new XMLHttpRequest();
+  failed.status = 500;
+  failed.open('POST', '/?v-r=uidl&v-uiId=0');
+  failed.send('{}');
+
+  elements.forEach((element) => assert.deepEqual(element.vaadinRequests, [true, true, false, false, false]));
+
+  elements.forEach((element) => RequestInterceptor.unsubscribe(element));
+});
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2000-2020 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+// Run with: mvn -Pfrontend-tests test
+import { test } from 'node:test';
+import assert from 'node:assert/strict';
+import { importFrontendModule } from './frontend-module.mjs';
+
+const { TimerStats, setCountedInterval, setCountedTimeout } = await importFrontendModule('idle-notification-timers.js');
+
+test('timeouts count one wakeup when they fire', async () => {
+  const before = TimerStats.wakeups;
+  await new Promise((resolve) => setCountedTimeout(resolve, 1));
+  assert.equal(TimerStats.wakeups, before + 1);
+
+  clearTimeout(setCountedTimeout(() => assert.fail('cancelled timeout fired'), 1));
+  await new Promise((resolve) => setTimeout(resolve, 20));
+  assert.equal(TimerStats.wakeups, before + 1);
+});
+
+test('intervals count every wakeup', async () => {
+  const before = TimerStats.wakeups;
+  let calls = 0;
+  await new Promise((resolve) => {
+    const interval = setCountedInterval(() => {
+      if (++calls === 3) {
+        clearInterval(interval);
+        resolve();
+      }
+    }, 1);
+  });
+  assert.equal(TimerStats.wakeups, before + 3);
+});
+
+test('all modules share the same counter', async () => {
+  const timers = await importFrontendModule('idle-notification-timers.js');
+  assert.equal(timers.TimerStats, TimerStats);
+});